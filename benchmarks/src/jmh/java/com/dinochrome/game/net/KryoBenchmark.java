@@ -0,0 +1,94 @@
+// =====================================================
+// ARCHIVO: KryoBenchmark.java
+// PAQUETE: com.dinochrome.game.net (benchmarks)
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.TimeUnit;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialización Kryo de los mensajes de GameServer, con los mismos
+ * serializadores (GameServer.registerClasses) y buffers reutilizados como en
+ * Kryonet: lo que se mide es el costo por objeto, no el de abrir streams.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KryoBenchmark {
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+
+    private PlayerState jugador;
+    private ObstacleState obstaculo;
+    private byte[] jugadorBytes;
+    private byte[] obstaculoBytes;
+
+    @Setup
+    public void preparar() {
+        kryo = new Kryo();
+        GameServer.registerClasses(kryo);
+        output = new Output(new byte[GameServer.DEFAULT_OBJECT_BUFFER_SIZE]);
+        input = new Input();
+
+        jugador = new PlayerState();
+        jugador.playerId = 1;
+        jugador.x = 123.45f;
+        jugador.y = 67.5f;
+
+        obstaculo = new ObstacleState();
+        obstaculo.id = 17;
+        obstaculo.x = 800f;
+        obstaculo.y = 40f;
+        obstaculo.width = 22f;
+        obstaculo.height = 35f;
+
+        jugadorBytes = escribir(jugador);
+        obstaculoBytes = escribir(obstaculo);
+    }
+
+    @Benchmark
+    public int escribirPlayerState() {
+        output.setPosition(0);
+        kryo.writeClassAndObject(output, jugador);
+        return output.position();
+    }
+
+    @Benchmark
+    public Object leerPlayerState() {
+        input.setBuffer(jugadorBytes);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public int escribirObstacleState() {
+        output.setPosition(0);
+        kryo.writeClassAndObject(output, obstaculo);
+        return output.position();
+    }
+
+    @Benchmark
+    public Object leerObstacleState() {
+        input.setBuffer(obstaculoBytes);
+        return kryo.readClassAndObject(input);
+    }
+
+    private byte[] escribir(Object o) {
+        output.setPosition(0);
+        kryo.writeClassAndObject(output, o);
+        return output.toBytes();
+    }
+}
@@ -0,0 +1,94 @@
+// =====================================================
+// ARCHIVO: LineaObstaculosBenchmark.java
+// PAQUETE: com.dinochrome.game.net (benchmarks)
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Generación de obstáculos (lo que antes era generarObstaculo),
+ * codificación del lote LOTE_OBSTACULOS que se manda a los clientes v2 y
+ * un tick de la simulación autoritativa (avance + choques de 2 jugadores).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LineaObstaculosBenchmark {
+
+    @Param({"UDP", "KRYONET"})
+    public String perfil;
+
+    // Antes de que los ticks se acerquen al overflow se arranca otra partida
+    private static final int TICK_MAXIMO = 1 << 30;
+
+    private LineaObstaculos linea;
+    private ByteBuffer salida;
+
+    private LineaObstaculos lineaSimulada;
+    private ObstaculosVivos vivos;
+    private int tickSimulado;
+    private long semilla = 42L;
+
+    @Setup
+    public void preparar() {
+        linea = new LineaObstaculos(LineaObstaculos.Perfil.valueOf(perfil), Sala.TICKS_POR_SEGUNDO);
+        linea.reiniciar(semilla);
+        linea.completarHasta(Integer.MAX_VALUE); // ventana llena
+        salida = ByteBuffer.allocateDirect(2048);
+
+        lineaSimulada = new LineaObstaculos(LineaObstaculos.Perfil.valueOf(perfil), Sala.TICKS_POR_SEGUNDO);
+        lineaSimulada.reiniciar(semilla);
+        vivos = new ObstaculosVivos(Sala.TICKS_POR_SEGUNDO);
+    }
+
+    /** Con la ventana llena, consumir uno hace generar exactamente uno nuevo. */
+    @Benchmark
+    public int generarObstaculo() {
+        linea.sacarPrimero();
+        linea.completarHasta(Integer.MAX_VALUE);
+
+        int ultimo = linea.tick(linea.pendientes() - 1);
+        if (ultimo > TICK_MAXIMO) {
+            linea.reiniciar(++semilla);
+            linea.completarHasta(Integer.MAX_VALUE);
+        }
+        return ultimo;
+    }
+
+    /** Lo que hace cada sala por tick: avanzar, hacer aparecer y chocar contra los 2 jugadores. */
+    @Benchmark
+    public boolean simularTick() {
+        int tick = ++tickSimulado;
+        if (tick > TICK_MAXIMO) {
+            tickSimulado = tick = 1;
+            lineaSimulada.reiniciar(++semilla);
+            vivos.limpiar();
+        }
+
+        vivos.avanzar();
+        lineaSimulada.completarHasta(tick);
+        while (lineaSimulada.pendientes() > 0 && lineaSimulada.tick(0) <= tick) {
+            vivos.aparecer(lineaSimulada);
+            lineaSimulada.sacarPrimero();
+        }
+        // uno saltando (nunca choca) y otro en el piso agachado
+        return vivos.choca(50f, 400f, false) | vivos.choca(50f, 40f, true);
+    }
+
+    @Benchmark
+    public ByteBuffer escribirLote() {
+        ProtocoloBinario.escribirLoteObstaculos(salida, linea);
+        return salida;
+    }
+}
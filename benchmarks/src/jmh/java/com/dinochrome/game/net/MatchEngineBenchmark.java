@@ -0,0 +1,81 @@
+// =====================================================
+// ARCHIVO: MatchEngineBenchmark.java
+// PAQUETE: com.dinochrome.game.net (benchmarks)
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Un tick de GameServer con la partida en curso, sobre LoopbackTransport:
+ * los dos jugadores mandan su PlayerState y la partida avanza un tick
+ * (comandos, obstáculos, choques y, cada tanto, snapshots). Sin sockets,
+ * lo que queda es la lógica de la partida y la serialización.
+ *
+ * Con decodificar los clientes además deserializan lo que reciben, como
+ * haría el juego; sin él sólo lo cuentan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MatchEngineBenchmark {
+
+    private static final int TICK_RATE = 60;
+
+    @Param({"false", "true"})
+    public boolean decodificar;
+
+    private GameServer servidor;
+    private LoopbackTransport.Peer jugador1;
+    private LoopbackTransport.Peer jugador2;
+    private PlayerState estado;
+    private int paso;
+    private Object ultimo;
+
+    @Setup
+    public void preparar() throws IOException {
+        LoopbackTransport transporte = new LoopbackTransport();
+        // Sin hilo de ticks: cada operación es un update()
+        servidor = new GameServer(transporte, TICK_RATE, GameServer.DEFAULT_SNAPSHOT_RATE, null, true);
+
+        jugador1 = transporte.connect(decodificar ? m -> ultimo = m : null);
+        jugador2 = transporte.connect(decodificar ? m -> ultimo = m : null);
+
+        PlayerState listo = new PlayerState();
+        listo.ready = true;
+        jugador1.send(listo, true);
+        jugador2.send(listo, true);
+        servidor.update(1f / TICK_RATE);
+
+        // Bien arriba: ningún obstáculo lo alcanza y la partida no termina
+        estado = new PlayerState();
+        estado.x = 80f;
+        estado.y = 1000f;
+    }
+
+    @TearDown
+    public void cerrar() {
+        servidor.stop();
+    }
+
+    @Benchmark
+    public long tick() {
+        // Se mueve en cada tick: si no, los snapshots no llevan a nadie
+        estado.x = 80f + (++paso & 63);
+        jugador1.send(estado, false);
+        jugador2.send(estado, false);
+        servidor.update(1f / TICK_RATE);
+        return jugador1.receivedBytes();
+    }
+}
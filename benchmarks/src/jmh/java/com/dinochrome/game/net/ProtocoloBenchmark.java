@@ -0,0 +1,78 @@
+// =====================================================
+// ARCHIVO: ProtocoloBenchmark.java
+// PAQUETE: com.dinochrome.game.net (benchmarks)
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decodificación y codificación de STATE en los dos protocolos del
+ * servidor UDP, sobre buffers directos como en el servidor real.
+ * Con el profiler gc tiene que dar 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocoloBenchmark {
+
+    private ByteBuffer estadoTexto;
+    private ByteBuffer estadoBinario;
+    private ByteBuffer salida;
+    private Jugador jugador;
+
+    private float x;
+
+    @Setup
+    public void preparar() {
+        byte[] texto = "STATE;id=1;x=123.45;y=67.5;duck=0".getBytes(StandardCharsets.US_ASCII);
+        estadoTexto = ByteBuffer.allocateDirect(texto.length);
+        estadoTexto.put(texto).flip();
+
+        estadoBinario = ByteBuffer.allocateDirect(ProtocoloBinario.LARGO_STATE);
+        ProtocoloBinario.escribirEstado(estadoBinario, 1, 123.45f, 67.5f, false);
+
+        salida = ByteBuffer.allocateDirect(2048);
+        jugador = new Jugador();
+    }
+
+    @Benchmark
+    public boolean parsearEstadoTexto() {
+        return ProtocoloTexto.parsearEstado(estadoTexto, 0, estadoTexto.limit(), jugador);
+    }
+
+    @Benchmark
+    public boolean parsearEstadoBinario() {
+        return ProtocoloBinario.parsearEstado(estadoBinario, 0, estadoBinario.limit(), jugador);
+    }
+
+    @Benchmark
+    public int tipoTexto() {
+        return ProtocoloTexto.tipo(estadoTexto, 0, estadoTexto.limit());
+    }
+
+    // x cambia en cada llamada para que el formateo del float no sea constante
+    @Benchmark
+    public ByteBuffer escribirEstadoTexto() {
+        x += 0.25f;
+        ProtocoloTexto.escribirEstado(salida, 1, x, 67.5f, false);
+        return salida;
+    }
+
+    @Benchmark
+    public ByteBuffer escribirEstadoBinario() {
+        x += 0.25f;
+        ProtocoloBinario.escribirEstado(salida, 1, x, 67.5f, false);
+        return salida;
+    }
+}
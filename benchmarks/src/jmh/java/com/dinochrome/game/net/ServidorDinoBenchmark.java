@@ -0,0 +1,119 @@
+// =====================================================
+// ARCHIVO: ServidorDinoBenchmark.java
+// PAQUETE: com.dinochrome.game.net (benchmarks)
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Despacho completo de procesarMensaje en una sala con partida iniciada:
+ * un STATE que se reenvía al rival y a los espectadores (enviarA /
+ * broadcast incluidos, con el send() real por loopback).
+ *
+ * Los clientes son sockets locales que nunca leen: el kernel descarta lo
+ * que no entra en su buffer, igual que con un cliente lento.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServidorDinoBenchmark {
+
+    @Param({"1", "2"})
+    public int version;
+
+    @Param({"0", "16"})
+    public int espectadores;
+
+    private ServidorDinoMultijugador servidor;
+    private DatagramChannel[] clientes;
+
+    private SocketAddress jugador1;
+    private ByteBuffer estado;
+    private ByteBuffer buscarServidor;
+
+    @Setup
+    public void preparar() throws IOException {
+        servidor = new ServidorDinoMultijugador(0, 0, 1);
+
+        clientes = new DatagramChannel[2 + espectadores];
+        for (int i = 0; i < clientes.length; i++) {
+            clientes[i] = DatagramChannel.open();
+            clientes[i].bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        }
+        jugador1 = clientes[0].getLocalAddress();
+        SocketAddress jugador2 = clientes[1].getLocalAddress();
+
+        boolean binario = version == ProtocoloBinario.VERSION;
+        String v = binario ? ";v=2" : "";
+
+        // Sala 1 con los dos jugadores listos y la partida en juego
+        enviar(jugador1, texto("JOIN" + v));
+        enviar(jugador2, texto("JOIN" + v));
+        enviar(jugador1, ready(binario));
+        enviar(jugador2, ready(binario));
+        for (int i = 2; i < clientes.length; i++) {
+            enviar(clientes[i].getLocalAddress(), texto("WATCH;sala=1" + v));
+        }
+
+        if (binario) {
+            estado = ByteBuffer.allocateDirect(ProtocoloBinario.LARGO_STATE);
+            ProtocoloBinario.escribirEstado(estado, 1, 123.45f, 67.5f, false);
+        } else {
+            estado = texto("STATE;id=1;x=123.45;y=67.5;duck=0");
+        }
+        buscarServidor = texto("BUSCAR_SERVIDOR");
+    }
+
+    @TearDown
+    public void cerrar() throws IOException {
+        for (DatagramChannel c : clientes) c.close();
+    }
+
+    @Benchmark
+    public void relayEstado() {
+        enviar(jugador1, estado);
+    }
+
+    @Benchmark
+    public void descubrimiento() {
+        enviar(jugador1, buscarServidor);
+    }
+
+    // procesarMensaje mueve position/limit: cada envío arranca del frame completo
+    private void enviar(SocketAddress addr, ByteBuffer datos) {
+        datos.limit(datos.capacity()).position(0);
+        servidor.procesarMensaje(addr, datos);
+    }
+
+    private static ByteBuffer ready(boolean binario) {
+        if (!binario) return texto("READY");
+        ByteBuffer b = ByteBuffer.allocateDirect(1);
+        ProtocoloBinario.escribirTipo(b, ProtocoloBinario.READY);
+        return b;
+    }
+
+    private static ByteBuffer texto(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer b = ByteBuffer.allocateDirect(bytes.length);
+        b.put(bytes).flip();
+        return b;
+    }
+}
@@ -0,0 +1,105 @@
+// =====================================================
+// ARCHIVO: AgendaSalas.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Próximo evento de cada sala en juego (obstáculo o lote) o llena en el
+ * lobby (vencimiento del READY), ordenado por vencimiento: un heap binario
+ * indexado (la posición vive en la Sala), así reprogramar o quitar una sala
+ * es O(log n) y las salas que esperan rival no se miran nunca. En cada
+ * vuelta del loop sólo se atienden las vencidas.
+ */
+final class AgendaSalas {
+
+    private Sala[] heap = new Sala[64];
+    private int cantidad = 0;
+
+    boolean vacia() {
+        return cantidad == 0;
+    }
+
+    int cantidad() {
+        return cantidad;
+    }
+
+    /** Vencimiento más cercano (sólo si no está vacía). */
+    long proximoVencimiento() {
+        return heap[0].vencimientoAgenda;
+    }
+
+    /** Saca y devuelve una sala con vencimiento <= ahora, o null si no hay. */
+    Sala sacarVencida(long ahora) {
+        if (cantidad == 0 || heap[0].vencimientoAgenda > ahora) return null;
+        Sala s = heap[0];
+        quitar(s);
+        return s;
+    }
+
+    /** Agrega la sala o cambia su vencimiento si ya estaba. */
+    void programar(Sala s, long vencimiento) {
+        if (s.posAgenda < 0) {
+            if (cantidad == heap.length) heap = Arrays.copyOf(heap, cantidad * 2);
+            s.vencimientoAgenda = vencimiento;
+            s.posAgenda = cantidad;
+            heap[cantidad++] = s;
+            subir(s.posAgenda);
+            return;
+        }
+
+        long anterior = s.vencimientoAgenda;
+        s.vencimientoAgenda = vencimiento;
+        if (vencimiento < anterior) subir(s.posAgenda);
+        else bajar(s.posAgenda);
+    }
+
+    void quitar(Sala s) {
+        int i = s.posAgenda;
+        if (i < 0) return;
+
+        s.posAgenda = -1;
+        cantidad--;
+        if (i == cantidad) {
+            heap[cantidad] = null;
+            return;
+        }
+
+        Sala ultima = heap[cantidad];
+        heap[cantidad] = null;
+        poner(i, ultima);
+        subir(i);
+        bajar(ultima.posAgenda);
+    }
+
+    private void subir(int i) {
+        Sala s = heap[i];
+        while (i > 0) {
+            int padre = (i - 1) >>> 1;
+            if (heap[padre].vencimientoAgenda <= s.vencimientoAgenda) break;
+            poner(i, heap[padre]);
+            i = padre;
+        }
+        poner(i, s);
+    }
+
+    private void bajar(int i) {
+        Sala s = heap[i];
+        while (true) {
+            int hijo = 2 * i + 1;
+            if (hijo >= cantidad) break;
+            if (hijo + 1 < cantidad && heap[hijo + 1].vencimientoAgenda < heap[hijo].vencimientoAgenda) hijo++;
+            if (s.vencimientoAgenda <= heap[hijo].vencimientoAgenda) break;
+            poner(i, heap[hijo]);
+            i = hijo;
+        }
+        poner(i, s);
+    }
+
+    private void poner(int i, Sala s) {
+        heap[i] = s;
+        s.posAgenda = i;
+    }
+}
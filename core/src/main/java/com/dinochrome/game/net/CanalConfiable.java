@@ -0,0 +1,217 @@
+// =====================================================
+// ARCHIVO: CanalConfiable.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Canal confiable de un jugador v2 para los mensajes de control (COUNT,
+ * LISTO, START, MUERTE, GANADOR), sobre el mismo socket UDP que los STATE.
+ *
+ * Cada frame confiable lleva su secuencia y, de paso, la confirmación de
+ * lo recibido del otro lado: la última secuencia más un mapa de bits de
+ * las 32 anteriores (ver ProtocoloBinario.CONFIABLE). Lo que no se
+ * confirma se reenvía con un plazo que sigue al RTT medido. Como cada
+ * frame se confirma por separado, uno perdido no frena a los que siguen
+ * (no hay bloqueo de cabeza de línea como en TCP) y los STATE siguen
+ * yendo sin canal.
+ *
+ * Los tiempos son del reloj lógico del servidor (ahoraMs), así el replay
+ * reenvía lo mismo en el mismo momento.
+ */
+final class CanalConfiable {
+
+    // Frames sin confirmar como máximo: el mapa de bits de los acks cubre
+    // la última secuencia más las 32 anteriores
+    static final int VENTANA = 32;
+
+    // Plazo de reenvío: 1.5 x RTT suavizado + margen, entre estos límites
+    private static final long RTO_INICIAL_MS = 200;
+    private static final long RTO_MIN_MS = 40;
+    private static final long RTO_MAX_MS = 1000;
+    private static final long MARGEN_RTO_MS = 20;
+
+    // Después de tantos reenvíos el frame se abandona (el cliente ya vence por timeout)
+    static final int MAX_INTENTOS = 8;
+
+    // -------------------------
+    // Envío
+    // -------------------------
+    private int proximaSecuencia = 0;
+    private final byte[][] frames = new byte[VENTANA][];
+    private final int[] largos = new int[VENTANA];
+    private final int[] secuencias = new int[VENTANA];
+    private final long[] enviadoMs = new long[VENTANA];
+    private final long[] reenvioMs = new long[VENTANA];
+    private final int[] intentos = new int[VENTANA];
+    private final boolean[] pendiente = new boolean[VENTANA];
+    private int pendientes = 0;
+
+    private long rttSuavizadoMs = -1;
+    private long rtoMs = RTO_INICIAL_MS;
+
+    // -------------------------
+    // Recepción
+    // -------------------------
+    private int ultimaRecibida = -1;
+    private int bitsRecibidas = 0; // bit i = se recibió ultimaRecibida - 1 - i
+    boolean ackPendiente = false;
+
+    // El servidor lo tiene en su lista de reenvíos
+    boolean enReenvios = false;
+
+    /**
+     * Copia el frame (entre position y limit) a destino con la cabecera
+     * CONFIABLE y lo guarda para reenviarlo. Devuelve false si la ventana
+     * está llena: el más viejo sin confirmar se abandona para hacerle lugar.
+     */
+    boolean preparar(ByteBuffer frame, ByteBuffer destino, long ahoraMs) {
+        int slot = proximaSecuencia % VENTANA;
+        boolean abandonado = pendiente[slot];
+        if (abandonado) pendientes--;
+
+        int largo = frame.remaining();
+        byte[] copia = frames[slot];
+        if (copia == null || copia.length < largo) {
+            copia = new byte[Math.max(largo, 64)];
+            frames[slot] = copia;
+        }
+        frame.get(copia, 0, largo);
+
+        secuencias[slot] = proximaSecuencia;
+        largos[slot] = largo;
+        enviadoMs[slot] = ahoraMs;
+        reenvioMs[slot] = ahoraMs + rtoMs;
+        intentos[slot] = 0;
+        pendiente[slot] = true;
+        pendientes++;
+        proximaSecuencia = (proximaSecuencia + 1) & 0xFFFF;
+
+        escribir(slot, destino);
+        return !abandonado;
+    }
+
+    /** Confirmación que trae un frame del cliente: libera lo que ya recibió. */
+    void recibirAcks(int ack, int bits, long ahoraMs) {
+        confirmar(ack, ahoraMs);
+        for (int i = 0; i < VENTANA && bits != 0; i++, bits >>>= 1) {
+            if ((bits & 1) != 0) confirmar((ack - 1 - i) & 0xFFFF, ahoraMs);
+        }
+    }
+
+    /**
+     * Registra una secuencia recibida del cliente. Devuelve true si es nueva
+     * (hay que procesar el frame) y false si es repetida o demasiado vieja.
+     * En los dos casos queda un ack pendiente.
+     */
+    boolean recibir(int seq) {
+        ackPendiente = true;
+        if (ultimaRecibida < 0) {
+            ultimaRecibida = seq;
+            return true;
+        }
+
+        int adelante = (seq - ultimaRecibida) & 0xFFFF;
+        if (adelante == 0) return false;
+        if (adelante < 0x8000) {
+            // más nueva: el mapa de bits se corre
+            bitsRecibidas = adelante >= 32 ? 0 : bitsRecibidas << adelante;
+            if (adelante <= 32) bitsRecibidas |= 1 << (adelante - 1);
+            ultimaRecibida = seq;
+            return true;
+        }
+
+        int atras = (ultimaRecibida - seq) & 0xFFFF;
+        if (atras > 32) return false;
+        int bit = 1 << (atras - 1);
+        if ((bitsRecibidas & bit) != 0) return false;
+        bitsRecibidas |= bit;
+        return true;
+    }
+
+    /**
+     * true si seq es posterior a todo lo recibido (sin registrarla). Un
+     * repetido o un reenvío viejo no lo es: así no sirve para hacerse pasar
+     * por la sesión desde otra dirección.
+     */
+    boolean esMasNueva(int seq) {
+        if (ultimaRecibida < 0) return true;
+        int adelante = (seq - ultimaRecibida) & 0xFFFF;
+        return adelante != 0 && adelante < 0x8000;
+    }
+
+    /** Última secuencia recibida (0xFFFF si todavía no llegó ninguna: no confirma nada pendiente). */
+    int ack() {
+        return ultimaRecibida < 0 ? 0xFFFF : ultimaRecibida;
+    }
+
+    int bitsAck() {
+        return bitsRecibidas;
+    }
+
+    int pendientes() {
+        return pendientes;
+    }
+
+    /** Cuándo vence el próximo reenvío (Long.MAX_VALUE si no hay nada pendiente). */
+    long proximoReenvio() {
+        long proximo = Long.MAX_VALUE;
+        if (pendientes == 0) return proximo;
+        for (int i = 0; i < VENTANA; i++) {
+            if (pendiente[i] && reenvioMs[i] < proximo) proximo = reenvioMs[i];
+        }
+        return proximo;
+    }
+
+    /**
+     * Escribe en destino el próximo frame vencido (con los acks al día) y lo
+     * reprograma con backoff. Devuelve 1 si hay que mandarlo, -1 si se
+     * abandonó por intentos y 0 si no queda ninguno vencido.
+     */
+    int reenviarVencido(ByteBuffer destino, long ahoraMs) {
+        if (pendientes == 0) return 0;
+        for (int i = 0; i < VENTANA; i++) {
+            if (!pendiente[i] || reenvioMs[i] > ahoraMs) continue;
+
+            if (++intentos[i] > MAX_INTENTOS) {
+                pendiente[i] = false;
+                pendientes--;
+                return -1;
+            }
+            reenvioMs[i] = ahoraMs + Math.min(RTO_MAX_MS, rtoMs << intentos[i]);
+            escribir(i, destino);
+            return 1;
+        }
+        return 0;
+    }
+
+    /** La sesión terminó: no se reenvía nada más. */
+    void descartar() {
+        for (int i = 0; i < VENTANA; i++) pendiente[i] = false;
+        pendientes = 0;
+    }
+
+    private void confirmar(int seq, long ahoraMs) {
+        int slot = seq % VENTANA;
+        if (!pendiente[slot] || secuencias[slot] != seq) return;
+
+        pendiente[slot] = false;
+        pendientes--;
+        // RTT sólo de frames sin reenvío (si no, no se sabe a cuál envío responde)
+        if (intentos[slot] == 0) medirRtt(ahoraMs - enviadoMs[slot]);
+    }
+
+    private void medirRtt(long rttMs) {
+        rttSuavizadoMs = rttSuavizadoMs < 0 ? rttMs : (7 * rttSuavizadoMs + rttMs) / 8;
+        rtoMs = Math.max(RTO_MIN_MS, Math.min(RTO_MAX_MS, rttSuavizadoMs * 3 / 2 + MARGEN_RTO_MS));
+    }
+
+    private void escribir(int slot, ByteBuffer destino) {
+        ProtocoloBinario.escribirCabeceraConfiable(destino, secuencias[slot], ack(), bitsRecibidas);
+        destino.put(frames[slot], 0, largos[slot]);
+        destino.flip();
+        ackPendiente = false; // el ack va en la cabecera
+    }
+}
@@ -0,0 +1,84 @@
+// =====================================================
+// ARCHIVO: ColaEmparejamiento.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Cola de partida rápida: los que esperan rival, separados en baldes de
+ * habilidad y de latencia (opcionales) y en orden de llegada dentro de
+ * cada balde.
+ *
+ * Emparejar es sacar el primero del balde del que llega: O(1), sin
+ * recorrer a los que esperan, así una avalancha de JOINs no frena el
+ * loop. Sacar a alguien que se fue también es O(1).
+ *
+ * Con ancho 0 el criterio no se usa (todos caen en el mismo balde).
+ */
+final class ColaEmparejamiento<T> {
+
+    // Baldes por criterio: lo que se pasa del último cae en el último
+    static final int BALDES_HABILIDAD = 16;
+    static final int BALDES_PING = 8;
+
+    private final int anchoHabilidad;
+    private final int anchoPingMs;
+
+    // Un conjunto ordenado por balde (se crea al primer uso)
+    private final LinkedHashSet<T>[] baldes;
+    private int esperando = 0;
+
+    @SuppressWarnings("unchecked")
+    ColaEmparejamiento(int anchoHabilidad, int anchoPingMs) {
+        this.anchoHabilidad = anchoHabilidad;
+        this.anchoPingMs = anchoPingMs;
+        this.baldes = (LinkedHashSet<T>[]) new LinkedHashSet<?>[BALDES_HABILIDAD * BALDES_PING];
+    }
+
+    /** Balde de un jugador con esa habilidad y ese ping (valores que manda el cliente). */
+    int balde(int habilidad, int pingMs) {
+        int h = anchoHabilidad > 0 ? acotar(habilidad / anchoHabilidad, BALDES_HABILIDAD) : 0;
+        int p = anchoPingMs > 0 ? acotar(pingMs / anchoPingMs, BALDES_PING) : 0;
+        return h * BALDES_PING + p;
+    }
+
+    /** El que espera hace más tiempo en ese balde (y deja de esperar), o null. */
+    T sacar(int balde) {
+        LinkedHashSet<T> cola = baldes[balde];
+        if (cola == null || cola.isEmpty()) return null;
+
+        Iterator<T> it = cola.iterator();
+        T primero = it.next();
+        it.remove();
+        esperando--;
+        return primero;
+    }
+
+    void agregar(int balde, T t) {
+        LinkedHashSet<T> cola = baldes[balde];
+        if (cola == null) {
+            cola = new LinkedHashSet<>();
+            baldes[balde] = cola;
+        }
+        if (cola.add(t)) esperando++;
+    }
+
+    /** Deja de esperar (se fue o ya no busca rival). */
+    boolean quitar(int balde, T t) {
+        LinkedHashSet<T> cola = baldes[balde];
+        if (cola == null || !cola.remove(t)) return false;
+        esperando--;
+        return true;
+    }
+
+    int esperando() {
+        return esperando;
+    }
+
+    private static int acotar(int indice, int baldes) {
+        return Math.max(0, Math.min(indice, baldes - 1));
+    }
+}
@@ -0,0 +1,87 @@
+// =====================================================
+// ARCHIVO: CommandQueue.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Eventos de red (de cualquier MatchTransport) para el hilo de ticks de
+ * GameServer, que es el único dueño del estado del juego.
+ *
+ * Es la MpscQueue de siempre (esquema de Vyukov) pero con las celdas ya
+ * armadas: tipo, sesión y mensaje van en arreglos paralelos, así encolar
+ * no crea ningún objeto. poll() copia la celda a polledType /
+ * polledSession / polledPayload antes de liberarla.
+ */
+final class CommandQueue {
+
+    static final int CONNECTED = 0;
+    static final int RECEIVED = 1;
+    static final int DISCONNECTED = 2;
+
+    private final int mask;
+    private final int[] types;
+    private final int[] sessions;
+    private final Object[] payloads;
+    // La secuencia publica la celda: lo escrito antes en los arreglos se ve después de leerla
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // sólo lo toca el consumidor
+
+    // Lo último que devolvió poll() (sólo el consumidor)
+    int polledType;
+    int polledSession;
+    Object polledPayload;
+
+    CommandQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+
+        mask = size - 1;
+        types = new int[size];
+        sessions = new int[size];
+        payloads = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /** Encola desde cualquier hilo. Devuelve false si la cola está llena. */
+    boolean offer(int type, int session, Object payload) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    types[index] = type;
+                    sessions[index] = session;
+                    payloads[index] = payload;
+                    sequences.set(index, pos + 1); // publica la celda
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // llena
+            }
+            // otro productor ganó ese lugar: reintentar
+        }
+    }
+
+    /** Desencola a polledType / polledSession / polledPayload; sólo desde el consumidor. */
+    boolean poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) return false;
+
+        polledType = types[index];
+        polledSession = sessions[index];
+        polledPayload = payloads[index];
+        payloads[index] = null;
+        sequences.set(index, head + mask + 1); // libera la celda para la próxima vuelta
+        head++;
+        return true;
+    }
+}
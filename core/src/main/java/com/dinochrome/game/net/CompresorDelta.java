@@ -0,0 +1,101 @@
+// =====================================================
+// ARCHIVO: CompresorDelta.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codificación delta de estados de jugador contra una línea base que el
+ * cliente ya confirmó (ack). La usan GameServer y el servidor UDP.
+ *
+ * Las posiciones se cuantizan a 1/ESCALA px y se mandan como diferencia
+ * contra la base en varint zigzag: un dino que casi no se movió ocupa
+ * 1 o 2 bytes por eje en vez de un float de 4.
+ *
+ * Entidad codificada:  id varint | máscara u8 | [dx varint] | [dy varint]
+ *
+ * Si la entidad no existe en la base (NUEVA) x/y van absolutos.
+ */
+final class CompresorDelta {
+
+    /** Unidades de cuantización por píxel. */
+    static final int ESCALA = 16;
+
+    // Bits de la máscara
+    static final int CAMBIO_X = 1;
+    static final int CAMBIO_Y = 2;
+    static final int DUCK = 4;
+    static final int NUEVA = 8;
+
+    private CompresorDelta() {
+    }
+
+    static int cuantizar(float v) {
+        return Math.round(v * ESCALA);
+    }
+
+    static float decuantizar(int q) {
+        return q / (float) ESCALA;
+    }
+
+    /**
+     * Escribe la entidad si cambió respecto de la base (baseIndice < 0 = sin base).
+     * Devuelve false si es idéntica a la base y no hizo falta mandarla.
+     */
+    static boolean escribirEntidad(ByteBuffer out, int id, int qx, int qy, boolean duck,
+                                   HistorialEstados base, int baseSlot, int baseIndice) {
+        int mascara = duck ? DUCK : 0;
+        int dx;
+        int dy;
+
+        if (baseIndice < 0) {
+            mascara |= NUEVA | CAMBIO_X | CAMBIO_Y;
+            dx = qx;
+            dy = qy;
+        } else {
+            dx = qx - base.qx(baseSlot, baseIndice);
+            dy = qy - base.qy(baseSlot, baseIndice);
+            if (dx != 0) mascara |= CAMBIO_X;
+            if (dy != 0) mascara |= CAMBIO_Y;
+            if (dx == 0 && dy == 0 && duck == base.duck(baseSlot, baseIndice)) return false;
+        }
+
+        escribirVarInt(out, id);
+        out.put((byte) mascara);
+        if ((mascara & CAMBIO_X) != 0) escribirVarInt(out, zigzag(dx));
+        if ((mascara & CAMBIO_Y) != 0) escribirVarInt(out, zigzag(dy));
+        return true;
+    }
+
+    // -------------------------
+    // Varint / zigzag
+    // -------------------------
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int desZigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void escribirVarInt(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    /** Lee un varint desde la posición actual del buffer. */
+    static int leerVarInt(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("varint mal formado");
+    }
+}
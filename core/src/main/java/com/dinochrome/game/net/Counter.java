@@ -0,0 +1,28 @@
+// =====================================================
+// ARCHIVO: Counter.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contador sin locks (LongAdder: cada hilo suma en su propia celda).
+ * Como gauge se usa con add(+1) / add(-1).
+ */
+public final class Counter {
+
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long delta) {
+        adder.add(delta);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
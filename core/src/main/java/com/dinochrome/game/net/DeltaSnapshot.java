@@ -0,0 +1,20 @@
+// =====================================================
+// ARCHIVO: DeltaSnapshot.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Jugadores que cambiaron respecto del snapshot baseTick (el último que
+ * confirmó el cliente). data tiene una entidad de CompresorDelta por
+ * jugador: posiciones en 1/CompresorDelta.ESCALA px relativas a la base.
+ *
+ * La base de un Snapshot completo se cuantiza con Math.round(x * ESCALA).
+ * Sólo son válidos los primeros length bytes de data.
+ */
+public class DeltaSnapshot {
+    public int tick;
+    public int baseTick;
+    public byte[] data;
+    public int length;
+}
@@ -0,0 +1,335 @@
+// =====================================================
+// ARCHIVO: DirectorioSalas.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Directorio de nodos y router de JOIN, para repartir jugadores entre
+ * varios procesos de juego (en la misma máquina o en varias).
+ *
+ * Cada nodo (ServidorDinoMultijugador con --directory, o ServerLauncher
+ * con el directorio como sexto argumento) manda cada segundo un NODO con
+ * sus salas libres, los que esperan rival y su carga. El directorio no
+ * toca el tráfico de las partidas: a un JOIN le contesta
+ * REDIRECT;host=...;port=... y el cliente manda el mismo JOIN al nodo.
+ *
+ *   JOIN[;v=2]              partida rápida en un nodo UDP
+ *   JOIN;kryonet=1          una partida de GameServer (REDIRECT trae también udp=)
+ *   JOIN;code=N             sala de amigos: todos los que usan el mismo código
+ *                           van al mismo nodo durante VIGENCIA_CODIGO_MS
+ *
+ * Sin nodo con lugar contesta FULL. Un nodo que deja de reportar se olvida
+ * a los VENCIMIENTO_NODO_MS.
+ *
+ * Para probar todo en una sola máquina:
+ *   DirectorioSalas --port=4320
+ *   ServidorDinoMultijugador --port=4321 --directory=127.0.0.1:4320
+ *   ServidorDinoMultijugador --port=4322 --directory=127.0.0.1:4320
+ */
+public final class DirectorioSalas {
+
+    // -------------------------
+    // Config
+    // -------------------------
+    public static final int PUERTO = 4320;
+
+    private static final String FLAG_PUERTO = "--port=";
+
+    // Los nodos reportan cada segundo: tres reportes perdidos y se olvida
+    private static final long VENCIMIENTO_NODO_MS = 3000;
+
+    // Cuánto tiempo un código de amigos sigue apuntando al mismo nodo
+    private static final long VIGENCIA_CODIGO_MS = 60_000;
+
+    // Cargas (por mil) que difieren en menos de esto se consideran iguales:
+    // decide quién tiene más salas libres, no el ruido de la medición
+    private static final int ESCALON_CARGA = 50;
+
+    private static final int TAM_BUFFER = 512;
+
+    private static final byte[] CAMPO_PUERTO = ProtocoloTexto.ascii("port");
+    private static final byte[] CAMPO_KRYONET = ProtocoloTexto.ascii("kryonet");
+    private static final byte[] CAMPO_LIBRES = ProtocoloTexto.ascii("free");
+    private static final byte[] CAMPO_ESPERANDO = ProtocoloTexto.ascii("waiting");
+    private static final byte[] CAMPO_CARGA = ProtocoloTexto.ascii("load");
+    private static final byte[] CAMPO_CODIGO = ProtocoloTexto.ascii("code");
+
+    // -------------------------
+    // Métricas
+    // -------------------------
+    private static final MetricsRegistry METRICAS = MetricsRegistry.global();
+    private static final Counter REDIRECCIONES =
+        METRICAS.counter("directory_redirects_total", "JOIN redirigidos a un nodo");
+    private static final Counter SIN_LUGAR =
+        METRICAS.counter("directory_full_total", "JOIN sin ningún nodo con lugar");
+    private static final Counter NODOS =
+        METRICAS.upDown("directory_nodes", "Nodos que reportaron hace menos de VENCIMIENTO_NODO_MS");
+
+    // -------------------------
+    // Estado
+    // -------------------------
+
+    /** Lo último que reportó un nodo, con lo que se le mandó desde entonces. */
+    private static final class Nodo {
+        InetSocketAddress direccion; // host del reporte + puerto del juego
+        String host;
+        int puertoKryonet; // 0 = nodo UDP
+        int libres;
+        int esperando;
+        int carga;
+        long ultimoReporteMs;
+    }
+
+    private static final class Codigo {
+        Nodo nodo;
+        long venceMs;
+    }
+
+    private final DatagramChannel canal;
+    private final ByteBuffer bufferRecepcion = ByteBuffer.allocateDirect(TAM_BUFFER);
+    private final ByteBuffer bufferRespuesta = ByteBuffer.allocateDirect(TAM_BUFFER);
+
+    private final Map<SocketAddress, Nodo> nodos = new HashMap<>();
+    private final Map<Integer, Codigo> codigos = new HashMap<>();
+
+    private long ahoraMs;
+
+    public DirectorioSalas(int puerto) throws IOException {
+        canal = DatagramChannel.open();
+        canal.bind(new InetSocketAddress(puerto));
+        System.out.println("Directorio de salas escuchando en UDP puerto " + puerto);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int puerto = PUERTO;
+        for (String arg : args) {
+            if (arg.startsWith(FLAG_PUERTO)) puerto = Integer.parseInt(arg.substring(FLAG_PUERTO.length()));
+        }
+        MetricsExporter.registerJmx(METRICAS);
+        new DirectorioSalas(puerto).loop();
+    }
+
+    // -------------------------
+    // Loop (bloqueante: todo el trabajo es contestar datagramas)
+    // -------------------------
+    public void loop() {
+        while (true) {
+            try {
+                bufferRecepcion.clear();
+                SocketAddress addr = canal.receive(bufferRecepcion);
+                bufferRecepcion.flip();
+                procesarMensaje(addr, bufferRecepcion);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void procesarMensaje(SocketAddress addr, ByteBuffer datos) {
+        ahoraMs = System.currentTimeMillis();
+
+        int ini = ProtocoloTexto.inicioSinEspacios(datos, datos.position(), datos.limit());
+        int fin = ProtocoloTexto.finSinEspacios(datos, ini, datos.limit());
+        int tipo = ProtocoloTexto.tipo(datos, ini, fin);
+
+        if (tipo == ProtocoloTexto.NODO) {
+            manejarReporte(addr, datos, ini, fin);
+        } else if (tipo == ProtocoloTexto.JOIN) {
+            boolean kryonet = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_KRYONET, 0) != 0;
+            int codigo = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_CODIGO, 0);
+            manejarJoin(addr, kryonet, codigo);
+        }
+        // el resto (STATE, READY...) es de un cliente que no entendió el REDIRECT: no se contesta
+    }
+
+    // -------------------------
+    // Reportes de los nodos
+    // -------------------------
+    private void manejarReporte(SocketAddress addr, ByteBuffer datos, int ini, int fin) {
+        int puerto = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_PUERTO, 0);
+        if (puerto <= 0 || !(addr instanceof InetSocketAddress)) return;
+
+        // el nodo se anuncia con la IP de la que llega el reporte y el puerto del juego
+        String host = ((InetSocketAddress) addr).getAddress().getHostAddress();
+        InetSocketAddress direccion = new InetSocketAddress(((InetSocketAddress) addr).getAddress(), puerto);
+
+        Nodo n = nodos.get(direccion);
+        if (n == null) {
+            n = new Nodo();
+            n.direccion = direccion;
+            n.host = host;
+            nodos.put(direccion, n);
+            NODOS.increment();
+            System.out.println("Nodo nuevo " + host + ":" + puerto);
+        }
+        n.puertoKryonet = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_KRYONET, 0);
+        n.libres = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_LIBRES, 0);
+        n.esperando = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_ESPERANDO, 0);
+        n.carga = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_CARGA, 0);
+        n.ultimoReporteMs = ahoraMs;
+    }
+
+    // -------------------------
+    // JOIN
+    // -------------------------
+    private void manejarJoin(SocketAddress addr, boolean kryonet, int codigo) {
+        olvidarVencidos();
+
+        Nodo n;
+        if (codigo != 0) {
+            Codigo c = codigos.get(codigo);
+            if (c != null && c.nodo.ultimoReporteMs + VENCIMIENTO_NODO_MS > ahoraMs) {
+                n = c.nodo;
+            } else {
+                // el primero del grupo elige nodo: uno con una sala entera libre
+                n = elegirNodo(kryonet, false);
+                if (n != null) {
+                    if (c == null) {
+                        c = new Codigo();
+                        codigos.put(codigo, c);
+                    }
+                    c.nodo = n;
+                    c.venceMs = ahoraMs + VIGENCIA_CODIGO_MS;
+                    ocupar(n, false);
+                }
+            }
+        } else {
+            n = elegirNodo(kryonet, true);
+            if (n != null) ocupar(n, true);
+        }
+
+        if (n == null) {
+            SIN_LUGAR.increment();
+            ProtocoloTexto.escribirTexto(bufferRespuesta, "FULL");
+        } else {
+            REDIRECCIONES.increment();
+            ProtocoloTexto.escribirRedirect(bufferRespuesta, n.host, n.direccion.getPort(), n.puertoKryonet);
+        }
+        try {
+            canal.send(bufferRespuesta, addr);
+        } catch (IOException e) {
+            // UDP: el cliente reintenta el JOIN
+        }
+    }
+
+    /**
+     * El nodo al que mandar un JOIN: primero uno donde alguien espera rival
+     * (la partida arranca enseguida, sólo en partida rápida), después el de
+     * menos carga entre los que tienen salas libres. Null si no hay lugar.
+     */
+    private Nodo elegirNodo(boolean kryonet, boolean rapida) {
+        Nodo mejor = null;
+        for (Nodo n : nodos.values()) {
+            if ((n.puertoKryonet != 0) != kryonet) continue;
+            boolean conRival = rapida && n.esperando > 0;
+            if (!conRival && n.libres <= 0) continue;
+
+            if (mejor == null) {
+                mejor = n;
+                continue;
+            }
+            boolean mejorConRival = rapida && mejor.esperando > 0;
+            if (conRival != mejorConRival) {
+                if (conRival) mejor = n;
+            } else {
+                int escalon = n.carga / ESCALON_CARGA;
+                int escalonMejor = mejor.carga / ESCALON_CARGA;
+                if (escalon < escalonMejor || (escalon == escalonMejor && n.libres > mejor.libres)) mejor = n;
+            }
+        }
+        return mejor;
+    }
+
+    /**
+     * Hasta el próximo reporte se cuenta lo que se mandó a cada nodo: una
+     * avalancha de JOINs entre dos reportes no cae entera en el mismo nodo.
+     */
+    private static void ocupar(Nodo n, boolean rapida) {
+        if (rapida && n.esperando > 0) {
+            n.esperando--;
+        } else {
+            n.libres--;
+            if (rapida) n.esperando++;
+        }
+    }
+
+    private void olvidarVencidos() {
+        Iterator<Nodo> it = nodos.values().iterator();
+        while (it.hasNext()) {
+            Nodo n = it.next();
+            if (n.ultimoReporteMs + VENCIMIENTO_NODO_MS <= ahoraMs) {
+                System.out.println("Nodo " + n.direccion + " dejó de reportar. Se olvida");
+                it.remove();
+                NODOS.add(-1);
+            }
+        }
+
+        Iterator<Codigo> ic = codigos.values().iterator();
+        while (ic.hasNext()) {
+            if (ic.next().venceMs <= ahoraMs) ic.remove();
+        }
+    }
+
+    // -------------------------
+    // Lado del nodo
+    // -------------------------
+
+    /**
+     * Manda los reportes NODO de un proceso de juego al directorio, desde
+     * un socket propio (el directorio toma la IP de ahí y el puerto del
+     * reporte). Un solo hilo lo usa.
+     */
+    public static final class Reportero implements Closeable {
+        private final DatagramChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocate(TAM_BUFFER);
+
+        public Reportero(SocketAddress directorio) throws IOException {
+            this.canal = DatagramChannel.open();
+            this.canal.connect(directorio);
+        }
+
+        /** Nodo ServidorDinoMultijugador. */
+        public void reportarUdp(int puerto, int libres, int esperando, int cargaPorMil) {
+            ProtocoloTexto.escribirNodo(buffer, puerto, 0, libres, esperando, cargaPorMil);
+            mandar();
+        }
+
+        /** Una partida de GameServer (puertos TCP y UDP de Kryonet). */
+        public void reportarKryonet(int puertoTcp, int puertoUdp, int libres, int esperando) {
+            ProtocoloTexto.escribirNodo(buffer, puertoTcp, puertoUdp, libres, esperando, 0);
+            mandar();
+        }
+
+        private void mandar() {
+            try {
+                canal.write(buffer);
+            } catch (IOException e) {
+                // directorio caído: se vuelve a intentar en el próximo reporte
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    /** "host:puerto" de los flags (--directory=127.0.0.1:4320). */
+    public static InetSocketAddress direccion(String hostPuerto) {
+        int dosPuntos = hostPuerto.lastIndexOf(':');
+        if (dosPuntos < 0) return new InetSocketAddress(hostPuerto, PUERTO);
+        return new InetSocketAddress(hostPuerto.substring(0, dosPuntos),
+            Integer.parseInt(hostPuerto.substring(dosPuntos + 1)));
+    }
+}
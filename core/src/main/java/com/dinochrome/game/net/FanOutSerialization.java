@@ -0,0 +1,56 @@
+// =====================================================
+// ARCHIVO: FanOutSerialization.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serialización de Kryonet que permite codificar un mensaje una sola vez
+ * y mandarlo a muchas conexiones.
+ *
+ * encode() deja en un Encoded los bytes exactos que Kryo escribiría para el
+ * objeto (clase + datos). Cuando se manda un Encoded, write() sólo copia esos
+ * bytes al buffer de la conexión, así el cliente lo lee como el objeto
+ * original y el costo por destinatario es una copia de memoria.
+ */
+final class FanOutSerialization extends KryoSerialization {
+
+    /** Mensaje ya serializado. Se puede reutilizar: Kryonet copia los bytes al mandar. */
+    static final class Encoded {
+        byte[] bytes = new byte[256];
+        int length;
+    }
+
+    private final ByteBuffer scratch;
+
+    FanOutSerialization(int objectBufferSize) {
+        scratch = ByteBuffer.allocate(objectBufferSize);
+    }
+
+    /** Serializa object una vez dentro de target (sólo desde el hilo que manda). */
+    Encoded encode(Object object, Encoded target) {
+        scratch.clear();
+        super.write(null, scratch, object);
+
+        int length = scratch.position();
+        if (target.bytes.length < length) target.bytes = new byte[length];
+        System.arraycopy(scratch.array(), 0, target.bytes, 0, length);
+        target.length = length;
+        return target;
+    }
+
+    @Override
+    public synchronized void write(Connection connection, ByteBuffer buffer, Object object) {
+        if (object instanceof Encoded) {
+            Encoded encoded = (Encoded) object;
+            buffer.put(encoded.bytes, 0, encoded.length);
+            return;
+        }
+        super.write(connection, buffer, object);
+    }
+}
@@ -1,166 +1,932 @@
 package com.dinochrome.game.net;
 
-import com.esotericsoftware.kryonet.Server;
-import com.esotericsoftware.kryonet.Connection;
-import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.kryo.Kryo;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Motor de una partida: lobby, READY, emparejamiento, obstáculos, choques
+ * y snapshots. La red es un MatchTransport (Kryonet por defecto, UDP crudo
+ * o en memoria); acá sólo hay sesiones (int) y mensajes.
+ */
 public class GameServer {
 
+	// ===== CONFIG =====
+	public static final int DEFAULT_TCP_PORT = 54555;
+	public static final int DEFAULT_UDP_PORT = 54777;
+	public static final int DEFAULT_TICK_RATE = 60;
+	public static final int DEFAULT_SNAPSHOT_RATE = 20;
+	private static final int MAX_CATCH_UP_TICKS = 5;
+	// Mientras alguien listo espera rival, cuánto tiene cada uno del lobby para mandar READY
+	private static final int READY_TIMEOUT_SECONDS = 15;
+	private static final int COMMAND_QUEUE_CAPACITY = 4096;
+	private static final int SNAPSHOT_HISTORY = 32;
+	// Buffers de Kryonet por conexión: el de escritura junta lo pendiente de mandar,
+	// el de objetos tiene que alcanzar para el mensaje serializado más grande
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 16384;
+	public static final int DEFAULT_OBJECT_BUFFER_SIZE = 2048;
+
+	// Obstáculos: ventana que se manda por adelantado y cada cuánto se reenvía
+	private static final float OBSTACLE_WINDOW_SECONDS = 5f;
+	private static final float OBSTACLE_BATCH_SECONDS = 1f;
+
+	// ===== METRICS (compartidas por todas las partidas del proceso) =====
+	private static final MetricsRegistry METRICS = MetricsRegistry.global();
+	private static final Counter MESSAGES_RECEIVED =
+		METRICS.counter("game_messages_received_total", "Mensajes recibidos por el transporte");
+	private static final Counter COMMANDS_DROPPED =
+		METRICS.counter("game_commands_dropped_total", "PlayerState descartados con la cola de comandos llena");
+	private static final Counter SNAPSHOTS_SENT =
+		METRICS.counter("game_snapshots_sent_total", "Snapshot/DeltaSnapshot enviados sin confirmación");
+	private static final Counter SNAPSHOT_BYTES_SENT =
+		METRICS.counter("game_snapshot_bytes_sent_total", "Bytes de snapshots enviados");
+	private static final Counter MATCHES_FINISHED =
+		METRICS.counter("game_matches_finished_total", "Partidas terminadas por un choque o abandono");
+	private static final Counter READY_TIMEOUTS =
+		METRICS.counter("game_ready_timeouts_total", "Jugadores desconectados por no mandar READY a tiempo");
+	private static final LatencyHistogram TICK_NANOS =
+		METRICS.histogram("game_tick_nanos", "Duración de cada tick del servidor");
+
 	// ===== SERVER STATE =====
-	private Server server;
+	private final MatchTransport transport;
+	// Serializa lo que sale una sola vez, para cualquier transporte
+	private final FanOutSerialization serialization;
+	private final int objectBufferSize;
+	// Uno de los dos: hilo propio (TickLoop) o sala de un RoomScheduler compartido
+	private final TickLoop tickLoop;
+	private final RoomScheduler.Handle roomHandle;
+	private final long stepNanos;
+	private final float stepSeconds;
+	private final String metricLabels;
+	private boolean roomTicking = false;
+	private long nextTickNanos;
 	private int playerCount = 0;
+	private int tick = 0;
+
+	// ===== INBOUND COMMANDS (red -> hilo de ticks) =====
+	private final CommandQueue commands = new CommandQueue(COMMAND_QUEUE_CAPACITY);
+	private final AtomicLong droppedCommands = new AtomicLong();
+	// Hilo que está corriendo un tick (el único que vacía commands) y lo que él
+	// mismo provocó: un transporte que avisa en el momento (LoopbackTransport.close)
+	// no puede esperar lugar en una cola que sólo vacía ese mismo hilo
+	private volatile Thread tickingThread;
+	private int[] ownTypes = new int[8];
+	private int[] ownSessions = new int[8];
+	private int ownCount = 0;
 
 	// ===== READY STATE =====
-	private Map<Connection, Boolean> readyMap = new HashMap<>();
+	private Map<Integer, Boolean> readyMap = new HashMap<>();
+
+	// ===== MATCHMAKING =====
+	// Listos esperando rival, en orden de llegada: los dos primeros juegan
+	private final ColaEmparejamiento<Integer> readyQueue = new ColaEmparejamiento<>(0, 0);
+	// Los dos de la partida en curso (el resto espera en el lobby)
+	private final ArrayList<Integer> matchPlayers = new ArrayList<>(2);
+	private final int readyTimeoutTicks;
+	private final int tickRate;
+
+	// ===== SNAPSHOTS =====
+	// Último estado de cada jugador (ID de conexión -> estado)
+	private final Map<Integer, PlayerSlot> latestStates = new HashMap<>();
+	private final Snapshot snapshot = new Snapshot();
+	private final Snapshot fullSnapshot = new Snapshot();
+	private final int snapshotIntervalTicks;
+
+	// ===== DELTA =====
+	// Qué snapshot confirmó cada cliente (ID de conexión -> vista)
+	private final Map<Integer, ClientView> clients = new HashMap<>();
+	// Estados enviados por tick, base de los deltas
+	private final HistorialEstados history = new HistorialEstados(SNAPSHOT_HISTORY, 2);
+	private final ByteBuffer deltaBuffer = ByteBuffer.allocate(1024);
+
+	// ===== SPECTATORS =====
+	// Sesiones de sólo lectura
+	private final HashSet<Integer> spectators = new HashSet<>();
+
+	// ===== FAN-OUT =====
+	// Cada mensaje se serializa una vez y se copia a todos los destinatarios
+	private final FanOutSerialization.Encoded broadcastFrame = new FanOutSerialization.Encoded();
+	private final FanOutSerialization.Encoded snapshotFrame = new FanOutSerialization.Encoded();
+	private final FanOutSerialization.Encoded fullSnapshotFrame = new FanOutSerialization.Encoded();
+	private final FanOutSerialization.Encoded deltaFrame = new FanOutSerialization.Encoded();
+	// Se serializan apenas se arman: una instancia de cada uno alcanza
+	private final LobbyState lobbyMessage = new LobbyState();
+	private final StartGame startMessage = new StartGame();
+	private final PlayerDied diedMessage = new PlayerDied();
+	private final MatchResult resultMessage = new MatchResult();
+	private final DeltaSnapshot deltaMessage = new DeltaSnapshot();
+	private final ObstacleBatch obstacleBatch = new ObstacleBatch();
 
 	// ===== OBSTACLES =====
-	private float obstacleTimer = 0f;
-	private int nextObstacleId = 1;
+	private final LineaObstaculos timeline;
+	// Obstáculos en pantalla: el servidor decide los choques
+	private final ObstaculosVivos liveObstacles;
+	// El replay la reemplaza por las semillas grabadas
+	private LongSupplier seedSource = new Random()::nextLong;
+	private final int obstacleWindowTicks;
+	private final int obstacleBatchTicks;
+	private int matchTick = 0;
 	private boolean gameStarted = false;
 
+	// ===== RECORDING =====
+	// Null = no se graba. Los mensajes recibidos se graban serializados con su propio Kryo
+	private volatile MatchRecorder recorder;
+	private FanOutSerialization recordSerialization;
+	private final FanOutSerialization.Encoded recordFrame = new FanOutSerialization.Encoded();
+
+	// Lo que recibe del transporte (el replay le pasa los mensajes grabados)
+	final MatchTransport.Events events;
+
     public GameServer() throws IOException {
+        this(DEFAULT_TICK_RATE);
+    }
 
-        server = new Server();
+    public GameServer(int tickRate) throws IOException {
+        this(tickRate, DEFAULT_SNAPSHOT_RATE);
+    }
 
-        Kryo kryo = server.getKryo();
-        kryo.register(PlayerState.class);
-        kryo.register(LobbyState.class);
-        kryo.register(StartGame.class);
-        kryo.register(ObstacleState.class);
+    public GameServer(int tickRate, int snapshotRate) throws IOException {
+        this(DEFAULT_TCP_PORT, DEFAULT_UDP_PORT, tickRate, snapshotRate, null);
+    }
 
-        server.addListener(new Listener() {
+    /**
+     * Con scheduler != null la partida no tiene hilo de ticks propio: se
+     * registra como sala del RoomScheduler (pool compartido entre partidas)
+     * y queda inactiva mientras no haya juego ni jugadores.
+     */
+    public GameServer(int tcpPort, int udpPort, int tickRate, int snapshotRate, RoomScheduler scheduler) throws IOException {
+        this(tcpPort, udpPort, tickRate, snapshotRate, scheduler, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_OBJECT_BUFFER_SIZE);
+    }
 
-            @Override
-            public void connected(Connection connection) {
+    /** Con tamaños propios para los buffers de Kryonet (ver DEFAULT_WRITE_BUFFER_SIZE). */
+    public GameServer(int tcpPort, int udpPort, int tickRate, int snapshotRate, RoomScheduler scheduler,
+                      int writeBufferSize, int objectBufferSize) throws IOException {
+        this(new KryonetTransport(tcpPort, udpPort, writeBufferSize, objectBufferSize), tickRate, snapshotRate, scheduler);
+    }
+
+    /** La misma partida sobre otro transporte (ver MatchTransport). */
+    public GameServer(MatchTransport transport, int tickRate, int snapshotRate, RoomScheduler scheduler) throws IOException {
+        this(transport, tickRate, snapshotRate, scheduler, false);
+    }
+
+    /** Con manualTicks el hilo de ticks no arranca: sólo avanza con update() (replay). */
+    GameServer(MatchTransport transport, int tickRate, int snapshotRate, RoomScheduler scheduler,
+               boolean manualTicks) throws IOException {
 
-                playerCount++;
-                readyMap.put(connection, false);
+        if (tickRate <= 0) throw new IllegalArgumentException("tickRate debe ser > 0: " + tickRate);
+        if (snapshotRate <= 0) throw new IllegalArgumentException("snapshotRate debe ser > 0: " + snapshotRate);
+        this.transport = transport;
+        this.objectBufferSize = transport.maxMessageSize();
+        snapshotIntervalTicks = Math.max(1, Math.round(tickRate / (float) snapshotRate));
+        this.tickRate = tickRate;
+        readyTimeoutTicks = READY_TIMEOUT_SECONDS * tickRate;
 
-                // 🔹 avisar lobby
-                LobbyState lobby = new LobbyState();
-                lobby.playerCount = playerCount;
-                server.sendToAllTCP(lobby);
+        timeline = new LineaObstaculos(LineaObstaculos.Perfil.KRYONET, tickRate);
+        liveObstacles = new ObstaculosVivos(tickRate);
+        obstacleWindowTicks = Math.round(OBSTACLE_WINDOW_SECONDS * tickRate);
+        obstacleBatchTicks = Math.max(1, Math.round(OBSTACLE_BATCH_SECONDS * tickRate));
+        stepNanos = 1_000_000_000L / tickRate;
+        stepSeconds = 1f / tickRate;
 
-                System.out.println("Jugador conectado ID=" + connection.getID());
+        serialization = new FanOutSerialization(objectBufferSize);
+        registerClasses(serialization.getKryo());
+
+        // El transporte sólo encola: el estado del juego es exclusivo del hilo de ticks
+        events = new MatchTransport.Events() {
+
+            @Override
+            public void connected(int session) {
+                enqueueLifecycle(CommandQueue.CONNECTED, session);
             }
 
             @Override
-            public void received(Connection connection, Object object) {
-
-                if (object instanceof PlayerState) {
-                    PlayerState ps = (PlayerState) object;
-
-                    // ===== READY =====
-                    if (ps.ready) {
-                        readyMap.put(connection, true);
-                        System.out.println("Jugador READY ID=" + connection.getID());
-                        checkStartGame();
-                        return;
-                    }
-
-                    // ===== GAME STATE =====
-                    ps.playerId = connection.getID(); // 🔥 SIEMPRE acá
-                    server.sendToAllUDP(ps);
+            public void received(int session, Object message) {
+                MESSAGES_RECEIVED.increment();
+                if (!commands.offer(CommandQueue.RECEIVED, session, message)) {
+                    // cola llena: un PlayerState viejo se puede perder (el próximo lo reemplaza)
+                    transport.recycle(message);
+                    droppedCommands.incrementAndGet();
+                    COMMANDS_DROPPED.increment();
                 }
+                wakeRoom();
             }
 
             @Override
-            public void disconnected(Connection connection) {
+            public void disconnected(int session) {
+                enqueueLifecycle(CommandQueue.DISCONNECTED, session);
+            }
+        };
+
+        // Se registra antes de abrir la red: los eventos ya pueden despertarla
+        if (scheduler != null) {
+            tickLoop = null;
+            roomHandle = scheduler.register(this::tickRoom);
+        } else {
+            roomHandle = null;
+            // Ticks a paso fijo (nanoTime), con catch-up si el server se atrasa
+            tickLoop = new TickLoop("GameServer-tick", tickRate, MAX_CATCH_UP_TICKS, this::updateServer);
+        }
+
+        transport.start(events);
 
-                playerCount--;
-                readyMap.remove(connection);
+        metricLabels = "{" + transport.label() + "}";
+        registerGauges();
 
-                LobbyState lobby = new LobbyState();
-                lobby.playerCount = playerCount;
-                server.sendToAllTCP(lobby);
+        if (tickLoop != null && !manualTicks) tickLoop.start();
+    }
+
+    /** Mismos IDs y serializadores que el servidor (ver MessageSerializers); lo usan también los clientes. */
+    public static void registerClasses(Kryo kryo) {
+        MessageSerializers.register(kryo, 0);
+    }
+
+    // Se leen desde el hilo de métricas: valores aproximados, alcanza para monitorear
+    private void registerGauges() {
+        METRICS.gauge("game_players" + metricLabels, "Jugadores conectados", () -> playerCount);
+        METRICS.gauge("game_spectators" + metricLabels, "Espectadores conectados", spectators::size);
+        if (tickLoop != null) {
+            METRICS.gauge("game_tick_overruns_total" + metricLabels, "Ticks más largos que el paso fijo", tickLoop::getOverrunCount);
+            METRICS.gauge("game_ticks_skipped_total" + metricLabels, "Ticks descartados por atraso", tickLoop::getSkippedTickCount);
+        }
+    }
 
-                System.out.println("Jugador desconectado ID=" + connection.getID());
+    private void unregisterGauges() {
+        METRICS.remove("game_players" + metricLabels);
+        METRICS.remove("game_spectators" + metricLabels);
+        METRICS.remove("game_tick_overruns_total" + metricLabels);
+        METRICS.remove("game_ticks_skipped_total" + metricLabels);
+    }
+
+    /**
+     * Avance manual (por ejemplo en pruebas). No hace nada mientras el loop
+     * interno o el RoomScheduler la están tickeando, así updateServer nunca
+     * se ejecuta dos veces.
+     */
+    public void update(float delta) {
+        if (roomHandle != null || tickLoop.isRunning()) return;
+        updateServer(delta);
+    }
+
+    /** Null si la partida corre en un RoomScheduler compartido. */
+    public TickLoop getTickLoop() {
+        return tickLoop;
+    }
+
+    /**
+     * Graba lo que entra y sale de esta partida (ver MatchRecorder). Escribe
+     * el hilo de ticks; quien lo crea lo cierra después de stop().
+     */
+    public void setRecorder(MatchRecorder recorder) {
+        if (recorder != null && recordSerialization == null) {
+            recordSerialization = new FanOutSerialization(objectBufferSize);
+            registerClasses(recordSerialization.getKryo());
+        }
+        this.recorder = recorder;
+    }
+
+    /** Conectados a esta partida (jugando o en el lobby); lo lee el reporte al directorio. */
+    public int getPlayerCount() {
+        return playerCount;
+    }
+
+    /** PlayerState descartados porque la cola de comandos estaba llena. */
+    public long getDroppedCommandCount() {
+        return droppedCommands.get();
+    }
+
+    public void stop() {
+        if (tickLoop != null) tickLoop.stop();
+        if (roomHandle != null) roomHandle.cancel();
+        unregisterGauges();
+
+        transport.stop();
+    }
+    
+    // ===== COMMANDS =====
+
+    /** Conexiones y desconexiones no se pueden perder: se reintenta hasta que haya lugar. */
+    private void enqueueLifecycle(int type, int session) {
+        if (Thread.currentThread() == tickingThread) {
+            // Desde el propio tick: se procesa en el próximo, sin esperar a la cola
+            if (ownCount == ownTypes.length) {
+                ownTypes = Arrays.copyOf(ownTypes, ownCount * 2);
+                ownSessions = Arrays.copyOf(ownSessions, ownCount * 2);
             }
+            ownTypes[ownCount] = type;
+            ownSessions[ownCount] = session;
+            ownCount++;
+            return;
+        }
+        while (!commands.offer(type, session, null)) {
+            wakeRoom(); // que alguien vacíe la cola
+            Thread.yield();
+        }
+        wakeRoom();
+    }
 
-            private void checkStartGame() {
-                if (readyMap.size() < 2) return;
+    private void wakeRoom() {
+        if (roomHandle != null) roomHandle.wake();
+    }
 
-                for (boolean ready : readyMap.values()) {
-                    if (!ready) return;
-                }
+    private void drainCommands() {
+        MatchRecorder rec = recorder;
+        if (rec != null) rec.setClock(tick);
+
+        while (commands.poll()) {
+            int session = commands.polledSession;
+            Object payload = commands.polledPayload;
+            if (rec != null) record(rec, commands.polledType, session, payload);
+            switch (commands.polledType) {
+                case CommandQueue.CONNECTED:
+                    onConnected(session);
+                    break;
+                case CommandQueue.RECEIVED:
+                    onReceived(session, payload);
+                    // Ya se grabó y se procesó: nada guarda el mensaje
+                    transport.recycle(payload);
+                    break;
+                case CommandQueue.DISCONNECTED:
+                    onDisconnected(session);
+                    break;
+                default:
+                    break;
+            }
+        }
 
-                System.out.println("🔥 Ambos jugadores READY → StartGame");
-                server.sendToAllTCP(new StartGame());
-                gameStarted = true;
+        for (int i = 0; i < ownCount; i++) {
+            if (rec != null) record(rec, ownTypes[i], ownSessions[i], null);
+            if (ownTypes[i] == CommandQueue.CONNECTED) {
+                onConnected(ownSessions[i]);
+            } else {
+                onDisconnected(ownSessions[i]);
             }
-        });
+        }
+        ownCount = 0;
+    }
 
-        server.start();
-        server.bind(54555, 54777);
-        System.out.println("🟢 Servidor iniciado");
-        new Thread(() -> {
-            long lastTime = System.currentTimeMillis();
+    private void onConnected(int session) {
 
-            while (true) {
-                long now = System.currentTimeMillis();
-                float delta = (now - lastTime) / 1000f;
-                lastTime = now;
+        playerCount++;
+        readyMap.put(session, false);
+        ClientView view = new ClientView(session);
+        view.lobbySinceTick = tick;
+        clients.put(session, view);
 
-                updateServer(delta);
+        // 🔹 avisar lobby
+        broadcastLobby();
 
-                try {
-                    Thread.sleep(16); // ~60 FPS
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        System.out.println("Jugador conectado ID=" + session);
+    }
+
+    /** Deja de ser jugador y pasa a mirar la partida. */
+    private void onSpectate(int session) {
+        if (spectators.contains(session)) return;
+
+        if (clients.remove(session) != null) {
+            playerCount--;
+            readyMap.remove(session);
+            leaveMatchmaking(session);
+            latestStates.remove(session);
+            broadcastLobby();
+        }
+        spectators.add(session);
+
+        // Se pone al día: partida en curso, estado completo y obstáculos
+        if (gameStarted) {
+            sendTo(session, true, startMessage);
+            if (fillSnapshot(fullSnapshot, false)) sendTo(session, false, fullSnapshot);
+            sendTo(session, false, buildObstacleBatch());
+        }
+
+        System.out.println("Espectador conectado ID=" + session);
+    }
+
+    private void onReceived(int session, Object object) {
+
+        if (object instanceof SpectateRequest) {
+            onSpectate(session);
+            return;
+        }
+
+        // Los espectadores son de sólo lectura
+        if (spectators.contains(session)) return;
+
+        if (object instanceof SnapshotAck) {
+            ClientView view = clients.get(session);
+            if (view != null) view.ack(((SnapshotAck) object).tick);
+            return;
+        }
+
+        if (object instanceof PlayerState) {
+            PlayerState ps = (PlayerState) object;
+
+            // ===== READY =====
+            if (ps.ready) {
+                if (matchPlayers.contains(session) || Boolean.TRUE.equals(readyMap.get(session))) return;
+                readyMap.put(session, true);
+                readyQueue.agregar(0, session);
+                System.out.println("Jugador READY ID=" + session);
+                checkStartGame();
+                return;
             }
-        }).start();
 
+            // ===== GAME STATE =====
+            // Durante una partida sólo cuentan los dos que la juegan
+            if (gameStarted && !matchPlayers.contains(session)) return;
+
+            // Sólo se guarda: sale en el próximo snapshot
+            int playerId = session; // 🔥 SIEMPRE acá
+            PlayerSlot slot = latestStates.get(playerId);
+            if (slot == null) {
+                slot = new PlayerSlot(playerId);
+                latestStates.put(playerId, slot);
+            }
+            slot.update(ps.x, ps.y, ps.ducking);
+        }
     }
-    
-    public void update(float delta) {
-        updateServer(delta);
+
+    private void onDisconnected(int session) {
+
+        if (spectators.remove(session)) {
+            System.out.println("Espectador desconectado ID=" + session);
+            return;
+        }
+
+        playerCount--;
+        readyMap.remove(session);
+        leaveMatchmaking(session);
+        latestStates.remove(session);
+        clients.remove(session);
+
+        broadcastLobby();
+
+        System.out.println("Jugador desconectado ID=" + session);
     }
 
-    public void stop() {
-        if (server != null) {
-            server.stop();
-            server.close();
-            server = null;
-            System.out.println("🔴 Server cerrado");
+    private void broadcastLobby() {
+        lobbyMessage.playerCount = playerCount;
+        broadcastReliable(lobbyMessage);
+    }
+
+    /**
+     * Arma la partida con los dos primeros listos de la cola: O(1), y un
+     * jugador que nunca manda READY no frena a los demás.
+     */
+    private void checkStartGame() {
+        if (gameStarted || readyQueue.esperando() < 2) return;
+
+        matchPlayers.add(readyQueue.sacar(0));
+        matchPlayers.add(readyQueue.sacar(0));
+
+        System.out.println("🔥 READY ID=" + matchPlayers.get(0) + " y ID=" + matchPlayers.get(1) + " → StartGame");
+        for (int player : matchPlayers) {
+            sendTo(player, true, startMessage);
         }
+        gameStarted = true;
+
+        // Nueva partida: nueva semilla y primera ventana de obstáculos
+        long seed = seedSource.getAsLong();
+        MatchRecorder rec = recorder;
+        if (rec != null) rec.recordSeed(0, seed);
+        timeline.reiniciar(seed);
+        matchTick = 0;
+        liveObstacles.limpiar();
+        for (PlayerSlot slot : latestStates.values()) slot.dead = false;
+        sendObstacleBatch();
     }
-    
+
+    // ===== SENDING =====
+
+    private void broadcastReliable(Object message) {
+        FanOutSerialization.Encoded frame = encodeOutgoing(0, message);
+        transport.sendToAll(true, frame.bytes, frame.length);
+    }
+
+    private void broadcastUnreliable(Object message) {
+        FanOutSerialization.Encoded frame = encodeOutgoing(0, message);
+        transport.sendToAll(false, frame.bytes, frame.length);
+    }
+
+    private void sendTo(int session, boolean reliable, Object message) {
+        FanOutSerialization.Encoded frame = encodeOutgoing(session, message);
+        transport.send(session, reliable, frame.bytes, frame.length);
+    }
+
+    /** Serializa una vez en broadcastFrame y, si se está grabando, lo graba (sesión 0 = todos). */
+    private FanOutSerialization.Encoded encodeOutgoing(int session, Object message) {
+        FanOutSerialization.Encoded frame = serialization.encode(message, broadcastFrame);
+        MatchRecorder rec = recorder;
+        if (rec != null) rec.record(MatchRecorder.OUT, session, 0, frame.bytes, 0, frame.length);
+        return frame;
+    }
+
+    // ===== RECORDING / REPLAY =====
+
+    /** Conexión y desconexión como eventos; lo recibido con su sesión. */
+    private void record(MatchRecorder rec, int type, int session, Object payload) {
+        switch (type) {
+            case CommandQueue.CONNECTED:
+                rec.recordEvent(MatchRecorder.EVENT_CONNECTED, session, 0);
+                break;
+            case CommandQueue.DISCONNECTED:
+                rec.recordEvent(MatchRecorder.EVENT_DISCONNECTED, session, 0);
+                break;
+            default:
+                recordSerialization.encode(payload, recordFrame);
+                rec.record(MatchRecorder.IN, session, 0, recordFrame.bytes, 0, recordFrame.length);
+                break;
+        }
+    }
+
+    /** Replay: las partidas usan las semillas grabadas. */
+    void useSeeds(LongSupplier seeds) {
+        seedSource = seeds;
+    }
+
+    /** Ticks ejecutados (el reloj que queda en las grabaciones). */
+    int getTick() {
+        return tick;
+    }
+
+    // ===== MATCHMAKING =====
+
+    /** Sale de la cola o de la partida; si era uno de los dos que jugaban, gana el otro. */
+    private void leaveMatchmaking(int session) {
+        readyQueue.quitar(0, session);
+        if (!matchPlayers.remove(Integer.valueOf(session))) return;
+
+        if (gameStarted) {
+            endMatch(matchPlayers.isEmpty() ? 0 : matchPlayers.get(0));
+        }
+    }
+
+    /**
+     * Mientras alguien listo espera rival, los del lobby que no mandaron
+     * READY en readyTimeoutTicks se desconectan (se revisa una vez por segundo).
+     */
+    private void checkReadyTimeouts() {
+        if (tick % tickRate != 0 || readyQueue.esperando() == 0) return;
+
+        for (ClientView view : clients.values()) {
+            if (tick - view.lobbySinceTick < readyTimeoutTicks) continue;
+            if (matchPlayers.contains(view.session) || Boolean.TRUE.equals(readyMap.get(view.session))) continue;
+
+            System.out.println("⏱ Jugador ID=" + view.session + " sin READY, se desconecta");
+            READY_TIMEOUTS.increment();
+            // El transporte avisa el disconnected: se limpia como cualquier desconexión
+            transport.close(view.session);
+        }
+    }
+
+    // ===== TICK =====
+
+    /**
+     * Tick desde el RoomScheduler: paso fijo mientras hay partida o estados
+     * que mandar; si no, la sala queda inactiva hasta que llegue algo por red.
+     */
+    private long tickRoom(long now) {
+        updateServer(stepSeconds);
+
+        // Con alguien listo esperando rival corre el plazo del READY de los demás
+        boolean idle = playerCount == 0 || (!gameStarted && latestStates.isEmpty() && readyQueue.esperando() == 0);
+        if (idle) {
+            roomTicking = false;
+            return RoomScheduler.IDLE;
+        }
+
+        if (!roomTicking) {
+            roomTicking = true;
+            nextTickNanos = now;
+        }
+        nextTickNanos += stepNanos;
+
+        // Demasiado atrasada: se descartan los ticks perdidos (igual que TickLoop)
+        if (now - nextTickNanos > MAX_CATCH_UP_TICKS * stepNanos) {
+            nextTickNanos = now + stepNanos;
+        }
+        return nextTickNanos;
+    }
+
     private void updateServer(float delta) {
+        long start = System.nanoTime();
+        tickingThread = Thread.currentThread();
+        try {
+            runTick();
+        } finally {
+            tickingThread = null;
+        }
+        TICK_NANOS.record(System.nanoTime() - start);
+    }
+
+    private void runTick() {
+
+        drainCommands();
+
+        tick++;
+        if (tick % snapshotIntervalTicks == 0) {
+            sendSnapshots();
+        }
+        checkReadyTimeouts();
 
         if (!gameStarted) return;
         if (playerCount < 2) return;
 
-        obstacleTimer += delta;
+        matchTick++;
 
-        if (obstacleTimer >= 1.5f) {
-            obstacleTimer = 0f;
+        // Los que ya aparecieron salen de la ventana y pasan a la simulación
+        liveObstacles.avanzar();
+        while (timeline.pendientes() > 0 && timeline.tick(0) <= matchTick) {
+            liveObstacles.aparecer(timeline);
+            timeline.sacarPrimero();
+        }
 
-            ObstacleState o = new ObstacleState();
-            o.id = nextObstacleId++;
-            o.x = 800;
+        if (checkCollisions()) return;
 
-            boolean isCactus = Math.random() > 0.5;
+        if (matchTick % obstacleBatchTicks == 0) {
+            sendObstacleBatch();
+        }
+    }
 
-            if (isCactus) {
-                o.type = 0;
-                o.y = 40;
-                o.width = 25;
-                o.height = 40;
-            } else {
-                o.type = 1;
-                o.y = Math.random() > 0.5 ? 55 : 75;
-                o.width = 40;
-                o.height = 25;
+    /**
+     * Choques contra el último estado de cada jugador. Devuelve true si la
+     * partida terminó (queda uno solo en pie, o ninguno).
+     */
+    private boolean checkCollisions() {
+        boolean anyDied = false;
+        for (int player : matchPlayers) {
+            PlayerSlot slot = latestStates.get(player);
+            if (slot == null || slot.dead || !liveObstacles.choca(slot.x, slot.y, slot.ducking)) continue;
+
+            slot.dead = true;
+            anyDied = true;
+            diedMessage.playerId = slot.playerId;
+            broadcastReliable(diedMessage);
+            System.out.println("💥 Jugador ID=" + slot.playerId + " chocó");
+        }
+        if (!anyDied) return false;
+
+        // Un jugador que todavía no mandó estado sigue en pie
+        int alive = 0;
+        int winnerId = 0;
+        for (int player : matchPlayers) {
+            PlayerSlot slot = latestStates.get(player);
+            if (slot == null || !slot.dead) {
+                alive++;
+                winnerId = player;
+            }
+        }
+        if (alive > 1) return false;
+
+        endMatch(alive == 1 ? winnerId : 0);
+        return true;
+    }
+
+    private void endMatch(int winnerId) {
+        resultMessage.winnerId = winnerId;
+        broadcastReliable(resultMessage);
+        System.out.println("🏁 Partida terminada, ganador ID=" + winnerId);
+
+        gameStarted = false;
+        liveObstacles.limpiar();
+        // Los dos vuelven al lobby y tienen que mandar READY de nuevo; los que esperaban siguen listos
+        for (int player : matchPlayers) {
+            readyMap.put(player, false);
+            ClientView view = clients.get(player);
+            if (view != null) view.lobbySinceTick = tick;
+        }
+        matchPlayers.clear();
+        MATCHES_FINISHED.increment();
+
+        checkStartGame();
+    }
+
+    // ===== OBSTACLES =====
+
+    /**
+     * Semilla + próximos obstáculos de la ventana, sin confirmación: los lotes
+     * se solapan, así que uno perdido lo cubre el siguiente (sin bloqueo de TCP).
+     */
+    private void sendObstacleBatch() {
+        broadcastUnreliable(buildObstacleBatch());
+    }
+
+    private ObstacleBatch buildObstacleBatch() {
+        timeline.completarHasta(matchTick + obstacleWindowTicks);
+
+        int count = timeline.pendientes();
+        ObstacleBatch batch = obstacleBatch;
+        batch.seed = timeline.semilla();
+        batch.tickRate = timeline.ticksPorSegundo();
+        batch.firstId = count > 0 ? timeline.indice(0) + 1 : 0;
+        batch.count = count;
+        // Los arrays sólo crecen: se serializan las primeras count posiciones
+        if (batch.ticks == null || batch.ticks.length < count) {
+            int capacity = Math.max(count, 16);
+            batch.ticks = new int[capacity];
+            batch.types = new byte[capacity];
+            batch.y = new float[capacity];
+            batch.width = new short[capacity];
+            batch.height = new short[capacity];
+        }
+
+        for (int i = 0; i < count; i++) {
+            batch.ticks[i] = timeline.tick(i);
+            batch.types[i] = (byte) timeline.tipo(i);
+            batch.y[i] = timeline.y(i);
+            batch.width[i] = (short) timeline.ancho(i);
+            batch.height[i] = (short) timeline.alto(i);
+        }
+        return batch;
+    }
+
+    // ===== SNAPSHOTS =====
+
+    /**
+     * Un solo datagrama por cliente y por tick de snapshot:
+     * - clientes que nunca mandaron ack: Snapshot con los jugadores que cambiaron
+     * - clientes con base confirmada: DeltaSnapshot contra esa base
+     * - clientes cuya base se perdió (o recién empiezan a ackear): Snapshot completo
+     * - espectadores: siempre el Snapshot completo
+     * Cada variante se serializa una sola vez, sin importar cuántos la reciban.
+     */
+    private void sendSnapshots() {
+        if (latestStates.isEmpty()) return;
+
+        // 1) Guardar el estado de este tick como posible base futura
+        int slot = history.abrir(tick);
+        for (PlayerSlot p : latestStates.values()) {
+            history.agregar(slot, p.playerId, CompresorDelta.cuantizar(p.x), CompresorDelta.cuantizar(p.y), p.ducking);
+        }
+
+        boolean dirtyBuilt = fillSnapshot(snapshot, true);
+        if (dirtyBuilt) serialization.encode(snapshot, snapshotFrame);
+        boolean fullBuilt = false;
+
+        // Clientes con la misma base comparten el mismo delta
+        int lastDeltaBase = -1;
+        DeltaSnapshot lastDelta = null;
+
+        for (ClientView view : clients.values()) {
+            if (!view.acking) {
+                if (dirtyBuilt) sendSnapshotFrame(view.session, snapshotFrame);
+                continue;
             }
 
-            System.out.println("🪨 Obstáculo enviado ID=" + o.id);
-            server.sendToAllTCP(o); // ✅ ahora seguro
+            int baseSlot = history.buscar(view.ackedTick);
+            if (baseSlot < 0) {
+                if (!fullBuilt) fullBuilt = buildFullSnapshotFrame();
+                sendSnapshotFrame(view.session, fullSnapshotFrame);
+                view.fullSent(tick);
+                continue;
+            }
+
+            if (view.ackedTick != lastDeltaBase) {
+                lastDeltaBase = view.ackedTick;
+                lastDelta = buildDelta(view.ackedTick, baseSlot);
+                if (lastDelta != null) serialization.encode(lastDelta, deltaFrame);
+            }
+            if (lastDelta != null) sendSnapshotFrame(view.session, deltaFrame);
+        }
+
+        if (!spectators.isEmpty()) {
+            if (!fullBuilt) fullBuilt = buildFullSnapshotFrame();
+            for (int spectator : spectators) {
+                sendSnapshotFrame(spectator, fullSnapshotFrame);
+            }
+        }
+
+        for (PlayerSlot p : latestStates.values()) {
+            p.dirty = false;
+        }
+    }
+
+    private void sendSnapshotFrame(int session, FanOutSerialization.Encoded frame) {
+        MatchRecorder rec = recorder;
+        if (rec != null) rec.record(MatchRecorder.OUT, session, 0, frame.bytes, 0, frame.length);
+        int bytes = transport.send(session, false, frame.bytes, frame.length);
+        SNAPSHOTS_SENT.increment();
+        SNAPSHOT_BYTES_SENT.add(bytes);
+    }
+
+    private boolean buildFullSnapshotFrame() {
+        fillSnapshot(fullSnapshot, false);
+        serialization.encode(fullSnapshot, fullSnapshotFrame);
+        return true;
+    }
+
+    /** Llena el snapshot con todos los jugadores o sólo los que cambiaron. */
+    private boolean fillSnapshot(Snapshot target, boolean onlyDirty) {
+        int count = 0;
+        for (PlayerSlot p : latestStates.values()) {
+            if (!onlyDirty || p.dirty) count++;
+        }
+        if (count == 0) return false;
+
+        ensureSnapshotCapacity(target, count);
+
+        int i = 0;
+        for (PlayerSlot p : latestStates.values()) {
+            if (onlyDirty && !p.dirty) continue;
+
+            target.playerIds[i] = p.playerId;
+            target.x[i] = p.x;
+            target.y[i] = p.y;
+            target.ducking[i] = p.ducking;
+            i++;
+        }
+        target.tick = tick;
+        target.count = count;
+        return true;
+    }
+
+    private DeltaSnapshot buildDelta(int baseTick, int baseSlot) {
+        deltaBuffer.clear();
+
+        boolean any = false;
+        for (PlayerSlot p : latestStates.values()) {
+            int qx = CompresorDelta.cuantizar(p.x);
+            int qy = CompresorDelta.cuantizar(p.y);
+            int baseIndex = history.indiceDe(baseSlot, p.playerId);
+            if (CompresorDelta.escribirEntidad(deltaBuffer, p.playerId, qx, qy, p.ducking, history, baseSlot, baseIndex)) {
+                any = true;
+            }
+        }
+        if (!any) return null; // el cliente ya tiene todo
+
+        DeltaSnapshot delta = deltaMessage;
+        delta.tick = tick;
+        delta.baseTick = baseTick;
+        delta.data = deltaBuffer.array();
+        delta.length = deltaBuffer.position();
+        return delta;
+    }
+
+    // Se serializan las primeras count posiciones: los arrays sólo crecen
+    private static void ensureSnapshotCapacity(Snapshot target, int count) {
+        if (target.playerIds.length >= count) return;
+
+        target.playerIds = new int[count];
+        target.x = new float[count];
+        target.y = new float[count];
+        target.ducking = new boolean[count];
+    }
+
+    private static class ClientView {
+        final int session;
+        boolean acking = false;
+        int ackedTick = -1;
+        int lobbySinceTick; // desde cuándo puede mandar READY (conexión o fin de su partida)
+        // Sólo sirven de base los ticks desde el primer Snapshot completo
+        int firstFullTick = Integer.MAX_VALUE;
+
+        ClientView(int session) {
+            this.session = session;
+        }
+
+        void ack(int tick) {
+            if (!acking) {
+                // Primer ack: todavía no sabemos si tiene a todos los jugadores,
+                // así que arranca con un Snapshot completo
+                acking = true;
+                return;
+            }
+            if (tick >= firstFullTick && tick > ackedTick) ackedTick = tick;
+        }
+
+        void fullSent(int tick) {
+            if (firstFullTick == Integer.MAX_VALUE) firstFullTick = tick;
+        }
+    }
+
+    private static class PlayerSlot {
+        final int playerId;
+        float x;
+        float y;
+        boolean ducking;
+        boolean dirty;
+        boolean dead; // chocó en la partida actual
+
+        PlayerSlot(int playerId) {
+            this.playerId = playerId;
+            this.x = Float.NaN; // el primer estado siempre cuenta como cambio
+        }
+
+        void update(float newX, float newY, boolean newDucking) {
+            if (newX != x || newY != y || newDucking != ducking) {
+                x = newX;
+                y = newY;
+                ducking = newDucking;
+                dirty = true;
+            }
         }
     }
 }
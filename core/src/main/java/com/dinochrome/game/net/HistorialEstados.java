@@ -0,0 +1,103 @@
+// =====================================================
+// ARCHIVO: HistorialEstados.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Anillo con los últimos estados enviados (cuantizados), indexados por
+ * secuencia/tick. Es la fuente de las líneas base para CompresorDelta:
+ * si la secuencia que confirmó el cliente ya se pisó, hay que mandar
+ * un estado completo.
+ *
+ * Todo en arrays primitivos: no se crean objetos por estado guardado.
+ */
+final class HistorialEstados {
+
+    private final int mascara;
+    private final int[] secuencias;
+    private final int[] cantidades;
+    private final int[][] ids;
+    private final int[][] qx;
+    private final int[][] qy;
+    private final boolean[][] duck;
+
+    HistorialEstados(int frames, int entidadesIniciales) {
+        int size = 1;
+        while (size < frames) size <<= 1;
+        mascara = size - 1;
+
+        secuencias = new int[size];
+        cantidades = new int[size];
+        ids = new int[size][entidadesIniciales];
+        qx = new int[size][entidadesIniciales];
+        qy = new int[size][entidadesIniciales];
+        duck = new boolean[size][entidadesIniciales];
+
+        for (int i = 0; i < size; i++) secuencias[i] = -1;
+    }
+
+    /** Reserva el frame de esa secuencia (pisa el más viejo) y lo deja vacío. */
+    int abrir(int secuencia) {
+        int slot = secuencia & mascara;
+        secuencias[slot] = secuencia;
+        cantidades[slot] = 0;
+        return slot;
+    }
+
+    void agregar(int slot, int id, int x, int y, boolean agachado) {
+        int n = cantidades[slot];
+        if (n == ids[slot].length) crecer(slot, Math.max(2, n * 2));
+
+        ids[slot][n] = id;
+        qx[slot][n] = x;
+        qy[slot][n] = y;
+        duck[slot][n] = agachado;
+        cantidades[slot] = n + 1;
+    }
+
+    /** Slot de la secuencia, o -1 si nunca se guardó o ya se pisó. */
+    int buscar(int secuencia) {
+        if (secuencia < 0) return -1;
+        int slot = secuencia & mascara;
+        return secuencias[slot] == secuencia ? slot : -1;
+    }
+
+    /** Índice de la entidad dentro del frame, o -1 si no está. */
+    int indiceDe(int slot, int id) {
+        int[] frameIds = ids[slot];
+        for (int i = 0, n = cantidades[slot]; i < n; i++) {
+            if (frameIds[i] == id) return i;
+        }
+        return -1;
+    }
+
+    int cantidad(int slot) {
+        return cantidades[slot];
+    }
+
+    int id(int slot, int indice) {
+        return ids[slot][indice];
+    }
+
+    int qx(int slot, int indice) {
+        return qx[slot][indice];
+    }
+
+    int qy(int slot, int indice) {
+        return qy[slot][indice];
+    }
+
+    boolean duck(int slot, int indice) {
+        return duck[slot][indice];
+    }
+
+    private void crecer(int slot, int capacidad) {
+        ids[slot] = Arrays.copyOf(ids[slot], capacidad);
+        qx[slot] = Arrays.copyOf(qx[slot], capacidad);
+        qy[slot] = Arrays.copyOf(qy[slot], capacidad);
+        duck[slot] = Arrays.copyOf(duck[slot], capacidad);
+    }
+}
@@ -0,0 +1,43 @@
+// =====================================================
+// ARCHIVO: Jugador.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.net.SocketAddress;
+
+/**
+ * Sesión de un jugador del servidor UDP. El id (1 o 2) es relativo a su sala.
+ * Los espectadores usan la misma sesión con id 0 y sólo reciben.
+ */
+class Jugador {
+    int id; // 1 o 2 dentro de la sala (0 si es espectador)
+    SocketAddress addr; // puede cambiar si manda su sesión desde otra dirección
+    int sesion; // id de sesión del ASSIGN (0 = espectador, sin sesión)
+    int version = ProtocoloTexto.VERSION; // protocolo negociado en el JOIN / WATCH
+    Sala sala; // null si es un espectador cuya sala se cerró
+    boolean listo;
+    boolean muerto; // chocó en la partida actual (lo decide el servidor)
+
+    boolean espectador = false;
+    int indiceEspectador = -1; // posición en Sala.espectadores
+
+    float x, y;
+    boolean duck;
+    long ultimoPaqueteMs;
+
+    // Enlaces de RuedaTimeouts (ranura -1 = no está en la rueda)
+    Jugador anteriorRueda, siguienteRueda;
+    int ranuraRueda = -1;
+
+    // Delta de STATE: estados propios enviados al otro (se crea al primer uso)
+    HistorialEstados historialEstado;
+    int secuenciaEstado = 0;
+
+    // Canal confiable para los mensajes de control ("JOIN;v=2;reliable=1"; null = sin canal)
+    CanalConfiable confiable;
+
+    // Este jugador confirma con ACK los STATE del otro
+    boolean usaAcks = false;
+    int ackEstadoOtro = -1;
+}
@@ -0,0 +1,136 @@
+// =====================================================
+// ARCHIVO: KryonetTransport.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.kryonet.Server;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GameServer sobre Kryonet: lo confiable por TCP, el resto por UDP. La
+ * sesión es el ID de conexión de Kryonet.
+ *
+ * Los bytes ya serializados viajan en un FanOutSerialization.Encoded:
+ * Kryonet los copia tal cual al buffer de la conexión y el cliente los lee
+ * como el objeto original.
+ */
+public final class KryonetTransport implements MatchTransport {
+
+    // Como mucho hay una cola de comandos llena de mensajes sin reciclar
+    private static final int POOL_CAPACITY = 4096;
+
+    private final int tcpPort;
+    private final int udpPort;
+    private final int objectBufferSize;
+    private final Server server;
+    private final MessageSerializers messages;
+
+    // Las escribe el hilo de Kryonet y las lee el de ticks al mandar
+    private final ConcurrentHashMap<Integer, Connection> connections = new ConcurrentHashMap<>();
+    // Envoltorio de lo que manda el hilo de ticks (Kryonet copia los bytes en el momento)
+    private final FanOutSerialization.Encoded frame = new FanOutSerialization.Encoded();
+    private boolean stopped = false;
+
+    public KryonetTransport(int tcpPort, int udpPort) {
+        this(tcpPort, udpPort, GameServer.DEFAULT_WRITE_BUFFER_SIZE, GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+    }
+
+    /** Con tamaños propios para los buffers de Kryonet (ver GameServer.DEFAULT_WRITE_BUFFER_SIZE). */
+    public KryonetTransport(int tcpPort, int udpPort, int writeBufferSize, int objectBufferSize) {
+        if (objectBufferSize <= 0) throw new IllegalArgumentException("objectBufferSize debe ser > 0: " + objectBufferSize);
+        if (writeBufferSize < objectBufferSize) {
+            throw new IllegalArgumentException("writeBufferSize debe ser >= objectBufferSize: " + writeBufferSize);
+        }
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.objectBufferSize = objectBufferSize;
+
+        FanOutSerialization serialization = new FanOutSerialization(objectBufferSize);
+        server = new Server(writeBufferSize, objectBufferSize, serialization);
+        messages = MessageSerializers.registerServerDecoder(server.getKryo(), POOL_CAPACITY);
+    }
+
+    @Override
+    public void start(Events events) throws IOException {
+        server.addListener(new Listener() {
+
+            @Override
+            public void connected(Connection connection) {
+                connections.put(connection.getID(), connection);
+                events.connected(connection.getID());
+            }
+
+            @Override
+            public void received(Connection connection, Object object) {
+                events.received(connection.getID(), object);
+            }
+
+            @Override
+            public void disconnected(Connection connection) {
+                connections.remove(connection.getID());
+                events.disconnected(connection.getID());
+            }
+        });
+        server.start();
+        server.bind(tcpPort, udpPort);
+        System.out.println("🟢 Servidor iniciado (TCP " + tcpPort + ", UDP " + udpPort + ")");
+    }
+
+    @Override
+    public int send(int session, boolean reliable, byte[] data, int length) {
+        Connection connection = connections.get(session);
+        if (connection == null) return 0;
+        return reliable ? connection.sendTCP(wrap(data, length)) : connection.sendUDP(wrap(data, length));
+    }
+
+    @Override
+    public void sendToAll(boolean reliable, byte[] data, int length) {
+        if (reliable) {
+            server.sendToAllTCP(wrap(data, length));
+        } else {
+            server.sendToAllUDP(wrap(data, length));
+        }
+    }
+
+    @Override
+    public void close(int session) {
+        // Kryonet avisa el disconnected
+        Connection connection = connections.get(session);
+        if (connection != null) connection.close();
+    }
+
+    @Override
+    public void recycle(Object message) {
+        messages.recycle(message);
+    }
+
+    @Override
+    public int maxMessageSize() {
+        return objectBufferSize;
+    }
+
+    @Override
+    public String label() {
+        return "tcp_port=\"" + tcpPort + "\"";
+    }
+
+    @Override
+    public void stop() {
+        if (stopped) return;
+        stopped = true;
+        server.stop();
+        server.close();
+        System.out.println("🔴 Server cerrado");
+    }
+
+    private FanOutSerialization.Encoded wrap(byte[] data, int length) {
+        frame.bytes = data;
+        frame.length = length;
+        return frame;
+    }
+}
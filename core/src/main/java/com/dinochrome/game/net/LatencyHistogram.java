@@ -0,0 +1,86 @@
+// =====================================================
+// ARCHIVO: LatencyHistogram.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos, sin locks.
+ *
+ * Buckets log-lineales: cada potencia de 2 se parte en 8, así el error de
+ * un percentil es menor al 12.5% con un array fijo de ~500 contadores.
+ * record() es un par de operaciones de bits y un incremento atómico.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // otro hilo subió el máximo: reintentar
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Valor (cota superior del bucket) por debajo del cual queda la fracción p de las muestras. */
+    public long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        if (total == 0) return 0;
+
+        long objetivo = (long) Math.ceil(p * total);
+        if (objetivo < 1) objetivo = 1;
+
+        long acumulado = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            acumulado += counts.get(i);
+            if (acumulado >= objetivo) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int shift = exp - SUB_BITS;
+        int sub = (int) (v >>> shift) & (SUB_BUCKETS - 1);
+        return ((shift + 1) << SUB_BITS) + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        long limite = ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        return limite < 0 ? Long.MAX_VALUE : limite; // último bucket
+    }
+}
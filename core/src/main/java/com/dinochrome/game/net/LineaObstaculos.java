@@ -0,0 +1,199 @@
+// =====================================================
+// ARCHIVO: LineaObstaculos.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Línea de tiempo determinística de obstáculos de una partida.
+ *
+ * Con la misma semilla y el mismo perfil siempre sale la misma secuencia
+ * (tick de aparición, tipo, y, ancho, alto), así el servidor puede mandar
+ * la semilla y una ventana de próximos obstáculos por adelantado, y una
+ * partida se puede reproducir para depurar o medir.
+ *
+ * Los ticks son relativos al inicio de la partida. Los obstáculos ya
+ * generados y todavía no consumidos quedan en una ventana (anillo de
+ * arrays primitivos).
+ */
+final class LineaObstaculos {
+
+    /** Reglas de generación de cada servidor. */
+    enum Perfil {
+        // ServidorDinoMultijugador (UDP)
+        UDP(900, 1600, 40, 20, 30, 30, 40, 55, 70, 40, 20),
+        // GameServer (Kryonet)
+        KRYONET(1500, 1500, 40, 25, 26, 40, 41, 55, 75, 40, 25);
+
+        final int intervaloMinMs;
+        final int intervaloMaxMs; // exclusivo (igual que antes con nextInt)
+        final int yCactus;
+        final int anchoCactusMin, anchoCactusMax; // [min, max)
+        final int altoCactusMin, altoCactusMax;
+        final int yPteroBajo, yPteroAlto;
+        final int anchoPtero, altoPtero;
+
+        Perfil(int intervaloMinMs, int intervaloMaxMs, int yCactus,
+               int anchoCactusMin, int anchoCactusMax, int altoCactusMin, int altoCactusMax,
+               int yPteroBajo, int yPteroAlto, int anchoPtero, int altoPtero) {
+            this.intervaloMinMs = intervaloMinMs;
+            this.intervaloMaxMs = intervaloMaxMs;
+            this.yCactus = yCactus;
+            this.anchoCactusMin = anchoCactusMin;
+            this.anchoCactusMax = anchoCactusMax;
+            this.altoCactusMin = altoCactusMin;
+            this.altoCactusMax = altoCactusMax;
+            this.yPteroBajo = yPteroBajo;
+            this.yPteroAlto = yPteroAlto;
+            this.anchoPtero = anchoPtero;
+            this.altoPtero = altoPtero;
+        }
+    }
+
+    static final int TIPO_CACTUS = 0;
+    static final int TIPO_PTERO = 1;
+
+    private static final int CAPACIDAD_VENTANA = 32;
+
+    private final Perfil perfil;
+    private final int ticksPorSegundo;
+
+    private long semilla;
+    private long estado; // SplitMix64
+
+    // Próximo obstáculo a generar
+    private int tickSiguiente;
+    private int indiceSiguiente;
+
+    // Ventana de obstáculos generados y no consumidos
+    private final int[] ticks = new int[CAPACIDAD_VENTANA];
+    private final int[] tipos = new int[CAPACIDAD_VENTANA];
+    private final int[] ys = new int[CAPACIDAD_VENTANA];
+    private final int[] anchos = new int[CAPACIDAD_VENTANA];
+    private final int[] altos = new int[CAPACIDAD_VENTANA];
+    private int primero = 0;
+    private int pendientes = 0;
+    private int indicePrimero = 0;
+
+    LineaObstaculos(Perfil perfil, int ticksPorSegundo) {
+        this.perfil = perfil;
+        this.ticksPorSegundo = ticksPorSegundo;
+        reiniciar(0L);
+    }
+
+    /** Vuelve al principio de la línea con otra semilla (nueva partida). */
+    void reiniciar(long nuevaSemilla) {
+        semilla = nuevaSemilla;
+        estado = nuevaSemilla;
+        indiceSiguiente = 0;
+        primero = 0;
+        pendientes = 0;
+        indicePrimero = 0;
+
+        tickSiguiente = intervaloEnTicks();
+    }
+
+    long semilla() {
+        return semilla;
+    }
+
+    int ticksPorSegundo() {
+        return ticksPorSegundo;
+    }
+
+    /** Genera obstáculos hasta cubrir tickLimite (o hasta llenar la ventana). */
+    void completarHasta(int tickLimite) {
+        while (tickSiguiente <= tickLimite && pendientes < CAPACIDAD_VENTANA) {
+            int i = (primero + pendientes) & (CAPACIDAD_VENTANA - 1);
+            generar(i);
+            ticks[i] = tickSiguiente;
+            if (pendientes == 0) indicePrimero = indiceSiguiente;
+            pendientes++;
+            indiceSiguiente++;
+
+            tickSiguiente += intervaloEnTicks();
+        }
+    }
+
+    /** Consume el primer obstáculo de la ventana (ya apareció). */
+    void sacarPrimero() {
+        if (pendientes == 0) return;
+        primero = (primero + 1) & (CAPACIDAD_VENTANA - 1);
+        pendientes--;
+        indicePrimero++;
+    }
+
+    // ===== Acceso a la ventana (i = 0 es el próximo en aparecer) =====
+    int pendientes() {
+        return pendientes;
+    }
+
+    /** Índice global del obstáculo dentro de la partida (0, 1, 2...). */
+    int indice(int i) {
+        return indicePrimero + i;
+    }
+
+    int tick(int i) {
+        return ticks[pos(i)];
+    }
+
+    int tipo(int i) {
+        return tipos[pos(i)];
+    }
+
+    int y(int i) {
+        return ys[pos(i)];
+    }
+
+    int ancho(int i) {
+        return anchos[pos(i)];
+    }
+
+    int alto(int i) {
+        return altos[pos(i)];
+    }
+
+    private int pos(int i) {
+        return (primero + i) & (CAPACIDAD_VENTANA - 1);
+    }
+
+    // -------------------------
+    // Generación
+    // -------------------------
+    private void generar(int i) {
+        if (siguienteBooleano()) {
+            tipos[i] = TIPO_CACTUS;
+            ys[i] = perfil.yCactus;
+            anchos[i] = entre(perfil.anchoCactusMin, perfil.anchoCactusMax);
+            altos[i] = entre(perfil.altoCactusMin, perfil.altoCactusMax);
+        } else {
+            tipos[i] = TIPO_PTERO;
+            ys[i] = siguienteBooleano() ? perfil.yPteroBajo : perfil.yPteroAlto;
+            anchos[i] = perfil.anchoPtero;
+            altos[i] = perfil.altoPtero;
+        }
+    }
+
+    private int intervaloEnTicks() {
+        int ms = entre(perfil.intervaloMinMs, perfil.intervaloMaxMs);
+        return Math.max(1, (int) ((long) ms * ticksPorSegundo / 1000));
+    }
+
+    /** Entero en [min, max); si max <= min devuelve min. */
+    private int entre(int min, int max) {
+        if (max <= min) return min;
+        return min + (int) ((siguiente() >>> 33) % (max - min));
+    }
+
+    private boolean siguienteBooleano() {
+        return (siguiente() & 1L) != 0;
+    }
+
+    // SplitMix64: rápido, sin estado compartido y reproducible en cualquier JVM o cliente
+    private long siguiente() {
+        long z = (estado += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
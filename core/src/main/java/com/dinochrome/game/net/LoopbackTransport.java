@@ -0,0 +1,157 @@
+// =====================================================
+// ARCHIVO: LoopbackTransport.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * GameServer sin sockets: los clientes son objetos del mismo proceso
+ * (connect()) y los mensajes se entregan en el momento, sin pérdidas.
+ *
+ * Cada mensaje igual pasa por Kryo ida y vuelta, con los mismos bytes que
+ * irían por la red: lo que se mide contra los otros transportes es sólo el
+ * costo de la red. Un cliente sin receptor no deserializa lo que le llega
+ * (sólo lo cuenta), así un benchmark mide la lógica de la partida y nada más.
+ */
+public final class LoopbackTransport implements MatchTransport {
+
+    // Numera las etiquetas de métricas (puede haber varias partidas en el proceso)
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final int instance = INSTANCES.incrementAndGet();
+    private final ConcurrentHashMap<Integer, Peer> peers = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private volatile Events events;
+
+    // Deserializa lo que manda la partida (sólo desde su hilo de ticks)
+    private final FanOutSerialization downlink = new FanOutSerialization(GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+    private final ByteBuffer downlinkBuffer = ByteBuffer.allocate(GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+
+    public LoopbackTransport() {
+        GameServer.registerClasses(downlink.getKryo());
+    }
+
+    @Override
+    public void start(Events events) {
+        this.events = events;
+    }
+
+    /**
+     * Conecta un cliente nuevo. receiver recibe lo que manda la partida
+     * desde su hilo de ticks; null = sólo se cuenta.
+     */
+    public Peer connect(Consumer<Object> receiver) {
+        Events e = events;
+        if (e == null) throw new IllegalStateException("La partida todavía no arrancó");
+
+        Peer peer = new Peer(nextSession.incrementAndGet(), receiver);
+        peers.put(peer.session, peer);
+        e.connected(peer.session);
+        return peer;
+    }
+
+    @Override
+    public int send(int session, boolean reliable, byte[] data, int length) {
+        Peer peer = peers.get(session);
+        if (peer == null) return 0;
+        deliver(peer, data, length);
+        return length;
+    }
+
+    @Override
+    public void sendToAll(boolean reliable, byte[] data, int length) {
+        for (Peer peer : peers.values()) deliver(peer, data, length);
+    }
+
+    // Avisa en el momento, aunque sea desde el hilo de ticks: GameServer lo
+    // deja para el próximo tick en vez de esperar lugar en su cola
+    @Override
+    public void close(int session) {
+        if (peers.remove(session) != null) events.disconnected(session);
+    }
+
+    // Lo recibido lo arma el Kryo de cada cliente: no hay pool
+    @Override
+    public void recycle(Object message) {
+    }
+
+    @Override
+    public int maxMessageSize() {
+        return GameServer.DEFAULT_OBJECT_BUFFER_SIZE;
+    }
+
+    @Override
+    public String label() {
+        return "transport=\"loopback-" + instance + "\"";
+    }
+
+    @Override
+    public void stop() {
+        peers.clear();
+    }
+
+    private void deliver(Peer peer, byte[] data, int length) {
+        peer.receivedMessages++;
+        peer.receivedBytes += length;
+        if (peer.receiver == null) return;
+
+        downlinkBuffer.clear();
+        downlinkBuffer.put(data, 0, length).flip();
+        peer.receiver.accept(downlink.read(null, downlinkBuffer));
+    }
+
+    /** Cliente en memoria. send() se puede llamar desde cualquier hilo. */
+    public final class Peer implements MatchClient {
+        private final int session;
+        private final Consumer<Object> receiver;
+
+        // Kryo propio: serializa y deserializa lo que manda este cliente
+        private final FanOutSerialization uplink = new FanOutSerialization(GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+        private final FanOutSerialization.Encoded frame = new FanOutSerialization.Encoded();
+        private ByteBuffer uplinkBuffer = ByteBuffer.allocate(256);
+
+        // Los escribe el hilo de ticks de la partida
+        private volatile long receivedMessages;
+        private volatile long receivedBytes;
+
+        Peer(int session, Consumer<Object> receiver) {
+            this.session = session;
+            this.receiver = receiver;
+            GameServer.registerClasses(uplink.getKryo());
+        }
+
+        @Override
+        public int session() {
+            return session;
+        }
+
+        @Override
+        public synchronized void send(Object message, boolean reliable) {
+            if (!peers.containsKey(session)) return;
+
+            uplink.encode(message, frame);
+            if (uplinkBuffer.capacity() < frame.length) uplinkBuffer = ByteBuffer.allocate(frame.length);
+            uplinkBuffer.clear();
+            uplinkBuffer.put(frame.bytes, 0, frame.length).flip();
+            events.received(session, uplink.read(null, uplinkBuffer));
+        }
+
+        @Override
+        public void close() {
+            LoopbackTransport.this.close(session);
+        }
+
+        public long receivedMessages() {
+            return receivedMessages;
+        }
+
+        public long receivedBytes() {
+            return receivedBytes;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// =====================================================
+// ARCHIVO: MatchClient.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Lado cliente de UdpTransport y LoopbackTransport: la misma carga de
+ * prueba corre sobre cualquiera de los dos. Lo recibido llega al
+ * Consumer que se pasa al conectar.
+ */
+public interface MatchClient {
+
+    /** Id de sesión que le dio el servidor (el playerId de los Snapshots). */
+    int session();
+
+    /** reliable: como en MatchTransport.send (el READY, por ejemplo). */
+    void send(Object message, boolean reliable);
+
+    void close();
+}
@@ -0,0 +1,151 @@
+// =====================================================
+// ARCHIVO: MatchLog.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lectura secuencial de una grabación de MatchRecorder.
+ *
+ * El archivo se mapea de a un segmento y payload() es una vista sobre el
+ * mapeo: recorrer una grabación no copia bytes ni crea objetos por entrada.
+ * La vista sólo vale hasta el próximo next().
+ *
+ * Se puede leer un archivo que se sigue grabando (o de un proceso que se
+ * cortó): la lectura termina en la primera entrada sin terminar.
+ */
+public final class MatchLog implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final long size;
+    private final int kind;
+    private final long startEpochMillis;
+
+    private MappedByteBuffer segment;
+    private ByteBuffer view; // payload(): la misma vista, movida a cada entrada
+    private long segmentStart;
+    private int position;
+
+    // Entrada actual
+    private long nanos;
+    private long clock;
+    private byte direction;
+    private byte event;
+    private int session;
+    private int room;
+
+    public MatchLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        if (size < MatchRecorder.FILE_HEADER) {
+            channel.close();
+            throw new IOException("No es una grabación (muy corta): " + file);
+        }
+
+        mapSegment(0);
+        for (int i = 0; i < MatchRecorder.MAGIC.length; i++) {
+            if (segment.get(i) != MatchRecorder.MAGIC[i]) {
+                channel.close();
+                throw new IOException("No es una grabación de MatchRecorder: " + file);
+            }
+        }
+        kind = segment.getInt(8);
+        startEpochMillis = segment.getLong(16);
+        position = MatchRecorder.FILE_HEADER;
+    }
+
+    /** MatchRecorder.KIND_UDP o KIND_KRYONET. */
+    public int getKind() {
+        return kind;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /** Avanza a la próxima entrada; false al final de la grabación. */
+    public boolean next() throws IOException {
+        while (true) {
+            int limit = segment.limit();
+            int total = position + 4 <= limit ? segment.getInt(position) : MatchRecorder.SKIP;
+
+            if (total == MatchRecorder.SKIP) {
+                if (segmentStart + MatchRecorder.SEGMENT_SIZE >= size) return false;
+                mapSegment(segmentStart + MatchRecorder.SEGMENT_SIZE);
+                position = 0;
+                continue;
+            }
+            // END, o una entrada cortada (proceso que murió escribiendo)
+            if (total < MatchRecorder.ENTRY_HEADER || position + total > limit) return false;
+            int length = total - MatchRecorder.ENTRY_HEADER;
+
+            nanos = segment.getLong(position + 4);
+            clock = segment.getLong(position + 12);
+            direction = segment.get(position + 20);
+            event = segment.get(position + 21);
+            session = segment.getInt(position + 24);
+            room = segment.getInt(position + 28);
+
+            int start = position + MatchRecorder.ENTRY_HEADER;
+            view.clear();
+            view.position(start).limit(start + length);
+
+            position = start + length;
+            return true;
+        }
+    }
+
+    /** Tiempo real de la entrada desde que empezó la grabación. */
+    public long nanos() {
+        return nanos;
+    }
+
+    /** Reloj lógico del servidor cuando se grabó (ms en el UDP, tick en GameServer). */
+    public long clock() {
+        return clock;
+    }
+
+    /** MatchRecorder.IN, OUT o EVENT. */
+    public byte direction() {
+        return direction;
+    }
+
+    /** MatchRecorder.EVENT_* si direction() == EVENT. */
+    public byte event() {
+        return event;
+    }
+
+    public int session() {
+        return session;
+    }
+
+    public int room() {
+        return room;
+    }
+
+    /** Bytes del mensaje (vista sobre el archivo, válida hasta el próximo next()). */
+    public ByteBuffer payload() {
+        return view;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        view = null;
+        channel.close();
+    }
+
+    private void mapSegment(long start) throws IOException {
+        long length = Math.min(MatchRecorder.SEGMENT_SIZE, size - start);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        segmentStart = start;
+        view = segment.duplicate();
+    }
+}
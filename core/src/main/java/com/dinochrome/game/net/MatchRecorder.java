@@ -0,0 +1,239 @@
+// =====================================================
+// ARCHIVO: MatchRecorder.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Grabación append-only de todo lo que entra y sale de un servidor, sobre
+ * un archivo mapeado en memoria (ver MatchLog para leerla y MatchReplay
+ * para reproducirla).
+ *
+ * Escribir una entrada es copiar bytes al mapeo: sin syscalls ni locks en
+ * el hilo de red. El archivo se mapea en segmentos; un hilo aparte deja
+ * mapeado el siguiente antes de que haga falta. Si el escritor lo alcanza
+ * (disco lento), las entradas se descartan y se cuentan, nunca se espera.
+ *
+ * Un solo hilo escribe (el loop del shard o el hilo de ticks de la partida).
+ *
+ * Formato (big-endian):
+ *   cabecera   "DINOREC1" | tipo i32 (KIND_*) | reservado i32 | inicio epoch ms i64   = 24 bytes
+ *   entrada    largo total i32 | nanos i64 | reloj i64 | dirección u8 | evento u8 | reservado u16 |
+ *              sesión i32 | sala i32 | payload                                 = 32 bytes + payload
+ *
+ * nanos es el tiempo real desde que se abrió la grabación; reloj es el
+ * tiempo lógico del servidor (ms en el UDP, número de tick en GameServer),
+ * el que necesita el replay para repetir exactamente lo mismo.
+ *
+ * largo 0 marca el final; largo -1 (o un resto menor que un int) salta al
+ * próximo segmento. Las entradas nunca cruzan un segmento. El largo se
+ * escribe último, así una entrada a medio escribir nunca se lee.
+ */
+public final class MatchRecorder {
+
+    static final byte[] MAGIC = {'D', 'I', 'N', 'O', 'R', 'E', 'C', '1'};
+    static final int FILE_HEADER = 24;
+    static final int ENTRY_HEADER = 32;
+    static final int SEGMENT_SIZE = 64 << 20;
+    static final int END = 0;
+    static final int SKIP = -1;
+
+    // Qué servidor grabó el archivo
+    public static final int KIND_UDP = 1;
+    public static final int KIND_KRYONET = 2;
+
+    // Dirección de cada entrada
+    public static final byte IN = 0;
+    public static final byte OUT = 1;
+    public static final byte EVENT = 2;
+
+    // Eventos (dirección EVENT)
+    public static final byte EVENT_CONNECTED = 1;
+    public static final byte EVENT_DISCONNECTED = 2;
+    public static final byte EVENT_SEED = 3; // payload = semilla i64 de la partida
+    public static final byte EVENT_PASS = 4; // el servidor UDP atendió timeouts y obstáculos
+    public static final byte EVENT_LOAD = 5; // payload = carga i64 (por mil) que anuncia el descubrimiento
+
+    private final FileChannel channel;
+    private final long originNanos = System.nanoTime();
+
+    // Escritor
+    private MappedByteBuffer current;
+    private long currentStart;
+    private long dropped = 0;
+    private long written = 0;
+    private long clock = 0;
+    private final ByteBuffer valueScratch = ByteBuffer.allocate(8);
+
+    // Mapeo anticipado del siguiente segmento
+    private volatile MappedByteBuffer next;
+    private volatile boolean open = true;
+    private final Thread mapper;
+
+    public MatchRecorder(Path file, int kind) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        current = map(0);
+        currentStart = 0;
+        current.put(MAGIC).putInt(kind).putInt(0).putLong(System.currentTimeMillis());
+        next = map(SEGMENT_SIZE);
+
+        mapper = new Thread(this::runMapper, "MatchRecorder-map");
+        mapper.setDaemon(true);
+        mapper.start();
+    }
+
+    /** Mensaje recibido o enviado: se copian los bytes entre position y limit (no se consumen). */
+    public void record(byte direction, int session, int room, ByteBuffer payload) {
+        int length = payload.remaining();
+        int start = reserve(length);
+        if (start < 0) return;
+
+        int p = payload.position();
+        current.position(start + ENTRY_HEADER);
+        current.put(payload);
+        payload.position(p);
+        commit(start, direction, (byte) 0, session, room, length);
+    }
+
+    public void record(byte direction, int session, int room, byte[] bytes, int offset, int length) {
+        int start = reserve(length);
+        if (start < 0) return;
+
+        current.position(start + ENTRY_HEADER);
+        current.put(bytes, offset, length);
+        commit(start, direction, (byte) 0, session, room, length);
+    }
+
+    public void recordEvent(byte event, int session, int room) {
+        int start = reserve(0);
+        if (start >= 0) commit(start, EVENT, event, session, room, 0);
+    }
+
+    public void recordSeed(int room, long seed) {
+        recordValue(EVENT_SEED, room, seed);
+    }
+
+    /** Medición que no se puede repetir en el replay (la carga del loop UDP). */
+    public void recordLoad(long load) {
+        recordValue(EVENT_LOAD, 0, load);
+    }
+
+    /** Reloj lógico que llevan las próximas entradas (ms en el UDP, tick en GameServer). */
+    public void setClock(long clock) {
+        this.clock = clock;
+    }
+
+    /** Entradas perdidas porque el siguiente segmento todavía no estaba mapeado. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public long getWrittenBytes() {
+        return written;
+    }
+
+    /** Deja el archivo del tamaño justo. Lo llama el mismo hilo que escribe. */
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        LockSupport.unpark(mapper);
+
+        long end = currentStart + current.position();
+        current.force();
+        current = null;
+        next = null;
+        channel.truncate(end);
+        channel.close();
+    }
+
+    // -------------------------
+    // Escritura
+    // -------------------------
+
+    /** Lugar para una entrada en el segmento actual (cambia de segmento si no entra); -1 = descartada. */
+    private int reserve(int payloadLength) {
+        if (!open) return -1;
+
+        int needed = ENTRY_HEADER + payloadLength + 4; // + el largo 0 que marca el final
+        if (needed > SEGMENT_SIZE - FILE_HEADER) {
+            dropped++;
+            return -1;
+        }
+
+        if (current.remaining() < needed) {
+            MappedByteBuffer following = next;
+            if (following == null) {
+                dropped++;
+                return -1;
+            }
+            if (current.remaining() >= 4) current.putInt(current.position(), SKIP);
+            next = null;
+            LockSupport.unpark(mapper);
+
+            current = following;
+            currentStart += SEGMENT_SIZE;
+        }
+        return current.position();
+    }
+
+    private void recordValue(byte event, int room, long value) {
+        valueScratch.clear();
+        valueScratch.putLong(value).flip();
+        int start = reserve(8);
+        if (start < 0) return;
+
+        current.position(start + ENTRY_HEADER);
+        current.put(valueScratch);
+        commit(start, EVENT, event, 0, room, 8);
+    }
+
+    private void commit(int start, byte direction, byte event, int session, int room, int length) {
+        current.putLong(start + 4, System.nanoTime() - originNanos);
+        current.putLong(start + 12, clock);
+        current.put(start + 20, direction);
+        current.put(start + 21, event);
+        current.putShort(start + 22, (short) 0);
+        current.putInt(start + 24, session);
+        current.putInt(start + 28, room);
+        current.putInt(start, ENTRY_HEADER + length);
+
+        current.position(start + ENTRY_HEADER + length);
+        written += ENTRY_HEADER + length;
+    }
+
+    // -------------------------
+    // Mapeo del siguiente segmento
+    // -------------------------
+    private void runMapper() {
+        long nextStart = 2L * SEGMENT_SIZE;
+        while (open) {
+            if (next != null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                next = map(nextStart);
+                nextStart += SEGMENT_SIZE;
+            } catch (IOException e) {
+                // sin disco: el escritor descarta lo que no entra en el segmento actual
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    private MappedByteBuffer map(long position) throws IOException {
+        // mapear más allá del final agranda el archivo (con ceros = fin de la grabación)
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+    }
+}
@@ -0,0 +1,401 @@
+// =====================================================
+// ARCHIVO: MatchReplay.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Vuelve a pasar una grabación de MatchRecorder por un servidor nuevo, sin
+ * red: los mensajes recibidos entran por procesarMensaje (UDP) o por el
+ * transporte de GameServer, con el mismo reloj lógico y las mismas semillas
+ * que en la partida original.
+ *
+ *   UDP      cada pasada de eventos grabada se repite con el mismo ahora,
+ *            así la simulación es idéntica y lo que el servidor manda se
+ *            compara con lo grabado (la primera diferencia es el desync)
+ *   Kryonet  los ticks se ejecutan a mano hasta el tick de cada mensaje;
+ *            lo que sale sólo se cuenta (cada broadcast una vez, como en
+ *            la grabación)
+ *
+ * Con --speed=0 (default) va lo más rápido posible: el tiempo por mensaje
+ * que reporta sirve de benchmark con tráfico real. --speed=1 respeta los
+ * tiempos grabados, --speed=10 los acelera diez veces.
+ *
+ * Ejemplos:
+ *   replay partida.rec
+ *   replay partida.rec --speed=1
+ *   replay match-56000.rec --tick-rate=60 --snapshot-rate=20
+ */
+public final class MatchReplay {
+
+    // Dirección ficticia de cada sesión grabada (nunca se le manda nada)
+    private static final int PUERTO_FICTICIO = 9;
+    private static final int MAX_BYTES_DIFERENCIA = 32;
+
+    private final Path file;
+    private final double speed;
+    private final boolean verify;
+    private final int tickRate;
+    private final int snapshotRate;
+
+    // Reloj lógico de la entrada que se está reproduciendo y semillas grabadas
+    private long clock;
+    private final ArrayDeque<Long> seeds = new ArrayDeque<>();
+    // Cargas que anunció el descubrimiento UDP (medidas, no se pueden recalcular)
+    private final ArrayDeque<Long> loads = new ArrayDeque<>();
+
+    // Estadísticas
+    private long entries;
+    private long inbound;
+    private long passes;
+    private long ticks;
+    private long recordedOut;
+    private long producedOut;
+    private long divergences;
+    private long busyNanos;
+
+    // UDP: sesión grabada <-> dirección ficticia
+    private final Map<Integer, SocketAddress> addresses = new HashMap<>();
+    private final Map<SocketAddress, Integer> sessions = new HashMap<>();
+    // Lo que mandó el servidor y todavía no se comparó con lo grabado
+    private final ArrayDeque<Sent> pending = new ArrayDeque<>();
+
+    private MatchReplay(Path file, double speed, boolean verify, int tickRate, int snapshotRate) {
+        this.file = file;
+        this.speed = speed;
+        this.verify = verify;
+        this.tickRate = tickRate;
+        this.snapshotRate = snapshotRate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            usage();
+            return;
+        }
+
+        double speed = 0;
+        boolean verify = true;
+        int tickRate = GameServer.DEFAULT_TICK_RATE;
+        int snapshotRate = GameServer.DEFAULT_SNAPSHOT_RATE;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--speed=")) speed = Double.parseDouble(value(arg));
+            else if (arg.equals("--no-verify")) verify = false;
+            else if (arg.startsWith("--tick-rate=")) tickRate = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--snapshot-rate=")) snapshotRate = Integer.parseInt(value(arg));
+            else throw new IllegalArgumentException("Opción desconocida: " + arg);
+        }
+
+        new MatchReplay(Paths.get(args[0]), speed, verify, tickRate, snapshotRate).run();
+    }
+
+    private void run() throws IOException {
+        int kind;
+        try (MatchLog log = new MatchLog(file)) {
+            kind = log.getKind();
+            // Las semillas se consumen cuando arranca cada partida, antes de llegar a su entrada
+            while (log.next()) {
+                if (log.direction() != MatchRecorder.EVENT) continue;
+                if (log.event() == MatchRecorder.EVENT_SEED) {
+                    seeds.add(log.payload().getLong(log.payload().position()));
+                } else if (log.event() == MatchRecorder.EVENT_LOAD) {
+                    loads.add(log.payload().getLong(log.payload().position()));
+                }
+            }
+        }
+
+        if (kind == MatchRecorder.KIND_UDP) {
+            replayUdp();
+        } else if (kind == MatchRecorder.KIND_KRYONET) {
+            replayKryonet();
+        } else {
+            throw new IOException("Tipo de grabación desconocido: " + kind);
+        }
+        report(kind);
+    }
+
+    // -------------------------
+    // ServidorDinoMultijugador
+    // -------------------------
+    private void replayUdp() throws IOException {
+        ServidorDinoMultijugador server = new ServidorDinoMultijugador(0, 0, 1);
+        server.prepararReplay(() -> clock, this::nextSeed, this::nextLoad, this::onUdpSent);
+
+        try (MatchLog log = new MatchLog(file)) {
+            long start = System.nanoTime();
+            while (log.next()) {
+                entries++;
+                pace(start, log.nanos());
+                clock = log.clock();
+
+                if (log.direction() == MatchRecorder.IN) {
+                    checkUnmatched();
+                    long t = System.nanoTime();
+                    server.procesarMensaje(address(log.session()), log.payload());
+                    busyNanos += System.nanoTime() - t;
+                    inbound++;
+                } else if (log.direction() == MatchRecorder.OUT) {
+                    recordedOut++;
+                    if (verify) compare(log);
+                } else if (log.event() == MatchRecorder.EVENT_PASS) {
+                    checkUnmatched();
+                    long t = System.nanoTime();
+                    server.atenderEventos(clock);
+                    busyNanos += System.nanoTime() - t;
+                    passes++;
+                }
+            }
+            checkUnmatched();
+        }
+    }
+
+    private void onUdpSent(SocketAddress addr, ByteBuffer datos) {
+        producedOut++;
+        if (!verify) return;
+
+        byte[] bytes = new byte[datos.remaining()];
+        datos.duplicate().get(bytes);
+        pending.add(new Sent(sessions.get(addr), bytes));
+    }
+
+    private SocketAddress address(int session) throws IOException {
+        SocketAddress addr = addresses.get(session);
+        if (addr == null) {
+            byte[] ip = {127, (byte) (session >>> 16), (byte) (session >>> 8), (byte) session};
+            addr = new InetSocketAddress(InetAddress.getByAddress(ip), PUERTO_FICTICIO);
+            addresses.put(session, addr);
+            sessions.put(addr, session);
+        }
+        return addr;
+    }
+
+    /** El próximo envío del servidor tiene que ser el mismo que se grabó. */
+    private void compare(MatchLog log) {
+        Sent sent = pending.poll();
+        ByteBuffer expected = log.payload();
+        if (sent == null) {
+            divergence("faltó un envío a la sesión " + log.session(), expected, null);
+            return;
+        }
+        if (sent.session != log.session() || !sent.sameAs(expected)) {
+            divergence("envío distinto a la sesión " + log.session() + " (salió para " + sent.session + ")",
+                expected, sent.bytes);
+        }
+    }
+
+    /** Envíos que no están en la grabación. */
+    private void checkUnmatched() {
+        Sent sent;
+        while ((sent = pending.poll()) != null) {
+            divergence("envío de más a la sesión " + sent.session, null, sent.bytes);
+        }
+    }
+
+    private void divergence(String what, ByteBuffer expected, byte[] actual) {
+        divergences++;
+        if (divergences > 1) return; // desde la primera, todo lo demás suele ser consecuencia
+
+        System.out.println("Primera diferencia (reloj " + clock + "): " + what);
+        if (expected != null) System.out.println("  grabado:   " + hex(expected));
+        if (actual != null) System.out.println("  reproducido: " + hex(ByteBuffer.wrap(actual)));
+    }
+
+    // -------------------------
+    // GameServer
+    // -------------------------
+    private void replayKryonet() throws IOException {
+        GameServer server = new GameServer(new ReplayTransport(), tickRate, snapshotRate, null, true);
+        server.useSeeds(this::nextSeed);
+
+        FanOutSerialization decoder = new FanOutSerialization(GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+        GameServer.registerClasses(decoder.getKryo());
+        ByteBuffer scratch = ByteBuffer.allocate(GameServer.DEFAULT_OBJECT_BUFFER_SIZE);
+        Set<Integer> connections = new HashSet<>();
+        float step = 1f / tickRate;
+
+        try (MatchLog log = new MatchLog(file)) {
+            long start = System.nanoTime();
+            while (log.next()) {
+                entries++;
+                pace(start, log.nanos());
+
+                // Lo grabado en el tick N lo vació el tick N + 1: se tickea hasta N y se encola
+                long t = System.nanoTime();
+                while (server.getTick() < log.clock()) {
+                    server.update(step);
+                    ticks++;
+                }
+
+                int session = log.session();
+                if (log.direction() == MatchRecorder.IN) {
+                    if (connections.contains(session)) {
+                        // Grabado con un buffer de objetos más grande que el default
+                        ByteBuffer payload = log.payload();
+                        if (payload.remaining() > scratch.capacity()) scratch = ByteBuffer.allocate(payload.remaining());
+                        scratch.clear();
+                        scratch.put(payload).flip();
+                        server.events.received(session, decoder.read(null, scratch));
+                        inbound++;
+                    }
+                } else if (log.direction() == MatchRecorder.OUT) {
+                    recordedOut++;
+                } else if (log.event() == MatchRecorder.EVENT_CONNECTED) {
+                    connections.add(session);
+                    server.events.connected(session);
+                } else if (log.event() == MatchRecorder.EVENT_DISCONNECTED) {
+                    if (connections.remove(session)) server.events.disconnected(session);
+                }
+                busyNanos += System.nanoTime() - t;
+            }
+
+            // el último tick vacía lo que quedó encolado
+            server.update(step);
+            ticks++;
+        } finally {
+            server.stop();
+        }
+    }
+
+    /** Transporte sin red: las sesiones grabadas las conecta el replay y lo que se manda sólo se cuenta. */
+    private final class ReplayTransport implements MatchTransport {
+
+        @Override
+        public void start(Events events) {
+        }
+
+        @Override
+        public int send(int session, boolean reliable, byte[] data, int length) {
+            producedOut++;
+            return 0;
+        }
+
+        @Override
+        public void sendToAll(boolean reliable, byte[] data, int length) {
+            producedOut++;
+        }
+
+        // La desconexión que sigue (timeout de READY) ya está grabada como evento
+        @Override
+        public void close(int session) {
+        }
+
+        @Override
+        public void recycle(Object message) {
+        }
+
+        @Override
+        public int maxMessageSize() {
+            return GameServer.DEFAULT_OBJECT_BUFFER_SIZE;
+        }
+
+        @Override
+        public String label() {
+            return "replay=\"" + file.getFileName() + "\"";
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    // -------------------------
+    // Utilidades
+    // -------------------------
+    private long nextSeed() {
+        Long seed = seeds.poll();
+        if (seed == null) {
+            divergence("arrancó una partida que no está en la grabación", null, null);
+            return 0;
+        }
+        return seed;
+    }
+
+    private int nextLoad() {
+        Long load = loads.poll();
+        if (load == null) {
+            divergence("se midió una carga que no está en la grabación", null, null);
+            return 0;
+        }
+        return load.intValue();
+    }
+
+    /** Con speed > 0 espera hasta el momento (escalado) en que se grabó la entrada. */
+    private void pace(long startNanos, long entryNanos) {
+        if (speed <= 0) return;
+        long target = startNanos + (long) (entryNanos / speed);
+        long wait;
+        while ((wait = target - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void report(int kind) {
+        System.out.println(String.format(Locale.ROOT, "Grabación %s (%s): %d entradas",
+            file, kind == MatchRecorder.KIND_UDP ? "udp" : "kryonet", entries));
+        System.out.println(String.format(Locale.ROOT, "  recibidos %d, pasadas de eventos %d, ticks %d",
+            inbound, passes, ticks));
+        System.out.println(String.format(Locale.ROOT, "  envíos grabados %d, reproducidos %d%s",
+            recordedOut, producedOut,
+            kind == MatchRecorder.KIND_UDP && verify ? ", diferencias " + divergences : ""));
+        System.out.println(String.format(Locale.ROOT, "  proceso %.3f ms, %.0f ns por mensaje recibido",
+            busyNanos / 1e6, inbound > 0 ? busyNanos / (double) inbound : 0.0));
+    }
+
+    private static String hex(ByteBuffer b) {
+        StringBuilder sb = new StringBuilder();
+        int n = Math.min(b.remaining(), MAX_BYTES_DIFERENCIA);
+        for (int i = 0; i < n; i++) {
+            sb.append(String.format("%02x", b.get(b.position() + i) & 0xFF));
+        }
+        if (b.remaining() > n) sb.append("...");
+        return sb.toString();
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static void usage() {
+        System.out.println("Uso: replay <grabación> [opciones]");
+        System.out.println("  --speed=X           0 = lo más rápido posible (default), 1 = tiempo real");
+        System.out.println("  --no-verify         no comparar lo enviado con lo grabado (udp)");
+        System.out.println("  --tick-rate=N       ticks por segundo de la partida grabada (kryonet, " + GameServer.DEFAULT_TICK_RATE + ")");
+        System.out.println("  --snapshot-rate=N   snapshots por segundo (kryonet, " + GameServer.DEFAULT_SNAPSHOT_RATE + ")");
+    }
+
+    /** Un envío del servidor reproducido. */
+    private static final class Sent {
+        final int session;
+        final byte[] bytes;
+
+        Sent(int session, byte[] bytes) {
+            this.session = session;
+            this.bytes = bytes;
+        }
+
+        boolean sameAs(ByteBuffer recorded) {
+            if (recorded.remaining() != bytes.length) return false;
+            int p = recorded.position();
+            for (int i = 0; i < bytes.length; i++) {
+                if (recorded.get(p + i) != bytes[i]) return false;
+            }
+            return true;
+        }
+    }
+}
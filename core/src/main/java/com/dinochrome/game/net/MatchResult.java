@@ -0,0 +1,13 @@
+// =====================================================
+// ARCHIVO: MatchResult.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Fin de la partida: el último jugador en pie gana (0 = chocaron los dos en
+ * el mismo tick). Después todos vuelven al lobby y tienen que mandar READY.
+ */
+public class MatchResult {
+    public int winnerId;
+}
@@ -0,0 +1,69 @@
+// =====================================================
+// ARCHIVO: MatchTransport.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+
+/**
+ * Red de una partida de GameServer. La lógica (lobby, READY, obstáculos,
+ * choques, snapshots) es la misma con cualquier transporte; el transporte
+ * sólo conecta sesiones y lleva mensajes ya serializados.
+ *
+ *   KryonetTransport   TCP + UDP de Kryonet (el de siempre)
+ *   UdpTransport       un DatagramChannel NIO, lo confiable con CanalConfiable
+ *   LoopbackTransport  en memoria, sin sockets (benchmarks y pruebas)
+ *
+ * Los mensajes viajan en el formato de MessageSerializers (clase + datos,
+ * lo mismo que escribe Kryo), así se pueden comparar los transportes con
+ * exactamente los mismos bytes. GameServer serializa cada mensaje una sola
+ * vez y llama a send() / sendToAll() desde su hilo de ticks.
+ */
+public interface MatchTransport {
+
+    /**
+     * Lo que el transporte le avisa a la partida, desde su hilo de red o
+     * desde cualquier otro (también el de ticks, dentro de close()).
+     */
+    interface Events {
+        void connected(int session);
+
+        /** Mensaje ya deserializado; la partida lo devuelve con recycle() cuando termina. */
+        void received(int session, Object message);
+
+        void disconnected(int session);
+    }
+
+    /** Abre la red: desde acá los eventos llegan a events. */
+    void start(Events events) throws IOException;
+
+    /**
+     * Manda data[0, length) a una sesión. reliable = tiene que llegar y en
+     * orden (lobby, StartGame, muertes, resultado); si no, se puede perder.
+     * Si el transporte no puede garantizarlo (un frame confiable que se
+     * abandona) corta la sesión: nunca entrega con huecos ni desordenado.
+     * Devuelve los bytes que salieron (0 si la sesión ya no existe).
+     */
+    int send(int session, boolean reliable, byte[] data, int length);
+
+    /** Lo mismo a todas las sesiones conectadas. */
+    void sendToAll(boolean reliable, byte[] data, int length);
+
+    /**
+     * Corta una sesión; el disconnected llega por Events como cualquier
+     * otro, en el momento o más tarde según el transporte.
+     */
+    void close(int session);
+
+    /** Devuelve al pool un mensaje que entregó received(). Desde cualquier hilo. */
+    void recycle(Object message);
+
+    /** Mensaje serializado más grande que puede llevar (dimensiona los buffers de la partida). */
+    int maxMessageSize();
+
+    /** Etiqueta de las métricas de la partida, por ejemplo tcp_port="54555". */
+    String label();
+
+    void stop();
+}
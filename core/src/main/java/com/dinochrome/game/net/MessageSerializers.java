@@ -0,0 +1,379 @@
+// =====================================================
+// ARCHIVO: MessageSerializers.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Registro de los mensajes de GameServer con IDs fijos y serializadores
+ * escritos a mano (sin reflexión ni FieldSerializer).
+ *
+ * Los enteros van como varint y las posiciones cuantizadas a
+ * 1/CompresorDelta.ESCALA px, la misma precisión con la que se arman los
+ * deltas: un x de 800 px ocupa 2 bytes en vez de 4. Snapshot, ObstacleBatch
+ * y DeltaSnapshot mandan sólo la parte válida de sus arrays, así el
+ * servidor los reutiliza entre envíos.
+ *
+ * Con pool, PlayerState y SnapshotAck (lo que más llega) se leen en
+ * instancias recicladas: GameServer las devuelve con recycle() cuando
+ * terminó de procesarlas. Lee el hilo de Kryonet y recicla el de ticks,
+ * por eso los libres van en una MpscQueue cuyo único consumidor es el que lee.
+ *
+ * Lo que llega es de quien sea: los largos se acotan antes de reservar los
+ * arrays y uno fuera de rango es una KryoException (el mensaje se descarta).
+ */
+final class MessageSerializers {
+
+    // Kryo usa 0-9 para primitivos y String y Kryonet registra sus mensajes a
+    // continuación: los nuestros arrancan más arriba. No cambiarlos, el
+    // cliente tiene que registrar los mismos
+    static final int FIRST_ID = 32;
+
+    // Jugadores de un Snapshot u obstáculos de un ObstacleBatch: más de lo que
+    // entra en un mensaje (DEFAULT_OBJECT_BUFFER_SIZE, un datagrama de UdpTransport)
+    static final int MAX_ELEMENTS = 1024;
+
+    // Bytes mínimos de cada jugador del Snapshot (id, x, y) y de cada obstáculo
+    private static final int MIN_SNAPSHOT_ENTRY_BYTES = 3;
+    private static final int MIN_OBSTACLE_ENTRY_BYTES = 5;
+
+    // Null = sin pool (clientes, grabación, replay): cada lectura es un objeto nuevo
+    private final MpscQueue<PlayerState> freeStates;
+    private final MpscQueue<SnapshotAck> freeAcks;
+
+    private MessageSerializers(int poolCapacity) {
+        freeStates = poolCapacity > 0 ? new MpscQueue<>(poolCapacity) : null;
+        freeAcks = poolCapacity > 0 ? new MpscQueue<>(poolCapacity) : null;
+    }
+
+    /** Registra todo en kryo; con poolCapacity > 0 las lecturas reciclan instancias. */
+    static MessageSerializers register(Kryo kryo, int poolCapacity) {
+        return register(kryo, poolCapacity, true);
+    }
+
+    /**
+     * Para el Kryo con el que el servidor lee lo que mandan los clientes: los
+     * mensajes del servidor conservan su id pero no se aceptan (el servidor
+     * manda bytes ya codificados, nunca los escribe con este Kryo).
+     */
+    static MessageSerializers registerServerDecoder(Kryo kryo, int poolCapacity) {
+        return register(kryo, poolCapacity, false);
+    }
+
+    private static MessageSerializers register(Kryo kryo, int poolCapacity, boolean serverMessages) {
+        MessageSerializers s = new MessageSerializers(poolCapacity);
+        kryo.register(PlayerState.class, s.new PlayerStateSerializer(), FIRST_ID);
+        kryo.register(LobbyState.class, fromServer(new LobbyStateSerializer(), serverMessages), FIRST_ID + 1);
+        kryo.register(StartGame.class, fromServer(new StartGameSerializer(), serverMessages), FIRST_ID + 2);
+        kryo.register(ObstacleState.class, fromServer(new ObstacleStateSerializer(), serverMessages), FIRST_ID + 3);
+        kryo.register(Snapshot.class, fromServer(new SnapshotSerializer(), serverMessages), FIRST_ID + 4);
+        // Los arrays no viajan sueltos: sólo se reservan los ids
+        kryo.register(int[].class, new RejectedSerializer<int[]>(), FIRST_ID + 5);
+        kryo.register(float[].class, new RejectedSerializer<float[]>(), FIRST_ID + 6);
+        kryo.register(boolean[].class, new RejectedSerializer<boolean[]>(), FIRST_ID + 7);
+        kryo.register(SnapshotAck.class, s.new SnapshotAckSerializer(), FIRST_ID + 8);
+        kryo.register(DeltaSnapshot.class, fromServer(new DeltaSnapshotSerializer(), serverMessages), FIRST_ID + 9);
+        kryo.register(byte[].class, new RejectedSerializer<byte[]>(), FIRST_ID + 10);
+        kryo.register(ObstacleBatch.class, fromServer(new ObstacleBatchSerializer(), serverMessages), FIRST_ID + 11);
+        kryo.register(short[].class, new RejectedSerializer<short[]>(), FIRST_ID + 12);
+        kryo.register(SpectateRequest.class, new SpectateRequestSerializer(), FIRST_ID + 13);
+        kryo.register(PlayerDied.class, fromServer(new PlayerDiedSerializer(), serverMessages), FIRST_ID + 14);
+        kryo.register(MatchResult.class, fromServer(new MatchResultSerializer(), serverMessages), FIRST_ID + 15);
+        return s;
+    }
+
+    private static <T> Serializer<T> fromServer(Serializer<T> serializer, boolean accepted) {
+        return accepted ? serializer : new RejectedSerializer<T>();
+    }
+
+    /** Devuelve un mensaje leído por este Kryo (ya procesado) al pool. Desde cualquier hilo. */
+    void recycle(Object message) {
+        if (freeStates == null) return;
+        // Pool lleno: la instancia queda para el GC
+        if (message instanceof PlayerState) {
+            freeStates.offer((PlayerState) message);
+        } else if (message instanceof SnapshotAck) {
+            freeAcks.offer((SnapshotAck) message);
+        }
+    }
+
+    private static void writePosition(Output output, float v) {
+        output.writeVarInt(CompresorDelta.cuantizar(v), false);
+    }
+
+    private static float readPosition(Input input) {
+        return CompresorDelta.decuantizar(input.readVarInt(false));
+    }
+
+    /**
+     * Lee un largo y lo valida contra max y contra lo que queda del mensaje
+     * (cada elemento ocupa al menos minBytes): sin esto, un count enorme
+     * reserva arrays gigantes antes de descubrir que no hay datos.
+     */
+    private static int readLength(Input input, int max, int minBytes) {
+        int length = input.readVarInt(true);
+        if (length < 0 || length > max || (long) length * minBytes > input.limit() - input.position()) {
+            throw new KryoException("Largo fuera de rango: " + length);
+        }
+        return length;
+    }
+
+    // Reserva un id sin aceptar nada con él
+    private static final class RejectedSerializer<T> extends Serializer<T> {
+        @Override
+        public void write(Kryo kryo, Output output, T object) {
+            throw new KryoException("No se manda suelto: " + object.getClass().getSimpleName());
+        }
+
+        @Override
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            throw new KryoException("No se acepta suelto: " + type.getSimpleName());
+        }
+    }
+
+    // -------------------------
+    // Mensajes del cliente
+    // -------------------------
+
+    // id varint | x varint zigzag | y varint zigzag | flags u8 (1 = ducking, 2 = ready)
+    private final class PlayerStateSerializer extends Serializer<PlayerState> {
+        @Override
+        public void write(Kryo kryo, Output output, PlayerState ps) {
+            output.writeVarInt(ps.playerId, true);
+            writePosition(output, ps.x);
+            writePosition(output, ps.y);
+            output.writeByte((ps.ducking ? 1 : 0) | (ps.ready ? 2 : 0));
+        }
+
+        @Override
+        public PlayerState read(Kryo kryo, Input input, Class<PlayerState> type) {
+            PlayerState ps = freeStates != null ? freeStates.poll() : null;
+            if (ps == null) ps = new PlayerState();
+            ps.playerId = input.readVarInt(true);
+            ps.x = readPosition(input);
+            ps.y = readPosition(input);
+            int flags = input.readByte();
+            ps.ducking = (flags & 1) != 0;
+            ps.ready = (flags & 2) != 0;
+            return ps;
+        }
+    }
+
+    private final class SnapshotAckSerializer extends Serializer<SnapshotAck> {
+        @Override
+        public void write(Kryo kryo, Output output, SnapshotAck ack) {
+            output.writeVarInt(ack.tick, true);
+        }
+
+        @Override
+        public SnapshotAck read(Kryo kryo, Input input, Class<SnapshotAck> type) {
+            SnapshotAck ack = freeAcks != null ? freeAcks.poll() : null;
+            if (ack == null) ack = new SnapshotAck();
+            ack.tick = input.readVarInt(true);
+            return ack;
+        }
+    }
+
+    // Sin datos: se lee siempre la misma instancia
+    private static final class SpectateRequestSerializer extends Serializer<SpectateRequest> {
+        private static final SpectateRequest INSTANCE = new SpectateRequest();
+
+        @Override
+        public void write(Kryo kryo, Output output, SpectateRequest request) {
+        }
+
+        @Override
+        public SpectateRequest read(Kryo kryo, Input input, Class<SpectateRequest> type) {
+            return INSTANCE;
+        }
+    }
+
+    // -------------------------
+    // Mensajes del servidor
+    // -------------------------
+
+    private static final class LobbyStateSerializer extends Serializer<LobbyState> {
+        @Override
+        public void write(Kryo kryo, Output output, LobbyState lobby) {
+            output.writeVarInt(lobby.playerCount, true);
+        }
+
+        @Override
+        public LobbyState read(Kryo kryo, Input input, Class<LobbyState> type) {
+            LobbyState lobby = new LobbyState();
+            lobby.playerCount = input.readVarInt(true);
+            return lobby;
+        }
+    }
+
+    private static final class StartGameSerializer extends Serializer<StartGame> {
+        private static final StartGame INSTANCE = new StartGame();
+
+        @Override
+        public void write(Kryo kryo, Output output, StartGame start) {
+        }
+
+        @Override
+        public StartGame read(Kryo kryo, Input input, Class<StartGame> type) {
+            return INSTANCE;
+        }
+    }
+
+    private static final class PlayerDiedSerializer extends Serializer<PlayerDied> {
+        @Override
+        public void write(Kryo kryo, Output output, PlayerDied died) {
+            output.writeVarInt(died.playerId, true);
+        }
+
+        @Override
+        public PlayerDied read(Kryo kryo, Input input, Class<PlayerDied> type) {
+            PlayerDied died = new PlayerDied();
+            died.playerId = input.readVarInt(true);
+            return died;
+        }
+    }
+
+    private static final class MatchResultSerializer extends Serializer<MatchResult> {
+        @Override
+        public void write(Kryo kryo, Output output, MatchResult result) {
+            output.writeVarInt(result.winnerId, true);
+        }
+
+        @Override
+        public MatchResult read(Kryo kryo, Input input, Class<MatchResult> type) {
+            MatchResult result = new MatchResult();
+            result.winnerId = input.readVarInt(true);
+            return result;
+        }
+    }
+
+    // id varint | x, y, width, height varint zigzag | type varint
+    private static final class ObstacleStateSerializer extends Serializer<ObstacleState> {
+        @Override
+        public void write(Kryo kryo, Output output, ObstacleState o) {
+            output.writeVarInt(o.id, true);
+            writePosition(output, o.x);
+            writePosition(output, o.y);
+            writePosition(output, o.width);
+            writePosition(output, o.height);
+            output.writeVarInt(o.type, true);
+        }
+
+        @Override
+        public ObstacleState read(Kryo kryo, Input input, Class<ObstacleState> type) {
+            ObstacleState o = new ObstacleState();
+            o.id = input.readVarInt(true);
+            o.x = readPosition(input);
+            o.y = readPosition(input);
+            o.width = readPosition(input);
+            o.height = readPosition(input);
+            o.type = input.readVarInt(true);
+            return o;
+        }
+    }
+
+    // tick varint | count varint | count x (id << 1 | ducking varint, x, y varint zigzag)
+    private static final class SnapshotSerializer extends Serializer<Snapshot> {
+        @Override
+        public void write(Kryo kryo, Output output, Snapshot s) {
+            output.writeVarInt(s.tick, true);
+            output.writeVarInt(s.count, true);
+            for (int i = 0; i < s.count; i++) {
+                output.writeVarInt(s.playerIds[i] << 1 | (s.ducking[i] ? 1 : 0), true);
+                writePosition(output, s.x[i]);
+                writePosition(output, s.y[i]);
+            }
+        }
+
+        @Override
+        public Snapshot read(Kryo kryo, Input input, Class<Snapshot> type) {
+            Snapshot s = new Snapshot();
+            s.tick = input.readVarInt(true);
+            s.count = readLength(input, MAX_ELEMENTS, MIN_SNAPSHOT_ENTRY_BYTES);
+            s.playerIds = new int[s.count];
+            s.x = new float[s.count];
+            s.y = new float[s.count];
+            s.ducking = new boolean[s.count];
+            for (int i = 0; i < s.count; i++) {
+                int idAndDuck = input.readVarInt(true);
+                s.playerIds[i] = idAndDuck >>> 1;
+                s.ducking[i] = (idAndDuck & 1) != 0;
+                s.x[i] = readPosition(input);
+                s.y[i] = readPosition(input);
+            }
+            return s;
+        }
+    }
+
+    // tick varint | tick - baseTick varint | length varint | data
+    private static final class DeltaSnapshotSerializer extends Serializer<DeltaSnapshot> {
+        @Override
+        public void write(Kryo kryo, Output output, DeltaSnapshot d) {
+            output.writeVarInt(d.tick, true);
+            output.writeVarInt(d.tick - d.baseTick, true);
+            output.writeVarInt(d.length, true);
+            output.writeBytes(d.data, 0, d.length);
+        }
+
+        @Override
+        public DeltaSnapshot read(Kryo kryo, Input input, Class<DeltaSnapshot> type) {
+            DeltaSnapshot d = new DeltaSnapshot();
+            d.tick = input.readVarInt(true);
+            d.baseTick = d.tick - input.readVarInt(true);
+            d.length = readLength(input, Integer.MAX_VALUE, 1);
+            d.data = input.readBytes(d.length);
+            return d;
+        }
+    }
+
+    // seed i64 | tickRate varint | firstId varint | count varint |
+    // count x (tick - tick anterior varint zigzag, type u8, y varint zigzag, width, height varint)
+    private static final class ObstacleBatchSerializer extends Serializer<ObstacleBatch> {
+        @Override
+        public void write(Kryo kryo, Output output, ObstacleBatch b) {
+            output.writeLong(b.seed);
+            output.writeVarInt(b.tickRate, true);
+            output.writeVarInt(b.firstId, true);
+            output.writeVarInt(b.count, true);
+            int previousTick = 0;
+            for (int i = 0; i < b.count; i++) {
+                output.writeVarInt(b.ticks[i] - previousTick, false);
+                previousTick = b.ticks[i];
+                output.writeByte(b.types[i]);
+                writePosition(output, b.y[i]);
+                output.writeVarInt(b.width[i], true);
+                output.writeVarInt(b.height[i], true);
+            }
+        }
+
+        @Override
+        public ObstacleBatch read(Kryo kryo, Input input, Class<ObstacleBatch> type) {
+            ObstacleBatch b = new ObstacleBatch();
+            b.seed = input.readLong();
+            b.tickRate = input.readVarInt(true);
+            b.firstId = input.readVarInt(true);
+            b.count = readLength(input, MAX_ELEMENTS, MIN_OBSTACLE_ENTRY_BYTES);
+            b.ticks = new int[b.count];
+            b.types = new byte[b.count];
+            b.y = new float[b.count];
+            b.width = new short[b.count];
+            b.height = new short[b.count];
+            int previousTick = 0;
+            for (int i = 0; i < b.count; i++) {
+                previousTick += input.readVarInt(false);
+                b.ticks[i] = previousTick;
+                b.types[i] = input.readByte();
+                b.y[i] = readPosition(input);
+                b.width[i] = (short) input.readVarInt(true);
+                b.height[i] = (short) input.readVarInt(true);
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// =====================================================
+// ARCHIVO: MetricsExporter.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expone un MetricsRegistry:
+ * - HTTP de texto (formato Prometheus) en 127.0.0.1:puerto/metrics
+ * - JMX: com.dinochrome.game:type=Metrics, un atributo por métrica
+ *   (los histogramas como nombre.count / .p50 / .p99 / .p999 / .max)
+ */
+public final class MetricsExporter {
+
+    public static final String JMX_NAME = "com.dinochrome.game:type=Metrics";
+
+    private MetricsExporter() {
+    }
+
+    /** Endpoint local (sólo loopback) con su propio hilo. */
+    public static HttpServer startHttp(MetricsRegistry registry, int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = registry.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        System.out.println("Métricas en http://127.0.0.1:" + port + "/metrics");
+        return http;
+    }
+
+    /** Registra el MBean una sola vez por proceso (llamadas repetidas no hacen nada). */
+    public static synchronized void registerJmx(MetricsRegistry registry) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!mbs.isRegistered(name)) mbs.registerMBean(new RegistryMBean(registry), name);
+        } catch (Exception e) {
+            System.out.println("No se pudo registrar JMX: " + e);
+        }
+    }
+
+    /** MBean dinámico: las métricas se pueden agregar después de registrarlo. */
+    private static final class RegistryMBean implements DynamicMBean {
+
+        private static final String[] HISTOGRAM_FIELDS = {"count", "p50", "p99", "p999", "max"};
+
+        private final MetricsRegistry registry;
+
+        RegistryMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            MetricsRegistry.Entry e = registry.entry(attribute);
+            if (e != null && e.type != MetricsRegistry.Type.SUMMARY) return e.value();
+
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                e = registry.entry(attribute.substring(0, dot));
+                if (e != null && e.type == MetricsRegistry.Type.SUMMARY) {
+                    LatencyHistogram h = e.histogram;
+                    switch (attribute.substring(dot + 1)) {
+                        case "count": return h.getCount();
+                        case "p50": return h.percentile(0.5);
+                        case "p99": return h.percentile(0.99);
+                        case "p999": return h.percentile(0.999);
+                        case "max": return h.getMax();
+                        default: break;
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                    // se omite, como indica DynamicMBean
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Las métricas son de sólo lectura");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            // No hay operaciones: lo que pide DynamicMBean para una que no existe
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (MetricsRegistry.Entry e : registry.entries()) {
+                if (e.type != MetricsRegistry.Type.SUMMARY) {
+                    attrs.add(new MBeanAttributeInfo(e.name, "long", e.help, true, false, false));
+                    continue;
+                }
+                for (String field : HISTOGRAM_FIELDS) {
+                    attrs.add(new MBeanAttributeInfo(e.name + "." + field, "long", e.help + " (" + field + ")", true, false, false));
+                }
+            }
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Métricas del servidor Dino",
+                attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
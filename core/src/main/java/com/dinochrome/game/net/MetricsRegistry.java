@@ -0,0 +1,140 @@
+// =====================================================
+// ARCHIVO: MetricsRegistry.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de métricas del proceso: contadores, gauges e histogramas de
+ * latencia. Los nombres siguen el formato de Prometheus y pueden llevar
+ * etiquetas ("game_players{tcp_port=\"54555\"}").
+ *
+ * counter()/upDown()/histogram() devuelven la misma instancia para el
+ * mismo nombre, así varios shards o partidas suman sobre la misma métrica.
+ * Se leen desde MetricsExporter (HTTP de texto y JMX).
+ */
+public final class MetricsRegistry {
+
+    enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    static final class Entry {
+        final String name;
+        final String help;
+        final Type type;
+        final Counter counter;
+        final LongSupplier gauge;
+        final LatencyHistogram histogram;
+
+        Entry(String name, String help, Type type, Counter counter, LongSupplier gauge, LatencyHistogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.counter = counter;
+            this.gauge = gauge;
+            this.histogram = histogram;
+        }
+
+        long value() {
+            if (counter != null) return counter.get();
+            if (gauge != null) return gauge.getAsLong();
+            return histogram.getCount();
+        }
+    }
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    // Ordenado por nombre: la salida de texto agrupa cada métrica con sus etiquetas
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /** Registro compartido por todos los servidores del proceso. */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /** Contador que sólo sube (paquetes, bytes, errores...). */
+    public Counter counter(String name, String help) {
+        return entries.computeIfAbsent(name, n -> new Entry(n, help, Type.COUNTER, new Counter(), null, null)).counter;
+    }
+
+    /** Contador que sube y baja (sesiones, salas...). */
+    public Counter upDown(String name, String help) {
+        return entries.computeIfAbsent(name, n -> new Entry(n, help, Type.GAUGE, new Counter(), null, null)).counter;
+    }
+
+    /** Gauge leído al exportar (reemplaza uno anterior con el mismo nombre). */
+    public void gauge(String name, String help, LongSupplier supplier) {
+        entries.put(name, new Entry(name, help, Type.GAUGE, null, supplier, null));
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return entries.computeIfAbsent(name, n -> new Entry(n, help, Type.SUMMARY, null, null, new LatencyHistogram())).histogram;
+    }
+
+    public void remove(String name) {
+        entries.remove(name);
+    }
+
+    Iterable<Entry> entries() {
+        return entries.values();
+    }
+
+    Entry entry(String name) {
+        return entries.get(name);
+    }
+
+    // -------------------------
+    // Formato de texto (Prometheus)
+    // -------------------------
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public String toText() {
+        StringBuilder sb = new StringBuilder(4096);
+        String lastBase = null;
+
+        for (Entry e : entries.values()) {
+            String base = baseName(e.name);
+            if (!base.equals(lastBase)) {
+                sb.append("# HELP ").append(base).append(' ').append(e.help).append('\n');
+                sb.append("# TYPE ").append(base).append(' ').append(e.type.name().toLowerCase()).append('\n');
+                lastBase = base;
+            }
+
+            if (e.type != Type.SUMMARY) {
+                sb.append(e.name).append(' ').append(e.value()).append('\n');
+                continue;
+            }
+
+            LatencyHistogram h = e.histogram;
+            for (double q : QUANTILES) {
+                sb.append(withLabel(e.name, "quantile=\"" + q + "\"")).append(' ').append(h.percentile(q)).append('\n');
+            }
+            sb.append(suffixed(e.name, "_sum")).append(' ').append(h.getSum()).append('\n');
+            sb.append(suffixed(e.name, "_count")).append(' ').append(h.getCount()).append('\n');
+            sb.append(suffixed(e.name, "_max")).append(' ').append(h.getMax()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String baseName(String name) {
+        int i = name.indexOf('{');
+        return i < 0 ? name : name.substring(0, i);
+    }
+
+    private static String withLabel(String name, String label) {
+        int i = name.indexOf('{');
+        if (i < 0) return name + "{" + label + "}";
+        return name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    private static String suffixed(String name, String suffix) {
+        int i = name.indexOf('{');
+        if (i < 0) return name + suffix;
+        return name.substring(0, i) + suffix + name.substring(i);
+    }
+}
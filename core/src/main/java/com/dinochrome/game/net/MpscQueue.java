@@ -0,0 +1,74 @@
+// =====================================================
+// ARCHIVO: MpscQueue.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cola acotada sin locks: muchos productores, un solo consumidor.
+ *
+ * Cada celda tiene un número de secuencia (esquema de Vyukov): los
+ * productores reservan un lugar con CAS sobre la cola y publican el
+ * elemento actualizando la secuencia; el consumidor no necesita CAS.
+ */
+public final class MpscQueue<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // sólo lo toca el consumidor
+
+    public MpscQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+
+        mask = size - 1;
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /** Encola desde cualquier hilo. Devuelve false si la cola está llena. */
+    public boolean offer(E e) {
+        if (e == null) throw new NullPointerException();
+
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.lazySet(index, e);
+                    sequences.set(index, pos + 1); // publica el elemento
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // llena
+            }
+            // otro productor ganó ese lugar: reintentar
+        }
+    }
+
+    /** Desencola; sólo desde el hilo consumidor. Null si está vacía. */
+    public E poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) return null;
+
+        E e = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.set(index, head + mask + 1); // libera la celda para la próxima vuelta
+        head++;
+        return e;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,26 @@
+// =====================================================
+// ARCHIVO: ObstacleBatch.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Ventana de próximos obstáculos de la partida, generados en forma
+ * determinística a partir de seed (ver LineaObstaculos, perfil KRYONET).
+ *
+ * ticks[] es el tick de aparición contado desde StartGame (a tickRate
+ * ticks por segundo). Los lotes se solapan: si uno se pierde el siguiente
+ * vuelve a traer los mismos obstáculos (mismo id = firstId + i).
+ * Sólo son válidas las primeras count posiciones.
+ */
+public class ObstacleBatch {
+    public long seed;
+    public int tickRate;
+    public int firstId;
+    public int count;
+    public int[] ticks;
+    public byte[] types;
+    public float[] y;
+    public short[] width;
+    public short[] height;
+}
@@ -0,0 +1,17 @@
+// =====================================================
+// ARCHIVO: Obstaculo.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Obstáculo generado por el servidor UDP. Se reutiliza la misma instancia
+ * para codificarlo en texto o binario según el cliente.
+ */
+class Obstaculo {
+    int tipo; // 0 = cactus, 1 = ptero
+    float x;
+    float y;
+    int ancho;
+    int alto;
+}
@@ -0,0 +1,114 @@
+// =====================================================
+// ARCHIVO: ObstaculosVivos.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Obstáculos que están en pantalla en una partida, simulados por el servidor.
+ *
+ * Se guardan como arrays primitivos paralelos (uno por campo) en vez de un
+ * objeto por obstáculo: mover y chocar son recorridos lineales sobre pocos
+ * floats/ints contiguos, y miles de salas pueden simular cada tick sin
+ * crear basura. El orden no importa: al salir de la pantalla un obstáculo
+ * se reemplaza por el último.
+ *
+ * Las medidas (mundo, velocidad y hitbox del dino) tienen que coincidir
+ * con las del cliente.
+ */
+final class ObstaculosVivos {
+
+    // Mundo (tiene que coincidir con la pantalla)
+    static final int ANCHO_MUNDO = 800;
+    static final float VELOCIDAD_PX_S = 300f;
+
+    // Hitbox del dino (sprite de 40x40; agachado sólo pasa por debajo del ptero alto)
+    static final int ANCHO_DINO = 40;
+    static final int ALTO_DINO = 40;
+    static final int ALTO_DINO_AGACHADO = 25;
+    // Tolerancia en cada borde: la posición del jugador llega con algo de atraso
+    static final int MARGEN_CHOQUE = 4;
+
+    // Con la velocidad y los intervalos de los perfiles nunca hay más de ~4 a la vez
+    private static final int CAPACIDAD = 32;
+
+    final int[] ids = new int[CAPACIDAD];
+    final int[] tipos = new int[CAPACIDAD];
+    final float[] xs = new float[CAPACIDAD];
+    final int[] ys = new int[CAPACIDAD];
+    final int[] anchos = new int[CAPACIDAD];
+    final int[] altos = new int[CAPACIDAD];
+    int cantidad = 0;
+
+    private final float pasoPorTick;
+
+    ObstaculosVivos(int ticksPorSegundo) {
+        pasoPorTick = VELOCIDAD_PX_S / ticksPorSegundo;
+    }
+
+    void limpiar() {
+        cantidad = 0;
+    }
+
+    /**
+     * El primer obstáculo pendiente de la línea aparece en el borde derecho
+     * (mismo id que en los lotes: índice + 1). La línea no se modifica.
+     */
+    void aparecer(LineaObstaculos linea) {
+        if (cantidad == CAPACIDAD) return; // no pasa con los perfiles actuales
+
+        int i = cantidad++;
+        ids[i] = linea.indice(0) + 1;
+        tipos[i] = linea.tipo(0);
+        xs[i] = ANCHO_MUNDO;
+        ys[i] = linea.y(0);
+        anchos[i] = linea.ancho(0);
+        altos[i] = linea.alto(0);
+    }
+
+    /** Un tick: todos se corren a la izquierda y se sacan los que ya salieron de la pantalla. */
+    void avanzar() {
+        float paso = pasoPorTick;
+        for (int i = 0; i < cantidad; i++) {
+            xs[i] -= paso;
+        }
+
+        int i = 0;
+        while (i < cantidad) {
+            if (xs[i] + anchos[i] < 0) {
+                quitar(i); // el último pasa a i: se vuelve a mirar la misma posición
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Si la hitbox del dino en (x, y) toca algún obstáculo. Con x/y NaN
+     * (jugador que todavía no mandó estado) nunca choca.
+     */
+    boolean choca(float x, float y, boolean agachado) {
+        float izq = x + MARGEN_CHOQUE;
+        float der = x + ANCHO_DINO - MARGEN_CHOQUE;
+        float abajo = y + MARGEN_CHOQUE;
+        float arriba = y + (agachado ? ALTO_DINO_AGACHADO : ALTO_DINO) - MARGEN_CHOQUE;
+
+        for (int i = 0; i < cantidad; i++) {
+            float ox = xs[i];
+            int oy = ys[i];
+            if (ox < der && ox + anchos[i] > izq && oy < arriba && oy + altos[i] > abajo) return true;
+        }
+        return false;
+    }
+
+    private void quitar(int i) {
+        int ultimo = --cantidad;
+        if (i == ultimo) return;
+        ids[i] = ids[ultimo];
+        tipos[i] = tipos[ultimo];
+        xs[i] = xs[ultimo];
+        ys[i] = ys[ultimo];
+        anchos[i] = anchos[ultimo];
+        altos[i] = altos[ultimo];
+    }
+}
@@ -0,0 +1,13 @@
+// =====================================================
+// ARCHIVO: PlayerDied.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Un jugador chocó con un obstáculo. Lo decide el servidor con su propia
+ * simulación (ver ObstaculosVivos); se manda por TCP a todos.
+ */
+public class PlayerDied {
+    public int playerId;
+}
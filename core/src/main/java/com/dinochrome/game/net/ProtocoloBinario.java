@@ -0,0 +1,300 @@
+// =====================================================
+// ARCHIVO: ProtocoloBinario.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Protocolo binario v2 del servidor UDP.
+ *
+ * Se negocia en el JOIN: el cliente manda "JOIN;v=2" (texto) y desde ahí
+ * el servidor le habla en binario. Los clientes viejos siguen con texto.
+ *
+ * Cada frame empieza con un byte de tipo >= 0x80, así nunca se confunde con
+ * un mensaje de texto (ASCII). Los números van en big-endian.
+ *
+ *   STATE  (0x81)  tipo | id u8 | flags u8 (bit0 = duck) | x f32 | y f32   = 11 bytes
+ *   READY  (0x82)  tipo                                                    (cliente -> servidor)
+ *   BYE    (0x83)  tipo                                                    (cliente -> servidor)
+ *   ACK    (0x84)  tipo | seq u16                                          (cliente -> servidor)
+ *   SESION (0x8F)  tipo | sesión u32 | frame de arriba                     (cliente -> servidor)
+ *   CONFIABLE (0x90) tipo | seq u16 | ack u16 | bits u32 | frame          (los dos sentidos)
+ *   ACK_CONFIABLE (0x91) tipo | ack u16 | bits u32 [| frame]              (los dos sentidos)
+ *   ASSIGN (0xA1)  tipo | id u8 | sesión u32
+ *   COUNT  (0xA2)  tipo | players u8
+ *   LISTO  (0xA3)  tipo | id u8 | value u8                                 (READY reenviado a la sala)
+ *   START  (0xA4)  tipo
+ *   FULL   (0xA6)  tipo
+ *   ERROR  (0xA7)  tipo | código u8
+ *   LOTE   (0xA8)  tipo | semilla i64 | tps u8 | primerId u32 | n u8 | n x obstáculo
+ *                  obstáculo = tick u32 | t u8 | y u16 | w u8 | h u8       = 9 bytes
+ *   WATCHING (0xA9) tipo | sala u32 | players u8 | started u8             (respuesta a "WATCH;v=2")
+ *   FIN_WATCH (0xAA) tipo                                                  (la sala del espectador se cerró)
+ *   MUERTE (0xAB)  tipo | id u8                                            (chocó con un obstáculo)
+ *   GANADOR (0xAC) tipo | id u8                                            (fin de partida, 0 = empate)
+ *
+ * Sesión: el ASSIGN trae un id de sesión; el cliente que antepone SESION
+ * a sus frames se encuentra por ese id y no por su dirección, así sigue en
+ * la partida si su NAT le cambia el puerto (o cambia de red). Sin SESION
+ * se busca por dirección, como siempre.
+ *
+ * Canal confiable: el cliente que manda "JOIN;v=2;reliable=1" recibe
+ * COUNT, LISTO, START, MUERTE y GANADOR dentro de un CONFIABLE, y el
+ * servidor los reenvía hasta que se confirman (ver CanalConfiable). ack es
+ * la última secuencia recibida del otro lado y bit i de bits confirma
+ * ack - 1 - i. Las confirmaciones viajan en la cabecera de cualquier
+ * CONFIABLE; sin nada que mandar, en un ACK_CONFIABLE, que el cliente
+ * puede anteponer a su próximo STATE. El cliente también puede mandar su
+ * READY en un CONFIABLE: los repetidos se descartan.
+ *
+ * Los obstáculos no se mandan de a uno: cada LOTE trae la semilla y la
+ * ventana de próximos obstáculos (tick desde el START, ver LineaObstaculos).
+ * Los lotes se solapan, así que perder uno no hace perder obstáculos.
+ *
+ * Delta de STATE: un cliente que confirma con ACK los estados que recibe
+ * pasa a recibir el STATE del otro jugador contra su última base confirmada
+ * (posiciones cuantizadas, ver CompresorDelta). Si la base se perdió,
+ * vuelve a recibir un ESTADO_BASE completo.
+ *
+ *   ESTADO_BASE  (0x85)  tipo | id u8 | flags u8 | seq u16 | qx i32 | qy i32   = 13 bytes
+ *   ESTADO_DELTA (0x86)  tipo | seq u16 | baseSeq u16 | entidad CompresorDelta = 7 bytes o más
+ */
+final class ProtocoloBinario {
+
+    static final int VERSION = 2;
+
+    // Cliente -> servidor (STATE también va servidor -> cliente en el relay)
+    static final int STATE = 0x81;
+    static final int READY = 0x82;
+    static final int BYE = 0x83;
+    static final int ACK_ESTADO = 0x84;
+    static final int SESION = 0x8F;
+    static final int CONFIABLE = 0x90;
+    static final int ACK_CONFIABLE = 0x91;
+
+    // Servidor -> cliente
+    static final int ASSIGN = 0xA1;
+    static final int COUNT = 0xA2;
+    static final int LISTO = 0xA3;
+    static final int START = 0xA4;
+    static final int FULL = 0xA6;
+    static final int ERROR = 0xA7;
+    static final int LOTE_OBSTACULOS = 0xA8;
+    static final int WATCHING = 0xA9;
+    static final int FIN_WATCH = 0xAA;
+    static final int MUERTE = 0xAB;
+    static final int GANADOR = 0xAC;
+
+    // Estados ackeables (servidor -> cliente)
+    static final int ESTADO_BASE = 0x85;
+    static final int ESTADO_DELTA = 0x86;
+
+    // Códigos de ERROR
+    static final int ERROR_SIN_JOIN = 1;
+    static final int ERROR_DESCONOCIDO = 2;
+    static final int ERROR_SIN_PARTIDA = 3;
+    static final int ERROR_SIN_READY = 4;
+
+    static final int LARGO_STATE = 11;
+    static final int LARGO_ACK = 3;
+    static final int LARGO_SESION = 5;
+    static final int LARGO_CONFIABLE = 9;
+    static final int LARGO_ACK_CONFIABLE = 7;
+
+    private static final int FLAG_DUCK = 1;
+
+    private ProtocoloBinario() {
+    }
+
+    /** Un datagrama es binario si su primer byte tiene el bit alto prendido. */
+    static boolean esBinario(ByteBuffer b, int ini, int fin) {
+        return ini < fin && (b.get(ini) & 0x80) != 0;
+    }
+
+    static int tipo(ByteBuffer b, int ini) {
+        return b.get(ini) & 0xFF;
+    }
+
+    // -------------------------
+    // Decodificación
+    // -------------------------
+
+    /** Id de sesión de un frame SESION (0 si está cortado: no es una sesión válida). */
+    static int sesion(ByteBuffer b, int ini, int fin) {
+        return fin - ini >= LARGO_SESION ? b.getInt(ini + 1) : 0;
+    }
+
+    /** Largo de la cabecera CONFIABLE / ACK_CONFIABLE que empieza en ini, o -1 si está cortada. */
+    static int largoCabeceraConfiable(ByteBuffer b, int ini, int fin) {
+        int largo = tipo(b, ini) == CONFIABLE ? LARGO_CONFIABLE : LARGO_ACK_CONFIABLE;
+        return fin - ini >= largo ? largo : -1;
+    }
+
+    static int secuenciaConfiable(ByteBuffer b, int ini) {
+        return b.getShort(ini + 1) & 0xFFFF;
+    }
+
+    /** ack y bits van después de la secuencia en un CONFIABLE y primero en un ACK_CONFIABLE. */
+    static int ackConfiable(ByteBuffer b, int ini) {
+        return b.getShort(tipo(b, ini) == CONFIABLE ? ini + 3 : ini + 1) & 0xFFFF;
+    }
+
+    static int bitsConfiable(ByteBuffer b, int ini) {
+        return b.getInt(tipo(b, ini) == CONFIABLE ? ini + 5 : ini + 3);
+    }
+
+    /** Mensajes de control que van por el canal confiable a quien lo negoció. */
+    static boolean esControl(int tipo) {
+        return tipo == COUNT || tipo == LISTO || tipo == START || tipo == MUERTE || tipo == GANADOR;
+    }
+
+    /** Igual que la versión de texto: copia x/y/duck sólo si el frame es válido. */
+    static boolean parsearEstado(ByteBuffer b, int ini, int fin, Jugador destino) {
+        if (fin - ini < LARGO_STATE) return false;
+
+        int id = b.get(ini + 1) & 0xFF;
+        if (id != 1 && id != 2) return false;
+
+        float x = b.getFloat(ini + 3);
+        float y = b.getFloat(ini + 7);
+        // NaN, infinitos o fuera del mundo: el STATE se reenvía como texto a los v1
+        if (!ProtocoloTexto.coordenadaValida(x) || !ProtocoloTexto.coordenadaValida(y)) return false;
+
+        destino.x = x;
+        destino.y = y;
+        destino.duck = (b.get(ini + 2) & FLAG_DUCK) != 0;
+        return true;
+    }
+
+    /** Id de jugador (1 o 2) de un STATE ya validado con parsearEstado. */
+    static int idEstado(ByteBuffer b, int ini) {
+        return b.get(ini + 1) & 0xFF;
+    }
+
+    /** Secuencia (16 bits) confirmada en un ACK, o -1 si el frame es corto. */
+    static int parsearAck(ByteBuffer b, int ini, int fin) {
+        if (fin - ini < LARGO_ACK) return -1;
+        return b.getShort(ini + 1) & 0xFFFF;
+    }
+
+    // -------------------------
+    // Codificación (el buffer queda listo para enviar)
+    // -------------------------
+    static void escribirEstado(ByteBuffer b, int id, float x, float y, boolean duck) {
+        b.clear();
+        b.put((byte) STATE).put((byte) id).put((byte) (duck ? FLAG_DUCK : 0));
+        b.putFloat(x).putFloat(y);
+        b.flip();
+    }
+
+    static void escribirEstadoBase(ByteBuffer b, int id, int seq, int qx, int qy, boolean duck) {
+        b.clear();
+        b.put((byte) ESTADO_BASE).put((byte) id).put((byte) (duck ? FLAG_DUCK : 0));
+        b.putShort((short) seq);
+        b.putInt(qx).putInt(qy);
+        b.flip();
+    }
+
+    /** Devuelve false (sin nada para mandar) si el estado es igual a la base. */
+    static boolean escribirEstadoDelta(ByteBuffer b, int seq, int baseSeq, int id, int qx, int qy, boolean duck,
+                                       HistorialEstados base, int baseSlot) {
+        b.clear();
+        b.put((byte) ESTADO_DELTA);
+        b.putShort((short) seq).putShort((short) baseSeq);
+
+        int baseIndice = base.indiceDe(baseSlot, id);
+        if (!CompresorDelta.escribirEntidad(b, id, qx, qy, duck, base, baseSlot, baseIndice)) return false;
+
+        b.flip();
+        return true;
+    }
+
+    static void escribirAssign(ByteBuffer b, int id, int sesion) {
+        b.clear();
+        b.put((byte) ASSIGN).put((byte) id).putInt(sesion);
+        b.flip();
+    }
+
+    static void escribirCount(ByteBuffer b, int jugadores) {
+        b.clear();
+        b.put((byte) COUNT).put((byte) jugadores);
+        b.flip();
+    }
+
+    static void escribirListo(ByteBuffer b, int id, boolean valor) {
+        b.clear();
+        b.put((byte) LISTO).put((byte) id).put((byte) (valor ? 1 : 0));
+        b.flip();
+    }
+
+    static void escribirMuerte(ByteBuffer b, int id) {
+        b.clear();
+        b.put((byte) MUERTE).put((byte) id);
+        b.flip();
+    }
+
+    static void escribirGanador(ByteBuffer b, int id) {
+        b.clear();
+        b.put((byte) GANADOR).put((byte) id);
+        b.flip();
+    }
+
+    static void escribirWatching(ByteBuffer b, int sala, int jugadores, boolean iniciada) {
+        b.clear();
+        b.put((byte) WATCHING).putInt(sala).put((byte) jugadores).put((byte) (iniciada ? 1 : 0));
+        b.flip();
+    }
+
+    /** Semilla + toda la ventana pendiente de la línea (máximo 255 obstáculos). */
+    static void escribirLoteObstaculos(ByteBuffer b, LineaObstaculos linea) {
+        int n = Math.min(linea.pendientes(), 255);
+
+        b.clear();
+        b.put((byte) LOTE_OBSTACULOS);
+        b.putLong(linea.semilla());
+        b.put((byte) linea.ticksPorSegundo());
+        b.putInt(n > 0 ? linea.indice(0) + 1 : 0);
+        b.put((byte) n);
+
+        for (int i = 0; i < n; i++) {
+            b.putInt(linea.tick(i));
+            b.put((byte) linea.tipo(i));
+            b.putShort((short) linea.y(i));
+            b.put((byte) linea.ancho(i));
+            b.put((byte) linea.alto(i));
+        }
+        b.flip();
+    }
+
+    /** Cabecera de un CONFIABLE; el frame se agrega después (el buffer queda abierto). */
+    static void escribirCabeceraConfiable(ByteBuffer b, int seq, int ack, int bits) {
+        b.clear();
+        b.put((byte) CONFIABLE);
+        b.putShort((short) seq);
+        b.putShort((short) ack);
+        b.putInt(bits);
+    }
+
+    static void escribirAckConfiable(ByteBuffer b, int ack, int bits) {
+        b.clear();
+        b.put((byte) ACK_CONFIABLE);
+        b.putShort((short) ack);
+        b.putInt(bits);
+        b.flip();
+    }
+
+    /** Mensajes de un solo byte: START, FULL, FIN_WATCH. */
+    static void escribirTipo(ByteBuffer b, int tipo) {
+        b.clear();
+        b.put((byte) tipo);
+        b.flip();
+    }
+
+    static void escribirError(ByteBuffer b, int codigo) {
+        b.clear();
+        b.put((byte) ERROR).put((byte) codigo);
+        b.flip();
+    }
+}
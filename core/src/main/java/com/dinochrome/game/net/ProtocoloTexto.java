@@ -0,0 +1,515 @@
+// =====================================================
+// ARCHIVO: ProtocoloTexto.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Protocolo de texto (v1) del servidor UDP. El parser trabaja directo
+ * sobre los bytes del datagrama y los escritores sobre un ByteBuffer:
+ * no se crean Strings, arrays ni objetos por paquete.
+ *
+ * Todos los métodos de lectura reciben el rango [ini, fin) ya recortado de espacios.
+ */
+final class ProtocoloTexto {
+
+    static final int VERSION = 1;
+
+    // -------------------------
+    // Tipos de mensaje
+    // -------------------------
+    static final int DESCONOCIDO = 0;
+    static final int BUSCAR_SERVIDOR = 1;
+    static final int BYE = 2;
+    static final int JOIN = 3;
+    static final int READY = 4;
+    static final int STATE = 5;
+    static final int ACK_ESTADO = 6; // sólo existe en binario
+    static final int WATCH = 7;
+    static final int NODO = 8; // reporte de un nodo a DirectorioSalas
+
+    private static final byte[] TXT_BUSCAR_SERVIDOR = ascii("BUSCAR_SERVIDOR");
+    private static final byte[] TXT_BUSCAR_SERVIDOR_CON_CAMPOS = ascii("BUSCAR_SERVIDOR;");
+    private static final byte[] TXT_BYE = ascii("BYE");
+    private static final byte[] TXT_JOIN = ascii("JOIN");
+    private static final byte[] TXT_JOIN_CON_CAMPOS = ascii("JOIN;");
+    private static final byte[] TXT_READY = ascii("READY");
+    private static final byte[] TXT_STATE = ascii("STATE;");
+    private static final byte[] TXT_WATCH = ascii("WATCH");
+    private static final byte[] TXT_WATCH_CON_CAMPOS = ascii("WATCH;");
+    private static final byte[] TXT_NODO_CON_CAMPOS = ascii("NODO;");
+
+    // Potencias de 10 exactas en double
+    private static final double[] POTENCIAS_10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Coordenadas aceptadas en un STATE: el mundo mide 800 px de ancho y los
+    // saltos unos cientos, lo que queda afuera es un cliente roto o malicioso
+    static final float LIMITE_COORDENADA = 100_000f;
+
+    private ProtocoloTexto() {
+    }
+
+    /** false para NaN, infinitos y lo que está fuera de ±LIMITE_COORDENADA. */
+    static boolean coordenadaValida(float v) {
+        return v >= -LIMITE_COORDENADA && v <= LIMITE_COORDENADA;
+    }
+
+    // -------------------------
+    // Recorte (equivalente a String.trim)
+    // -------------------------
+    static int inicioSinEspacios(ByteBuffer b, int ini, int fin) {
+        while (ini < fin && (b.get(ini) & 0xFF) <= ' ') ini++;
+        return ini;
+    }
+
+    static int finSinEspacios(ByteBuffer b, int ini, int fin) {
+        while (fin > ini && (b.get(fin - 1) & 0xFF) <= ' ') fin--;
+        return fin;
+    }
+
+    // -------------------------
+    // Despacho
+    // -------------------------
+    static int tipo(ByteBuffer b, int ini, int fin) {
+        int largo = fin - ini;
+        if (largo <= 0) return DESCONOCIDO;
+
+        // Primero por la primera letra, así cada mensaje se compara una sola vez
+        switch (b.get(ini)) {
+            case 'S':
+                return empiezaCon(b, ini, fin, TXT_STATE) ? STATE : DESCONOCIDO;
+            case 'J':
+                // "JOIN" a secas (v1) o "JOIN;v=2;..." con parámetros
+                if (igual(b, ini, fin, TXT_JOIN) || empiezaCon(b, ini, fin, TXT_JOIN_CON_CAMPOS)) return JOIN;
+                return DESCONOCIDO;
+            case 'R':
+                return igual(b, ini, fin, TXT_READY) ? READY : DESCONOCIDO;
+            case 'B':
+                if (igual(b, ini, fin, TXT_BYE)) return BYE;
+                // "BUSCAR_SERVIDOR" (v1) o "BUSCAR_SERVIDOR;v=2" (respuesta con la carga)
+                if (igual(b, ini, fin, TXT_BUSCAR_SERVIDOR) || empiezaCon(b, ini, fin, TXT_BUSCAR_SERVIDOR_CON_CAMPOS)) {
+                    return BUSCAR_SERVIDOR;
+                }
+                return DESCONOCIDO;
+            case 'W':
+                // "WATCH" mira cualquier partida; "WATCH;sala=N;v=2" una en particular
+                if (igual(b, ini, fin, TXT_WATCH) || empiezaCon(b, ini, fin, TXT_WATCH_CON_CAMPOS)) return WATCH;
+                return DESCONOCIDO;
+            case 'N':
+                return empiezaCon(b, ini, fin, TXT_NODO_CON_CAMPOS) ? NODO : DESCONOCIDO;
+            default:
+                return DESCONOCIDO;
+        }
+    }
+
+    // -------------------------
+    // STATE;id=1;x=...;y=...;duck=1
+    // -------------------------
+
+    /**
+     * Decodifica un STATE y, si es válido, copia x/y/duck en el jugador.
+     * Devuelve false (sin tocar al jugador) si el mensaje está mal formado.
+     */
+    static boolean parsearEstado(ByteBuffer b, int ini, int fin, Jugador destino) {
+        int id = 0;
+        float x = 0f;
+        float y = 0f;
+        boolean duck = false;
+        int campos = 0;
+
+        int i = ini + TXT_STATE.length;
+        while (i < fin) {
+            // límites del campo clave=valor
+            int finCampo = i;
+            while (finCampo < fin && b.get(finCampo) != ';') finCampo++;
+
+            int igual = i;
+            while (igual < finCampo && b.get(igual) != '=') igual++;
+
+            if (igual < finCampo) {
+                int largoClave = igual - i;
+                int iniValor = igual + 1;
+
+                if (largoClave == 1 && b.get(i) == 'x') {
+                    x = parsearFloat(b, iniValor, finCampo);
+                    if (!coordenadaValida(x)) return false; // NaN o fuera del mundo = error
+                } else if (largoClave == 1 && b.get(i) == 'y') {
+                    y = parsearFloat(b, iniValor, finCampo);
+                    if (!coordenadaValida(y)) return false;
+                } else if (largoClave == 2 && b.get(i) == 'i' && b.get(i + 1) == 'd') {
+                    id = parsearEntero(b, iniValor, finCampo);
+                } else if (largoClave == 4 && b.get(i) == 'd' && b.get(i + 1) == 'u'
+                    && b.get(i + 2) == 'c' && b.get(i + 3) == 'k') {
+                    duck = esVerdadero(b, iniValor, finCampo);
+                }
+            }
+
+            campos++;
+            i = finCampo + 1;
+        }
+
+        if (campos < 4) return false;
+        if (id != 1 && id != 2) return false;
+
+        destino.x = x;
+        destino.y = y;
+        destino.duck = duck;
+        return true;
+    }
+
+    /**
+     * Busca un campo "clave=valor" entero después del primer ';' (por ejemplo
+     * v=2 en "JOIN;v=2"). Devuelve porDefecto si no está o está mal formado.
+     */
+    static int campoEntero(ByteBuffer b, int ini, int fin, byte[] clave, int porDefecto) {
+        int i = ini;
+        while (i < fin && b.get(i) != ';') i++;
+        i++;
+
+        while (i < fin) {
+            int finCampo = i;
+            while (finCampo < fin && b.get(finCampo) != ';') finCampo++;
+
+            if (finCampo - i > clave.length && b.get(i + clave.length) == '='
+                && empiezaCon(b, i, finCampo, clave)) {
+                int v = parsearEntero(b, i + clave.length + 1, finCampo);
+                return v < 0 ? porDefecto : v;
+            }
+            i = finCampo + 1;
+        }
+        return porDefecto;
+    }
+
+    /** Entero decimal con signo opcional; -1 si está mal formado. */
+    static int parsearEntero(ByteBuffer b, int ini, int fin) {
+        if (ini >= fin) return -1;
+
+        boolean negativo = false;
+        if (b.get(ini) == '-') {
+            negativo = true;
+            ini++;
+            if (ini >= fin) return -1;
+        }
+
+        int v = 0;
+        for (int i = ini; i < fin; i++) {
+            int d = b.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            if (v > 100_000_000) return -1; // desborde
+            v = v * 10 + d;
+        }
+        return negativo ? -v : v;
+    }
+
+    /**
+     * Float decimal ("12", "-3.5", "1.0E3"); devuelve NaN si está mal formado.
+     * Cubre lo que produce Float.toString en el cliente.
+     */
+    static float parsearFloat(ByteBuffer b, int ini, int fin) {
+        if (ini >= fin) return Float.NaN;
+
+        int i = ini;
+        boolean negativo = false;
+        byte c = b.get(i);
+        if (c == '-' || c == '+') {
+            negativo = (c == '-');
+            i++;
+        }
+
+        long mantisa = 0;
+        int exponente = 0;
+        int digitos = 0;
+
+        // parte entera
+        while (i < fin) {
+            int d = b.get(i) - '0';
+            if (d < 0 || d > 9) break;
+            if (mantisa < 100_000_000_000_000_000L) mantisa = mantisa * 10 + d;
+            else exponente++;
+            digitos++;
+            i++;
+        }
+
+        // parte decimal
+        if (i < fin && b.get(i) == '.') {
+            i++;
+            while (i < fin) {
+                int d = b.get(i) - '0';
+                if (d < 0 || d > 9) break;
+                if (mantisa < 100_000_000_000_000_000L) {
+                    mantisa = mantisa * 10 + d;
+                    exponente--;
+                }
+                digitos++;
+                i++;
+            }
+        }
+
+        if (digitos == 0) return Float.NaN;
+
+        // exponente (1.0E10)
+        if (i < fin && (b.get(i) == 'E' || b.get(i) == 'e')) {
+            i++;
+            boolean expNegativo = false;
+            if (i < fin && (b.get(i) == '-' || b.get(i) == '+')) {
+                expNegativo = (b.get(i) == '-');
+                i++;
+            }
+            int exp = 0;
+            int expDigitos = 0;
+            while (i < fin) {
+                int d = b.get(i) - '0';
+                if (d < 0 || d > 9) return Float.NaN;
+                if (exp < 1000) exp = exp * 10 + d;
+                expDigitos++;
+                i++;
+            }
+            if (expDigitos == 0) return Float.NaN;
+            exponente += expNegativo ? -exp : exp;
+        }
+
+        if (i != fin) return Float.NaN;
+
+        double v = mantisa;
+        if (exponente < 0) {
+            v = (-exponente < POTENCIAS_10.length) ? v / POTENCIAS_10[-exponente] : v / Math.pow(10, -exponente);
+        } else if (exponente > 0) {
+            v = (exponente < POTENCIAS_10.length) ? v * POTENCIAS_10[exponente] : v * Math.pow(10, exponente);
+        }
+
+        return (float) (negativo ? -v : v);
+    }
+
+    /** "1" o "true" (sin importar mayúsculas). */
+    static boolean esVerdadero(ByteBuffer b, int ini, int fin) {
+        int largo = fin - ini;
+        if (largo == 1) return b.get(ini) == '1';
+        if (largo != 4) return false;
+        return (b.get(ini) | 0x20) == 't' && (b.get(ini + 1) | 0x20) == 'r'
+            && (b.get(ini + 2) | 0x20) == 'u' && (b.get(ini + 3) | 0x20) == 'e';
+    }
+
+    // -------------------------
+    // Escritura (el buffer queda listo para enviar)
+    // -------------------------
+    static void escribirEstado(ByteBuffer b, int id, float x, float y, boolean duck) {
+        b.clear();
+        poner(b, "STATE;id=");
+        ponerEntero(b, id);
+        poner(b, ";x=");
+        ponerFloat(b, x);
+        poner(b, ";y=");
+        ponerFloat(b, y);
+        poner(b, duck ? ";duck=1" : ";duck=0");
+        b.flip();
+    }
+
+    static void escribirAssign(ByteBuffer b, int id) {
+        b.clear();
+        poner(b, "ASSIGN;id=");
+        ponerEntero(b, id);
+        b.flip();
+    }
+
+    static void escribirCount(ByteBuffer b, int jugadores) {
+        b.clear();
+        poner(b, "COUNT;players=");
+        ponerEntero(b, jugadores);
+        b.flip();
+    }
+
+    static void escribirListo(ByteBuffer b, int id, boolean valor) {
+        b.clear();
+        poner(b, "READY;id=");
+        ponerEntero(b, id);
+        poner(b, valor ? ";value=1" : ";value=0");
+        b.flip();
+    }
+
+    static void escribirObstaculo(ByteBuffer b, Obstaculo o) {
+        b.clear();
+        poner(b, "OBST;x=");
+        ponerFloat(b, o.x);
+        poner(b, ";y=");
+        ponerFloat(b, o.y);
+        poner(b, ";w=");
+        ponerFloat(b, o.ancho);
+        poner(b, ";h=");
+        ponerFloat(b, o.alto);
+        poner(b, ";t=");
+        ponerEntero(b, o.tipo);
+        b.flip();
+    }
+
+    /** Un jugador chocó con un obstáculo (lo decide el servidor). */
+    static void escribirMuerte(ByteBuffer b, int id) {
+        b.clear();
+        poner(b, "DEAD;id=");
+        ponerEntero(b, id);
+        b.flip();
+    }
+
+    /** Fin de la partida: id del ganador, 0 si chocaron los dos en el mismo tick. */
+    static void escribirGanador(ByteBuffer b, int id) {
+        b.clear();
+        poner(b, "WINNER;id=");
+        ponerEntero(b, id);
+        b.flip();
+    }
+
+    static void escribirWatching(ByteBuffer b, int sala, int jugadores, boolean iniciada) {
+        b.clear();
+        poner(b, "WATCHING;sala=");
+        ponerEntero(b, sala);
+        poner(b, ";players=");
+        ponerEntero(b, jugadores);
+        poner(b, iniciada ? ";started=1" : ";started=0");
+        b.flip();
+    }
+
+    /**
+     * Respuesta al descubrimiento v2:
+     * SERVIDOR_AQUI;v=2;id=N;free=salas libres;waiting=esperando rival;load=por mil
+     * Los v1 siguen recibiendo SERVIDOR_AQUI a secas.
+     */
+    static void escribirServidorAqui(ByteBuffer b, int version, int id, int libres, int esperando, int cargaPorMil) {
+        b.clear();
+        poner(b, "SERVIDOR_AQUI;v=");
+        ponerEntero(b, version);
+        poner(b, ";id=");
+        ponerEntero(b, id);
+        poner(b, ";free=");
+        ponerEntero(b, libres);
+        poner(b, ";waiting=");
+        ponerEntero(b, esperando);
+        poner(b, ";load=");
+        ponerEntero(b, cargaPorMil);
+        b.flip();
+    }
+
+    /**
+     * Reporte de un nodo al directorio:
+     * NODO;v=2;port=puerto del juego;kryonet=puerto UDP de Kryonet (0 = nodo UDP);free=N;waiting=N;load=por mil
+     */
+    static void escribirNodo(ByteBuffer b, int puerto, int puertoKryonet, int libres, int esperando, int cargaPorMil) {
+        b.clear();
+        poner(b, "NODO;v=2;port=");
+        ponerEntero(b, puerto);
+        poner(b, ";kryonet=");
+        ponerEntero(b, puertoKryonet);
+        poner(b, ";free=");
+        ponerEntero(b, libres);
+        poner(b, ";waiting=");
+        ponerEntero(b, esperando);
+        poner(b, ";load=");
+        ponerEntero(b, cargaPorMil);
+        b.flip();
+    }
+
+    /** Respuesta del directorio a un JOIN: REDIRECT;host=a.b.c.d;port=N[;udp=N] (udp sólo para Kryonet). */
+    static void escribirRedirect(ByteBuffer b, String host, int puerto, int puertoKryonet) {
+        b.clear();
+        poner(b, "REDIRECT;host=");
+        poner(b, host);
+        poner(b, ";port=");
+        ponerEntero(b, puerto);
+        if (puertoKryonet != 0) {
+            poner(b, ";udp=");
+            ponerEntero(b, puertoKryonet);
+        }
+        b.flip();
+    }
+
+    /** Mensajes fijos: START, FULL, SERVIDOR_AQUI, ERROR;msg=... */
+    static void escribirTexto(ByteBuffer b, String txt) {
+        b.clear();
+        poner(b, txt);
+        b.flip();
+    }
+
+    // El protocolo es ASCII: se copian los chars directo
+    private static void poner(ByteBuffer b, String txt) {
+        int largo = Math.min(txt.length(), b.remaining());
+        for (int i = 0; i < largo; i++) {
+            char c = txt.charAt(i);
+            b.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void ponerEntero(ByteBuffer b, long v) {
+        if (v < 0) {
+            b.put((byte) '-');
+            v = -v;
+        }
+        if (v < 10) {
+            b.put((byte) ('0' + v));
+            return;
+        }
+
+        long divisor = 1;
+        while (divisor <= v / 10) divisor *= 10;
+        while (divisor > 0) {
+            b.put((byte) ('0' + (v / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Float con hasta 3 decimales y al menos uno ("800.0", "12.375"),
+     * compatible con Float.parseFloat del lado del cliente. NaN sale como 0 y
+     * el resto se recorta a ±LIMITE_COORDENADA: las milésimas entran en un long.
+     */
+    private static void ponerFloat(ByteBuffer b, float f) {
+        if (f != f) f = 0f;
+        else if (f > LIMITE_COORDENADA) f = LIMITE_COORDENADA;
+        else if (f < -LIMITE_COORDENADA) f = -LIMITE_COORDENADA;
+
+        long milesimas = Math.round((double) f * 1000.0);
+        if (milesimas < 0) {
+            b.put((byte) '-');
+            milesimas = -milesimas;
+        }
+
+        ponerEntero(b, milesimas / 1000);
+        b.put((byte) '.');
+
+        int decimales = (int) (milesimas % 1000);
+        if (decimales == 0) {
+            b.put((byte) '0');
+            return;
+        }
+
+        int d1 = decimales / 100;
+        int d2 = (decimales / 10) % 10;
+        int d3 = decimales % 10;
+        b.put((byte) ('0' + d1));
+        if (d2 != 0 || d3 != 0) b.put((byte) ('0' + d2));
+        if (d3 != 0) b.put((byte) ('0' + d3));
+    }
+
+    // -------------------------
+    // Utilidades
+    // -------------------------
+    private static boolean igual(ByteBuffer b, int ini, int fin, byte[] txt) {
+        return fin - ini == txt.length && empiezaCon(b, ini, fin, txt);
+    }
+
+    private static boolean empiezaCon(ByteBuffer b, int ini, int fin, byte[] txt) {
+        if (fin - ini < txt.length) return false;
+        for (int k = 0; k < txt.length; k++) {
+            if (b.get(ini + k) != txt[k]) return false;
+        }
+        return true;
+    }
+
+    static byte[] ascii(String s) {
+        byte[] r = new byte[s.length()];
+        for (int i = 0; i < r.length; i++) r[i] = (byte) s.charAt(i);
+        return r;
+    }
+}
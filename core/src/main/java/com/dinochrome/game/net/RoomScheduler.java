@@ -0,0 +1,413 @@
+// =====================================================
+// ARCHIVO: RoomScheduler.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Planificador de ticks para muchas partidas sobre un pool acotado con
+ * work-stealing (ForkJoinPool), en vez de un hilo por partida.
+ *
+ * Cada sala registrada dice en su tick cuándo le toca el próximo (deadline
+ * en nanoTime) o que queda inactiva (IDLE): las inactivas no ocupan nada
+ * hasta que alguien las despierta con wake(). Un hilo temporizador guarda
+ * los deadlines en una rueda de ranuras de resolutionNanos; todas las salas
+ * que vencen en la misma ranura salen juntas como un solo lote que el pool
+ * reparte entre sus hilos. El temporizador duerme hasta la ranura del
+ * deadline más cercano (o sin plazo si no hay salas planificadas), y los
+ * lotes se reutilizan: planificar no crea objetos.
+ *
+ * Una sala nunca se ejecuta en dos hilos a la vez: sólo vuelve a la rueda
+ * cuando terminó su tick, así su estado sigue siendo de un solo dueño.
+ */
+public final class RoomScheduler {
+
+    public interface Room {
+        /** Avanza la sala y devuelve el deadline (nanoTime) del próximo tick, o IDLE. */
+        long tick(long nowNanos);
+    }
+
+    /** Valor de Room.tick para quedar inactiva hasta el próximo wake(). */
+    public static final long IDLE = Long.MAX_VALUE;
+
+    public static final long DEFAULT_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int WHEEL_SLOTS = 1024;
+    private static final int INCOMING_CAPACITY = 1 << 16;
+    // Salas que toma un hilo del lote por vez
+    private static final int BATCH_CHUNK = 8;
+
+    // Estados de un Handle
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_RUNNING = 2;
+    private static final int STATE_RUNNING_WOKEN = 3; // lo despertaron mientras corría
+    private static final int STATE_CANCELLED = 4;
+
+    /** Registro de una sala en el planificador. */
+    public final class Handle {
+        private final Room room;
+        private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+        private volatile long deadline;
+
+        // Rueda (sólo la toca el hilo temporizador)
+        private long slotIndex;
+        private Handle next;
+
+        private Handle(Room room) {
+            this.room = room;
+        }
+
+        /** Despierta una sala inactiva; si ya está planificada o corriendo no hace nada extra. */
+        public void wake() {
+            while (true) {
+                int s = state.get();
+                if (s == STATE_IDLE) {
+                    if (state.compareAndSet(STATE_IDLE, STATE_QUEUED)) {
+                        submit(this, System.nanoTime());
+                        return;
+                    }
+                } else if (s == STATE_RUNNING) {
+                    // si el tick termina en IDLE, se vuelve a planificar enseguida
+                    if (state.compareAndSet(STATE_RUNNING, STATE_RUNNING_WOKEN)) return;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /** Deja de planificar la sala (un tick en curso termina igual). */
+        public void cancel() {
+            if (state.getAndSet(STATE_CANCELLED) != STATE_CANCELLED) {
+                activeRooms.decrementAndGet();
+            }
+        }
+
+        private void run() {
+            if (!state.compareAndSet(STATE_QUEUED, STATE_RUNNING)) return; // cancelada
+
+            long now = System.nanoTime();
+            if (now - deadline > resolutionNanos) lateTicks.incrementAndGet();
+
+            long nextDeadline = IDLE;
+            try {
+                nextDeadline = room.tick(now);
+            } catch (Exception e) {
+                e.printStackTrace();
+                nextDeadline = now + resolutionNanos; // no perder la sala por un error
+            }
+            ticks.incrementAndGet();
+
+            if (nextDeadline == IDLE) {
+                if (state.compareAndSet(STATE_RUNNING, STATE_IDLE)) return;
+                nextDeadline = System.nanoTime(); // la despertaron mientras corría
+            }
+
+            // RUNNING o RUNNING_WOKEN -> QUEUED (si la cancelaron, queda cancelada)
+            int s = state.get();
+            if ((s == STATE_RUNNING || s == STATE_RUNNING_WOKEN) && state.compareAndSet(s, STATE_QUEUED)) {
+                submit(this, nextDeadline);
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final long resolutionNanos;
+
+    // Salas listas para entrar a la rueda (cualquier hilo -> temporizador)
+    private final MpscQueue<Handle> incoming = new MpscQueue<>(INCOMING_CAPACITY);
+
+    // Rueda de deadlines (sólo el temporizador)
+    private final Handle[] wheel = new Handle[WHEEL_SLOTS];
+    private long processedSlot = -1;
+
+    private volatile boolean running = false;
+    private volatile Thread timer;
+    // Hasta cuándo duerme el temporizador (nanoTime), o IDLE si duerme sin plazo
+    private volatile long timerWakeNanos = IDLE;
+    private int wheelCount = 0;
+
+    // Lotes despachados (sólo el temporizador): se reusa el primero que terminó
+    private final ArrayList<Batch> batchPool = new ArrayList<>();
+
+    // ===== STATS =====
+    private final AtomicInteger activeRooms = new AtomicInteger();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong lateTicks = new AtomicLong();
+
+    /** Un pool propio con un hilo por núcleo. */
+    public RoomScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RoomScheduler(int parallelism) {
+        this(new ForkJoinPool(parallelism), true, DEFAULT_RESOLUTION_NANOS);
+    }
+
+    /** Usa un pool existente (no se apaga en stop()). */
+    public RoomScheduler(ForkJoinPool pool, long resolutionNanos) {
+        this(pool, false, resolutionNanos);
+    }
+
+    private RoomScheduler(ForkJoinPool pool, boolean ownsPool, long resolutionNanos) {
+        if (resolutionNanos <= 0) throw new IllegalArgumentException("resolutionNanos debe ser > 0: " + resolutionNanos);
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.resolutionNanos = resolutionNanos;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        timer = new Thread(this::runTimer, "RoomScheduler-timer");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        Thread t = timer;
+        timer = null;
+        LockSupport.unpark(t);
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsPool) pool.shutdown();
+    }
+
+    /** Registra una sala; su primer tick es enseguida. */
+    public Handle register(Room room) {
+        Handle handle = new Handle(room);
+        activeRooms.incrementAndGet();
+        handle.wake();
+        return handle;
+    }
+
+    // -------------------------
+    // Temporizador
+    // -------------------------
+    private void submit(Handle handle, long deadline) {
+        handle.deadline = deadline;
+        while (!incoming.offer(handle)) {
+            Thread.yield();
+        }
+        // si el temporizador duerme sin plazo, o hasta después de este deadline, que se despierte
+        long wake = timerWakeNanos;
+        if (wake == IDLE || deadline - wake < 0) LockSupport.unpark(timer);
+    }
+
+    private void runTimer() {
+        processedSlot = slotOf(System.nanoTime()) - 1;
+
+        while (running) {
+            // 1) Salas nuevas o re-planificadas
+            Handle h;
+            while ((h = incoming.poll()) != null) {
+                addToWheel(h);
+            }
+
+            // 2) Todas las ranuras vencidas hasta ahora forman un lote
+            long current = slotOf(System.nanoTime());
+            Handle batch = null;
+            int count = 0;
+            for (long slot = processedSlot + 1; slot <= current; slot++) {
+                int i = (int) (slot & (WHEEL_SLOTS - 1));
+                Handle prev = null;
+                Handle e = wheel[i];
+                while (e != null) {
+                    Handle following = e.next;
+                    if (e.slotIndex <= current) {
+                        // sale de la rueda y se suma al lote
+                        if (prev == null) wheel[i] = following;
+                        else prev.next = following;
+                        e.next = batch;
+                        batch = e;
+                        count++;
+                        wheelCount--;
+                    } else {
+                        prev = e; // le falta al menos una vuelta
+                    }
+                    e = following;
+                }
+                // si quedamos muy atrás, una vuelta completa ya miró todas las ranuras
+                if (slot - processedSlot >= WHEEL_SLOTS) break;
+            }
+            processedSlot = current;
+
+            if (count > 0) dispatch(batch, count);
+
+            // 3) Dormir hasta la ranura del deadline más cercano; sin salas planificadas,
+            //    hasta un submit(). Se publica el plazo y recién después se mira incoming
+            //    otra vez: un submit() que no vio el plazo nuevo ya está en la cola.
+            long wake = wheelCount == 0 ? IDLE : nextDueSlot(current) * resolutionNanos;
+            timerWakeNanos = wake;
+            Handle late = incoming.poll();
+            if (late != null) {
+                addToWheel(late);
+                continue;
+            }
+            if (wake == IDLE) {
+                LockSupport.park(this);
+            } else {
+                long wait = wake - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+
+    /** Primera ranura después de current con alguna sala que vence ahí (hay al menos una en la rueda). */
+    private long nextDueSlot(long current) {
+        for (long slot = current + 1; slot <= current + WHEEL_SLOTS; slot++) {
+            for (Handle e = wheel[(int) (slot & (WHEEL_SLOTS - 1))]; e != null; e = e.next) {
+                if (e.slotIndex <= slot) return slot;
+            }
+        }
+        // Todas vencen después de una vuelta: se vuelve a mirar dentro de una vuelta
+        return current + WHEEL_SLOTS;
+    }
+
+    private long slotOf(long nanos) {
+        return Math.floorDiv(nanos, resolutionNanos);
+    }
+
+    private void addToWheel(Handle h) {
+        wheelCount++;
+        long slot = slotOf(h.deadline);
+        if (slot <= processedSlot) slot = processedSlot + 1;
+        h.slotIndex = slot;
+
+        int i = (int) (slot & (WHEEL_SLOTS - 1));
+        h.next = wheel[i];
+        wheel[i] = h;
+    }
+
+    private void dispatch(Handle list, int count) {
+        Batch batch = freeBatch();
+        if (batch.rooms.length < count) batch.rooms = new Handle[Math.max(count, batch.rooms.length * 2)];
+        int n = 0;
+        for (Handle h = list; h != null; ) {
+            Handle following = h.next;
+            h.next = null;
+            batch.rooms[n++] = h;
+            h = following;
+        }
+        batch.count = n;
+        batch.cursor.set(0);
+        batches.incrementAndGet();
+
+        // Un hilo por tanda de BATCH_CHUNK salas, como mucho uno por hilo del pool
+        batch.launched = Math.min(batch.workers.length, (n + BATCH_CHUNK - 1) / BATCH_CHUNK);
+        for (int i = 0; i < batch.launched; i++) {
+            BatchWorker worker = batch.workers[i];
+            worker.reinitialize();
+            pool.execute(worker);
+        }
+    }
+
+    /** El primer lote cuyos hilos ya terminaron; uno nuevo sólo si todos siguen corriendo. */
+    private Batch freeBatch() {
+        for (int i = 0; i < batchPool.size(); i++) {
+            Batch batch = batchPool.get(i);
+            if (batch.isDone()) return batch;
+        }
+        Batch batch = new Batch(pool.getParallelism());
+        batchPool.add(batch);
+        return batch;
+    }
+
+    /**
+     * Salas que vencieron juntas. Los hilos del lote toman tandas de
+     * BATCH_CHUNK de un cursor compartido: el que termina antes toma más,
+     * así una sala lenta no frena a las demás.
+     */
+    private static final class Batch {
+        Handle[] rooms = new Handle[64];
+        int count;
+        int launched;
+        final AtomicInteger cursor = new AtomicInteger();
+        final BatchWorker[] workers;
+
+        Batch(int parallelism) {
+            workers = new BatchWorker[Math.max(1, parallelism)];
+            for (int i = 0; i < workers.length; i++) workers[i] = new BatchWorker(this);
+        }
+
+        boolean isDone() {
+            for (int i = 0; i < launched; i++) {
+                if (!workers[i].isDone()) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class BatchWorker extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Batch batch;
+
+        BatchWorker(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        protected void compute() {
+            Batch b = batch;
+            int i;
+            while ((i = b.cursor.getAndAdd(BATCH_CHUNK)) < b.count) {
+                int end = Math.min(b.count, i + BATCH_CHUNK);
+                for (; i < end; i++) {
+                    Handle h = b.rooms[i];
+                    b.rooms[i] = null; // no retener salas canceladas hasta el próximo uso
+                    h.run();
+                }
+            }
+        }
+    }
+
+    // ===== STATS =====
+
+    /** Salas registradas y no canceladas (activas o inactivas). */
+    public int getRoomCount() {
+        return activeRooms.get();
+    }
+
+    public long getTickCount() {
+        return ticks.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** Ticks que arrancaron más de una ranura después de su deadline. */
+    public long getLateTickCount() {
+        return lateTicks.get();
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /** Publica las estadísticas del planificador como gauges en el registro. */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("scheduler_rooms", "Salas registradas en el planificador", this::getRoomCount);
+        registry.gauge("scheduler_ticks_total", "Ticks ejecutados por el planificador", this::getTickCount);
+        registry.gauge("scheduler_batches_total", "Lotes despachados al pool", this::getBatchCount);
+        registry.gauge("scheduler_late_ticks_total", "Ticks que arrancaron tarde", this::getLateTickCount);
+        registry.gauge("scheduler_steals_total", "Tareas robadas entre hilos del pool", pool::getStealCount);
+    }
+}
@@ -0,0 +1,124 @@
+// =====================================================
+// ARCHIVO: RuedaTimeouts.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Rueda de tiempos (hashed timing wheel) para el timeout de las sesiones.
+ *
+ * Cada ranura cubre resolucionMs y guarda una lista doblemente enlazada
+ * intrusiva (los enlaces viven en Jugador: sin nodos ni basura). Refrescar
+ * una sesión es sólo actualizar Jugador.ultimoPaqueteMs: cuando su ranura
+ * vence se mira el vencimiento real y, si recibió algo, se la vuelve a
+ * colgar más adelante. Así cada sesión cuesta O(1) amortizado por período
+ * de timeout, en vez de recorrer todas las sesiones en cada revisión.
+ */
+final class RuedaTimeouts {
+
+    interface AlVencer {
+        void vencio(Jugador j);
+    }
+
+    private final long timeoutMs;
+    private final long resolucionMs;
+    private final Jugador[] ranuras;
+    private final int mascara;
+
+    // Última ranura (absoluta: ms / resolucionMs) ya procesada
+    private long ranuraProcesada = -1;
+    private int cantidad = 0;
+
+    RuedaTimeouts(long timeoutMs, long resolucionMs) {
+        this.timeoutMs = timeoutMs;
+        this.resolucionMs = resolucionMs;
+
+        // Alcanza para un timeout completo sin dar la vuelta
+        long necesarias = timeoutMs / resolucionMs + 2;
+        int n = 1;
+        while (n < necesarias) n <<= 1;
+        ranuras = new Jugador[n];
+        mascara = n - 1;
+    }
+
+    int cantidad() {
+        return cantidad;
+    }
+
+    /** Empieza a vigilar la sesión (vence en ultimoPaqueteMs + timeout). */
+    void agregar(Jugador j) {
+        if (j.ranuraRueda >= 0) return;
+        colgar(j, j.ultimoPaqueteMs + timeoutMs);
+        cantidad++;
+    }
+
+    void quitar(Jugador j) {
+        if (j.ranuraRueda < 0) return;
+        descolgar(j);
+        cantidad--;
+    }
+
+    /**
+     * Procesa las ranuras hasta ahora: las sesiones vencidas salen de la
+     * rueda y se pasan a alVencer; las que se refrescaron se reubican.
+     */
+    void vencer(long ahora, AlVencer alVencer) {
+        long hasta = ahora / resolucionMs;
+        if (ranuraProcesada < 0) ranuraProcesada = hasta - 1;
+
+        // Si pasó más de una vuelta alcanza con recorrer cada ranura una vez
+        long desde = Math.max(ranuraProcesada + 1, hasta - mascara);
+
+        for (long r = desde; r <= hasta; r++) {
+            ranuraProcesada = r;
+            int i = (int) (r & mascara);
+
+            Jugador j;
+            while ((j = ranuras[i]) != null) {
+                descolgar(j);
+
+                long vence = j.ultimoPaqueteMs + timeoutMs;
+                if (vence < ahora) {
+                    cantidad--;
+                    alVencer.vencio(j);
+                } else {
+                    colgar(j, vence); // recibió algo: más adelante
+                }
+            }
+        }
+        ranuraProcesada = hasta;
+    }
+
+    // -------------------------
+    // Listas intrusivas
+    // -------------------------
+    private void colgar(Jugador j, long vence) {
+        long r = vence / resolucionMs;
+        // nunca en una ranura ya procesada ni más allá de una vuelta
+        if (ranuraProcesada >= 0) {
+            if (r <= ranuraProcesada) r = ranuraProcesada + 1;
+            if (r > ranuraProcesada + mascara) r = ranuraProcesada + mascara;
+        }
+
+        int i = (int) (r & mascara);
+        Jugador cabeza = ranuras[i];
+        j.anteriorRueda = null;
+        j.siguienteRueda = cabeza;
+        if (cabeza != null) cabeza.anteriorRueda = j;
+        ranuras[i] = j;
+        j.ranuraRueda = i;
+    }
+
+    private void descolgar(Jugador j) {
+        if (j.anteriorRueda != null) {
+            j.anteriorRueda.siguienteRueda = j.siguienteRueda;
+        } else {
+            ranuras[j.ranuraRueda] = j.siguienteRueda;
+        }
+        if (j.siguienteRueda != null) j.siguienteRueda.anteriorRueda = j.anteriorRueda;
+
+        j.anteriorRueda = null;
+        j.siguienteRueda = null;
+        j.ranuraRueda = -1;
+    }
+}
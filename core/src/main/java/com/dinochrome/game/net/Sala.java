@@ -0,0 +1,204 @@
+// =====================================================
+// ARCHIVO: Sala.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.ArrayList;
+
+/**
+ * Una partida de 2 jugadores dentro del servidor UDP.
+ * Cada sala tiene sus propios jugadores, estado de lobby y línea de
+ * obstáculos, así un solo proceso puede alojar miles de partidas independientes.
+ * Además de los 2 jugadores, una sala puede tener espectadores de sólo lectura.
+ */
+class Sala {
+
+    static final int CAPACIDAD = 2;
+
+    // Resolución de la línea de obstáculos (ticks desde el START)
+    static final int TICKS_POR_SEGUNDO = 60;
+
+    static final int MAX_ESPECTADORES = 512;
+
+    int id;
+
+    // índice = id del jugador - 1
+    final Jugador[] jugadores = new Jugador[CAPACIDAD];
+    int cantidad = 0;
+
+    // Espectadores (orden sin importancia: se sacan cambiando por el último)
+    final ArrayList<Jugador> espectadores = new ArrayList<>();
+    // Cuántos espectadores hay de cada protocolo (para codificar sólo lo necesario)
+    int espectadoresTexto = 0;
+    int espectadoresBinario = 0;
+
+    boolean partidaIniciada = false;
+
+    // Obstáculos: línea determinística con semilla propia por partida
+    final LineaObstaculos linea = new LineaObstaculos(LineaObstaculos.Perfil.UDP, TICKS_POR_SEGUNDO);
+    long inicioPartidaMs = 0;
+    long proximoLoteMs = 0;
+
+    // Simulación autoritativa: obstáculos en pantalla y último tick simulado
+    final ObstaculosVivos vivos = new ObstaculosVivos(TICKS_POR_SEGUNDO);
+    int tickSimulado = 0;
+
+    // Está en la cola de partida rápida esperando un segundo jugador, en su balde
+    boolean enCola = false;
+    int balde = 0;
+
+    // Sala de amigos (JOIN;code=N): no pasa por la cola. 0 = partida rápida
+    int codigo = 0;
+
+    // AgendaSalas: próximo evento de la partida y posición en el heap (-1 = fuera)
+    long vencimientoAgenda;
+    int posAgenda = -1;
+
+    /** Deja la sala lista para reutilizarla (evita basura al crear/destruir salas). */
+    void reiniciar(int nuevoId) {
+        id = nuevoId;
+        for (int i = 0; i < CAPACIDAD; i++) jugadores[i] = null;
+        cantidad = 0;
+        soltarEspectadores();
+        partidaIniciada = false;
+        enCola = false;
+        codigo = 0;
+    }
+
+    /** Arranca la partida con una semilla nueva para la línea de obstáculos. */
+    void iniciarPartida(long semilla, long ahora) {
+        partidaIniciada = true;
+        linea.reiniciar(semilla);
+        inicioPartidaMs = ahora;
+        proximoLoteMs = ahora;
+        vivos.limpiar();
+        tickSimulado = 0;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            if (jugadores[i] != null) jugadores[i].muerto = false;
+        }
+    }
+
+    int tickEn(long ahoraMs) {
+        return (int) ((ahoraMs - inicioPartidaMs) * TICKS_POR_SEGUNDO / 1000);
+    }
+
+    long msDeTick(int tick) {
+        return inicioPartidaMs + (tick * 1000L + TICKS_POR_SEGUNDO - 1) / TICKS_POR_SEGUNDO;
+    }
+
+    /** Hay alguien (jugador o espectador) que recibe este protocolo. */
+    boolean hayDestinosVersion(int version) {
+        if (espectadoresVersion(version) > 0) return true;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            if (jugadores[i] != null && jugadores[i].version == version) return true;
+        }
+        return false;
+    }
+
+    int espectadoresVersion(int version) {
+        return version == ProtocoloBinario.VERSION ? espectadoresBinario : espectadoresTexto;
+    }
+
+    boolean llena() {
+        return cantidad >= CAPACIDAD;
+    }
+
+    boolean vacia() {
+        return cantidad == 0;
+    }
+
+    /** Agrega al jugador en el primer lugar libre y le asigna el id. */
+    void agregar(Jugador j) {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            if (jugadores[i] == null) {
+                jugadores[i] = j;
+                j.id = i + 1;
+                j.sala = this;
+                cantidad++;
+                reiniciarBasesDelta();
+                return;
+            }
+        }
+        throw new IllegalStateException("Sala " + id + " llena");
+    }
+
+    void quitar(Jugador j) {
+        int i = j.id - 1;
+        if (i >= 0 && i < CAPACIDAD && jugadores[i] == j) {
+            jugadores[i] = null;
+            cantidad--;
+            reiniciarBasesDelta();
+        }
+        j.sala = null;
+    }
+
+    boolean agregarEspectador(Jugador e) {
+        if (espectadores.size() >= MAX_ESPECTADORES) return false;
+
+        e.espectador = true;
+        e.id = 0;
+        e.sala = this;
+        e.indiceEspectador = espectadores.size();
+        espectadores.add(e);
+        if (e.version == ProtocoloBinario.VERSION) espectadoresBinario++;
+        else espectadoresTexto++;
+        return true;
+    }
+
+    void quitarEspectador(Jugador e) {
+        int i = e.indiceEspectador;
+        if (i >= 0 && i < espectadores.size() && espectadores.get(i) == e) {
+            Jugador ultimo = espectadores.remove(espectadores.size() - 1);
+            if (ultimo != e) {
+                espectadores.set(i, ultimo);
+                ultimo.indiceEspectador = i;
+            }
+            if (e.version == ProtocoloBinario.VERSION) espectadoresBinario--;
+            else espectadoresTexto--;
+        }
+        e.indiceEspectador = -1;
+        e.sala = null;
+    }
+
+    /** La sala se recicla: los espectadores quedan sin sala (ver Jugador.sala). */
+    void soltarEspectadores() {
+        for (int i = 0; i < espectadores.size(); i++) {
+            Jugador e = espectadores.get(i);
+            e.indiceEspectador = -1;
+            e.sala = null;
+        }
+        espectadores.clear();
+        espectadoresTexto = 0;
+        espectadoresBinario = 0;
+    }
+
+    /** Cambió el rival: las bases confirmadas del anterior ya no sirven. */
+    private void reiniciarBasesDelta() {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            if (jugadores[i] != null) jugadores[i].ackEstadoOtro = -1;
+        }
+    }
+
+    Jugador otro(Jugador j) {
+        int otroId = (j.id == 1) ? 2 : 1;
+        return jugadores[otroId - 1];
+    }
+
+    boolean ambosListos() {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            Jugador j = jugadores[i];
+            if (j == null || !j.listo) return false;
+        }
+        return true;
+    }
+
+    /** Si alguien se fue (o la partida terminó), el lobby vuelve a empezar. */
+    void volverAlLobby() {
+        partidaIniciada = false;
+        vivos.limpiar();
+        for (int i = 0; i < CAPACIDAD; i++) {
+            if (jugadores[i] != null) jugadores[i].listo = false;
+        }
+    }
+}
@@ -5,403 +5,1526 @@
 package com.dinochrome.game.net;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
-
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Servidor UDP de partidas de 2 jugadores.
+ *
+ * Con --shards=N se abren N sockets en el mismo puerto con SO_REUSEPORT,
+ * cada uno con su hilo y su propia instancia (salas, sesiones, rueda de
+ * timeouts). El kernel reparte los datagramas por dirección de origen, así
+ * cada cliente cae siempre en el mismo shard y el estado de cada shard
+ * sigue siendo de un solo hilo. Los jugadores sólo se emparejan dentro de
+ * su shard.
+ *
+ * Emparejamiento: cada JOIN completa la sala que espera hace más tiempo en
+ * su balde (--skill-bucket / --ping-bucket con los campos skill y ping del
+ * JOIN) o abre una nueva, en O(1). En una sala llena, quien no manda READY
+ * en TIMEOUT_READY_MS se saca y el otro vuelve a la cola.
+ *
+ * JOIN;code=N es una sala de amigos: los que mandan el mismo código juegan
+ * juntos (con shards, sólo si el kernel los manda al mismo shard).
+ *
+ * Con --record=archivo cada shard graba lo que recibe y manda (ver
+ * MatchRecorder); MatchReplay lo vuelve a pasar por procesarMensaje.
+ *
+ * Un cliente v2 que manda "JOIN;v=2;reliable=1" recibe los mensajes de
+ * control por un canal confiable (ver CanalConfiable) en vez de por
+ * duplicado.
+ *
+ * Con --directory=host:puerto el proceso reporta cada segundo sus salas
+ * libres y su carga a DirectorioSalas, que reparte los JOIN entre nodos.
+ */
 public class ServidorDinoMultijugador {
 
     // -------------------------
     // Config
     // -------------------------
     private static final int PUERTO = 4321;
-    private static final int MAX_JUGADORES = 2;
 
-    // Mundo (tiene que coincidir con la pantalla)
-    private static final int ANCHO = 800;
-    private static final float Y_SUELO = 40f;
+    // Cuántas partidas de 2 jugadores puede alojar el proceso (entre todos los shards)
+    private static final int MAX_SALAS = 4096;
 
-    // Obstáculos
-    private static final long MS_ENTRE_SPAWNS_MIN = 900;
-    private static final long MS_ENTRE_SPAWNS_MAX = 1600;
+    private static final String FLAG_SHARDS = "--shards=";
+    private static final String FLAG_PUERTO = "--port=";
+    private static final String FLAG_DIRECTORIO = "--directory=";
+    private static final String FLAG_PUERTO_METRICAS = "--metrics-port=";
+    private static final String FLAG_GRABAR = "--record=";
+    private static final String FLAG_BALDE_HABILIDAD = "--skill-bucket=";
+    private static final String FLAG_BALDE_PING = "--ping-bucket=";
+
+    // Obstáculos: ventana que se manda por adelantado (v2) y cada cuánto se reenvía
+    private static final int VENTANA_OBSTACULOS_TICKS = 5 * Sala.TICKS_POR_SEGUNDO;
+    private static final long INTERVALO_LOTE_MS = 1000;
+
+    // actualizarObstaculos: la partida terminó y la sala sale de la agenda
+    private static final long PARTIDA_TERMINADA = -1;
 
     // Timeout de jugador (si no manda nada, lo sacamos)
     // Señor: con 5s va bien para pruebas. Si querés más tolerancia: 8000 o 10000.
     private static final long TIMEOUT_JUGADOR_MS = 5000;
 
+    // Con la sala llena, cuánto se espera el READY de cada uno
+    private static final long TIMEOUT_READY_MS = 15000;
+
+    // Resolución de la rueda de timeouts: cada cuánto se vencen sesiones
+    // (sólo se miran las de la ranura que vence, nunca todas)
+    private static final long INTERVALO_REVISION_TIMEOUTS_MS = 250;
+
+    // Cada cuánto se rearma la respuesta al descubrimiento v2 (carga, salas libres)
+    private static final long INTERVALO_DESCUBRIMIENTO_MS = 1000;
+
+    // Cada cuánto se reporta al directorio (DirectorioSalas olvida al nodo a los 3 s)
+    private static final long INTERVALO_REPORTE_MS = 1000;
+
+    // Tamaño máximo de datagrama que manejamos
+    private static final int TAM_BUFFER = 2048;
+
+    // Direcciones con número de sesión en la grabación; al pasarse se olvidan las que no tienen sesión
+    private static final int MAX_SESIONES_GRABADAS = 1 << 16;
+
+    // Estados propios que se recuerdan como base para el delta de STATE
+    private static final int FRAMES_HISTORIAL_ESTADO = 32;
+
     // -------------------------
-    // Estado del servidor
+    // Métricas (las comparten todos los shards del proceso)
     // -------------------------
-    private final DatagramSocket socket;
+    private static final MetricsRegistry METRICAS = MetricsRegistry.global();
+    private static final Counter DATAGRAMAS_RECIBIDOS =
+        METRICAS.counter("udp_datagrams_received_total", "Datagramas recibidos");
+    private static final Counter BYTES_RECIBIDOS =
+        METRICAS.counter("udp_bytes_received_total", "Bytes recibidos");
+    private static final Counter DATAGRAMAS_ENVIADOS =
+        METRICAS.counter("udp_datagrams_sent_total", "Datagramas enviados");
+    private static final Counter BYTES_ENVIADOS =
+        METRICAS.counter("udp_bytes_sent_total", "Bytes enviados");
+    private static final Counter ENVIOS_DESCARTADOS =
+        METRICAS.counter("udp_send_dropped_total", "Datagramas descartados por buffer del socket lleno o error");
+    private static final Counter ESTADOS_INVALIDOS =
+        METRICAS.counter("udp_state_parse_failures_total", "STATE mal formados (parsearEstado devolvió false)");
+    private static final Counter MENSAJES_DESCONOCIDOS =
+        METRICAS.counter("udp_unknown_messages_total", "Mensajes no reconocidos");
+    private static final Counter MENSAJES_SIN_JOIN =
+        METRICAS.counter("udp_no_join_messages_total", "Mensajes de direcciones sin JOIN");
+    private static final Counter PARTIDAS_TERMINADAS =
+        METRICAS.counter("udp_matches_finished_total", "Partidas terminadas por un choque");
+    private static final Counter EMPAREJADOS =
+        METRICAS.counter("udp_matchmaking_pairs_total", "JOINs que completaron una sala de la cola");
+    private static final Counter CAMBIOS_DIRECCION =
+        METRICAS.counter("udp_session_rebinds_total", "Sesiones que siguieron desde otra dirección (SESION)");
+    private static final Counter REENVIOS_CONFIABLES =
+        METRICAS.counter("udp_reliable_retransmits_total", "Mensajes de control reenviados por falta de ack");
+    private static final Counter CONFIABLES_ABANDONADOS =
+        METRICAS.counter("udp_reliable_abandoned_total", "Mensajes de control abandonados (sin ack tras MAX_INTENTOS o ventana llena)");
+    private static final Counter CONFIABLES_REPETIDOS =
+        METRICAS.counter("udp_reliable_duplicates_total", "Frames CONFIABLE del cliente recibidos más de una vez");
+    private static final Counter SIN_READY =
+        METRICAS.counter("udp_ready_timeouts_total", "Jugadores sacados por no mandar READY a tiempo");
+    private static final Counter SESIONES =
+        METRICAS.upDown("udp_sessions", "Sesiones abiertas (jugadores y espectadores)");
+    private static final Counter SALAS_ACTIVAS =
+        METRICAS.upDown("udp_rooms", "Salas con al menos un jugador");
+    private static final LatencyHistogram LATENCIA_RELAY =
+        METRICAS.histogram("udp_state_relay_latency_nanos", "Desde que se recibe un STATE hasta que se reenvió a la sala");
+    private static final LatencyHistogram DURACION_EVENTOS =
+        METRICAS.histogram("udp_event_pass_nanos", "Duración de cada pasada de timeouts y obstáculos");
 
-    // Jugadores conectados (SocketAddress -> jugador)
+    // -------------------------
+    // Estado del servidor
+    // -------------------------
+    private final DatagramChannel canal;
+    private final Selector selector;
+
+    // Salas que puede abrir esta instancia (MAX_SALAS repartido entre shards)
+    private final int maxSalas;
+
+    // Buffers directos reutilizados (sin basura por paquete)
+    private final ByteBuffer bufferRecepcion = ByteBuffer.allocateDirect(TAM_BUFFER);
+
+    // El mismo mensaje codificado en cada versión del protocolo;
+    // cada jugador recibe el que negoció en el JOIN
+    private final ByteBuffer bufferTexto = ByteBuffer.allocateDirect(TAM_BUFFER);
+    private final ByteBuffer bufferBinario = ByteBuffer.allocateDirect(TAM_BUFFER);
+
+    // Momento (nanoTime) en que se recibió el datagrama que se está procesando
+    private long recibidoNanos;
+
+    // Reloj (ms) del mensaje que se está procesando: se lee una sola vez por mensaje
+    private long ahoraMs;
+
+    // Respuesta a BUSCAR_SERVIDOR;v=2 ya codificada: una avalancha de
+    // descubrimientos sólo copia bytes (se rearma en la pasada de eventos)
+    private final ByteBuffer respuestaDescubrimiento = ByteBuffer.allocateDirect(128);
+    private long proximoDescubrimientoMs = 0;
+    private int idServidor;
+    private boolean hayIdServidor = false;
+
+    // Carga del loop: tiempo esperando en el select desde la última medición
+    private long esperaNanos = 0;
+    private long inicioMedicionNanos;
+    private IntSupplier carga = this::medirCarga;
+
+    // Lo último que se anunció, para el reporte al directorio desde el hilo principal
+    private volatile int libresPublicadas;
+    private volatile int esperandoPublicados;
+    private volatile int cargaPublicada;
+
+    // Mensajes de control con cabecera CONFIABLE (uno por destinatario) y sus reenvíos
+    private final ByteBuffer bufferConfiable = ByteBuffer.allocateDirect(TAM_BUFFER);
+    // Jugadores con mensajes confiables sin confirmar (sólo esos se miran en cada pasada)
+    private final ArrayList<Jugador> conReenvios = new ArrayList<>();
+    // Jugador al que se le debe el ack de lo que mandó en el mensaje actual
+    private Jugador ackPorEnviar;
+
+    // Obstáculo reutilizado al codificar OBST de texto
+    private final Obstaculo obstaculo = new Obstaculo();
+
+    private static final byte[] CAMPO_VERSION = ProtocoloTexto.ascii("v");
+    private static final byte[] CAMPO_SALA = ProtocoloTexto.ascii("sala");
+    private static final byte[] CAMPO_HABILIDAD = ProtocoloTexto.ascii("skill");
+    private static final byte[] CAMPO_PING = ProtocoloTexto.ascii("ping");
+    private static final byte[] CAMPO_CODIGO = ProtocoloTexto.ascii("code");
+    private static final byte[] CAMPO_CONFIABLE = ProtocoloTexto.ascii("reliable");
+
+    // Jugadores y espectadores conectados (SocketAddress -> sesión), de todas las salas
     private final Map<SocketAddress, Jugador> jugadoresPorAddr = new HashMap<>();
 
-    private boolean partidaIniciada = false;
+    // Jugadores por id de sesión (frames con SESION: sin hashear la dirección y tolerando que cambie)
+    private final TablaSesiones sesiones = new TablaSesiones();
+    // Los ids salen de un contador mezclado con esta clave: únicos y difíciles de adivinar
+    private long claveSesiones;
+    private boolean hayClaveSesiones = false;
+    private int contadorSesiones = 0;
+
+    // Vencimiento de sesiones: se refrescan con ultimoPaqueteMs
+    private final RuedaTimeouts rueda = new RuedaTimeouts(TIMEOUT_JUGADOR_MS, INTERVALO_REVISION_TIMEOUTS_MS);
+    private final RuedaTimeouts.AlVencer alVencer = this::sesionVencida;
+
+    // Salas activas (id -> sala)
+    private final Map<Integer, Sala> salas = new HashMap<>();
+
+    // Salas con un solo jugador esperando rival (partida rápida, por balde)
+    private ColaEmparejamiento<Sala> cola = new ColaEmparejamiento<>(0, 0);
+
+    // Salas de amigos abiertas (código -> sala)
+    private final Map<Integer, Sala> salasPrivadas = new HashMap<>();
+
+    // Salas vacías para reutilizar
+    private final ArrayDeque<Sala> salasLibres = new ArrayDeque<>();
 
-    // Para spawnear obstáculos
-    private final Random random = new Random();
-    private long proximoSpawnMs = 0;
+    // Salas en juego o esperando READY, ordenadas por su próximo evento
+    private final AgendaSalas agenda = new AgendaSalas();
+
+    // Los ids de sala no se repiten entre shards: shard + 1, + shards, ...
+    private int proximoIdSala;
+    private final int pasoIdSala;
+
+    // Próximo momento en que el loop tiene que despertarse aunque no lleguen paquetes
+    private long proximoEventoMs = 0;
+    private long proximaRevisionTimeoutsMs = 0;
+
+    // Reloj (ms) y semillas de la línea de obstáculos de cada partida:
+    // el replay los reemplaza por los de la grabación
+    private LongSupplier reloj = System::currentTimeMillis;
+    private LongSupplier semillas = new Random()::nextLong;
+
+    // Grabación (null = no se graba). Cada dirección se graba como un número de sesión
+    private MatchRecorder grabador;
+    private final Map<SocketAddress, Integer> sesionesGrabadas = new HashMap<>();
+    private int ultimaSesionGrabada = 0;
+
+    // Replay: lo que se mandaría al socket va acá
+    private BiConsumer<SocketAddress, ByteBuffer> salidaReplay;
 
     // -------------------------
-    // Tipos internos
+    // Constructor / main
     // -------------------------
-    private static class Jugador {
-        int id; // 1 o 2
-        SocketAddress addr;
-        boolean listo;
+    public ServidorDinoMultijugador() throws IOException {
+        this(0, 1);
+    }
+
+    /** Un shard de un servidor con shards sockets en el mismo puerto. */
+    public ServidorDinoMultijugador(int shard, int shards) throws IOException {
+        this(PUERTO, shard, shards);
+    }
+
+    /** Con otro puerto (0 = cualquiera libre, lo usan los benchmarks). */
+    ServidorDinoMultijugador(int puerto, int shard, int shards) throws IOException {
+        if (shards <= 0 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("shard " + shard + " de " + shards);
+        }
+        this.maxSalas = Math.max(1, MAX_SALAS / shards);
+        this.proximoIdSala = shard + 1;
+        this.pasoIdSala = shards;
+
+        canal = DatagramChannel.open();
+        canal.configureBlocking(false);
+        if (shards > 1) activarReusePort(canal);
+        canal.bind(new InetSocketAddress(puerto));
+
+        selector = Selector.open();
+        canal.register(selector, SelectionKey.OP_READ);
+
+        if (shards > 1) {
+            System.out.println("Servidor Dino shard " + shard + "/" + shards + " escuchando en UDP puerto " + puerto);
+        } else {
+            System.out.println("Servidor Dino escuchando en UDP puerto " + puerto);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int shards = 1;
+        int puerto = PUERTO;
+        String directorio = null;
+        int puertoMetricas = 0;
+        String grabacion = null;
+        int anchoHabilidad = 0;
+        int anchoPing = 0;
+        for (String arg : args) {
+            if (arg.startsWith(FLAG_SHARDS)) shards = Integer.parseInt(arg.substring(FLAG_SHARDS.length()));
+            if (arg.startsWith(FLAG_PUERTO)) puerto = Integer.parseInt(arg.substring(FLAG_PUERTO.length()));
+            if (arg.startsWith(FLAG_DIRECTORIO)) directorio = arg.substring(FLAG_DIRECTORIO.length());
+            if (arg.startsWith(FLAG_PUERTO_METRICAS)) puertoMetricas = Integer.parseInt(arg.substring(FLAG_PUERTO_METRICAS.length()));
+            if (arg.startsWith(FLAG_GRABAR)) grabacion = arg.substring(FLAG_GRABAR.length());
+            if (arg.startsWith(FLAG_BALDE_HABILIDAD)) anchoHabilidad = Integer.parseInt(arg.substring(FLAG_BALDE_HABILIDAD.length()));
+            if (arg.startsWith(FLAG_BALDE_PING)) anchoPing = Integer.parseInt(arg.substring(FLAG_BALDE_PING.length()));
+        }
+        if (shards < 1) throw new IllegalArgumentException("--shards tiene que ser >= 1");
+
+        // Métricas: JMX siempre, HTTP local sólo si se pide un puerto
+        MetricsExporter.registerJmx(METRICAS);
+        if (puertoMetricas > 0) MetricsExporter.startHttp(METRICAS, puertoMetricas);
+
+        if (shards > 1 && opcionReusePort() == null) {
+            System.out.println("SO_REUSEPORT no está disponible en esta JVM/SO: se usa un solo shard");
+            shards = 1;
+        }
+        if (grabacion != null) System.out.println("Grabando en " + grabacion + (shards > 1 ? ".shardN" : ""));
+
+        if (shards == 1 && directorio == null) {
+            ServidorDinoMultijugador servidor = new ServidorDinoMultijugador(puerto, 0, 1);
+            servidor.emparejarPorBaldes(anchoHabilidad, anchoPing);
+            if (grabacion != null) servidor.grabarEn(new MatchRecorder(Paths.get(grabacion), MatchRecorder.KIND_UDP));
+            servidor.loop();
+            return;
+        }
+
+        // Se abren todos los sockets antes de arrancar, así un error de bind corta el inicio
+        ServidorDinoMultijugador[] servidores = new ServidorDinoMultijugador[shards];
+        for (int i = 0; i < shards; i++) {
+            servidores[i] = new ServidorDinoMultijugador(puerto, i, shards);
+            servidores[i].emparejarPorBaldes(anchoHabilidad, anchoPing);
+            // una grabación por shard: cada una tiene un solo escritor
+            if (grabacion != null) {
+                String archivo = shards > 1 ? grabacion + ".shard" + i : grabacion;
+                servidores[i].grabarEn(new MatchRecorder(Paths.get(archivo), MatchRecorder.KIND_UDP));
+            }
+        }
 
-        float x, y;
-        boolean duck;
-        long ultimoPaqueteMs;
+        Thread[] hilos = new Thread[shards];
+        for (int i = 0; i < shards; i++) {
+            hilos[i] = new Thread(servidores[i]::loop, "Dino-shard-" + i);
+            hilos[i].start();
+        }
+        if (directorio != null) reportarAlDirectorio(servidores, puerto, DirectorioSalas.direccion(directorio));
+        for (Thread hilo : hilos) hilo.join();
+    }
+
+    /**
+     * Reporta el proceso entero como un nodo: las salas libres y los que
+     * esperan rival de todos los shards, y la carga del shard más ocupado.
+     * No vuelve (corre en el hilo principal mientras los shards atienden).
+     */
+    private static void reportarAlDirectorio(ServidorDinoMultijugador[] servidores, int puerto,
+                                             InetSocketAddress directorio) throws IOException, InterruptedException {
+        System.out.println("Reportando al directorio " + directorio);
+        try (DirectorioSalas.Reportero reportero = new DirectorioSalas.Reportero(directorio)) {
+            while (true) {
+                int libres = 0;
+                int esperando = 0;
+                int carga = 0;
+                for (ServidorDinoMultijugador s : servidores) {
+                    libres += s.libresPublicadas;
+                    esperando += s.esperandoPublicados;
+                    carga = Math.max(carga, s.cargaPublicada);
+                }
+                reportero.reportarUdp(puerto, libres, esperando, carga);
+                Thread.sleep(INTERVALO_REPORTE_MS);
+            }
+        }
+    }
+
+    /**
+     * Sólo se empareja con quien cae en el mismo balde de habilidad (ancho en
+     * puntos) y de ping (ancho en ms); 0 = ese criterio no cuenta. Antes de loop().
+     */
+    public void emparejarPorBaldes(int anchoHabilidad, int anchoPingMs) {
+        cola = new ColaEmparejamiento<>(anchoHabilidad, anchoPingMs);
     }
 
-    private static class EstadoJugador {
-        int id;
-        float x;
-        float y;
-        boolean duck;
+    /** Graba todo lo que entra y sale de este shard. Antes de loop(). */
+    public void grabarEn(MatchRecorder grabador) {
+        this.grabador = grabador;
     }
 
     // -------------------------
-    // Constructor / main
+    // SO_REUSEPORT
     // -------------------------
-    public ServidorDinoMultijugador() throws SocketException {
-        socket = new DatagramSocket(PUERTO);
-        socket.setSoTimeout(200); // loop no bloqueante eterno
-        System.out.println("Servidor Dino escuchando en UDP puerto " + PUERTO);
-        planificarProximoSpawn();
+
+    /**
+     * StandardSocketOptions.SO_REUSEPORT existe desde Java 9; el proyecto
+     * compila para Java 8, así que se busca por reflexión. Null si no está
+     * o si el sistema operativo no lo soporta.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> opcionReusePort() {
+        try {
+            Field campo = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            SocketOption<Boolean> opcion = (SocketOption<Boolean>) campo.get(null);
+
+            try (DatagramChannel prueba = DatagramChannel.open()) {
+                if (!prueba.supportedOptions().contains(opcion)) return null;
+            }
+            return opcion;
+        } catch (ReflectiveOperationException | IOException e) {
+            return null;
+        }
     }
 
-    public static void main(String[] args) throws Exception {
-        new ServidorDinoMultijugador().loop();
+    private static void activarReusePort(DatagramChannel canal) throws IOException {
+        SocketOption<Boolean> opcion = opcionReusePort();
+        if (opcion == null) throw new IOException("SO_REUSEPORT no disponible");
+        canal.setOption(opcion, true);
     }
 
     // -------------------------
     // Loop principal
     // -------------------------
     public void loop() {
-        byte[] buffer = new byte[2048];
-
+        inicioMedicionNanos = System.nanoTime();
         while (true) {
-            long ahora = System.currentTimeMillis();
+            // 1) Esperar paquetes sólo hasta el próximo evento (spawn o revisión)
+            //    (así los spawns no se atrasan por un timeout fijo)
+            try {
+                long espera = proximoEventoMs - reloj.getAsLong();
+                long antesNanos = System.nanoTime();
+                if (espera > 0) {
+                    selector.select(espera);
+                } else {
+                    selector.selectNow();
+                }
+                esperaNanos += System.nanoTime() - antesNanos;
+                selector.selectedKeys().clear();
 
-            // 0) LIMPIAR JUGADORES CAÍDOS (clave para poder reconectar)
-            limpiarJugadoresPorTimeout(ahora);
+                // 2) Vaciar todo lo que llegó
+                recibirPendientes();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
-            // 1) Recibir paquetes (si hay)
-            try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+            long ahora = reloj.getAsLong();
+            if (ahora >= proximoEventoMs) {
+                atenderEventos(ahora);
+            }
+        }
+    }
 
-                String msg = new String(
-                    packet.getData(),
-                    0,
-                    packet.getLength(),
-                    StandardCharsets.UTF_8
-                ).trim();
+    // package-private: el replay repite las pasadas grabadas con el mismo ahora
+    void atenderEventos(long ahora) {
+        long inicioNanos = System.nanoTime();
+        ahoraMs = ahora;
+        if (grabador != null) {
+            grabador.setClock(ahora);
+            grabador.recordEvent(MatchRecorder.EVENT_PASS, 0, 0);
+        }
 
-                SocketAddress addr = packet.getSocketAddress();
+        // 3) LIMPIAR JUGADORES CAÍDOS (clave para poder reconectar)
+        if (ahora >= proximaRevisionTimeoutsMs) {
+            proximaRevisionTimeoutsMs = ahora + INTERVALO_REVISION_TIMEOUTS_MS;
+            rueda.vencer(ahora, alVencer);
+        }
 
-                procesarMensaje(addr, msg);
+        if (ahora >= proximoDescubrimientoMs) refrescarDescubrimiento(ahora);
 
-            } catch (SocketTimeoutException timeout) {
-                // normal
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        long proximo = Math.min(proximaRevisionTimeoutsMs, proximoDescubrimientoMs);
 
-            // 2) Spawnear obstáculos si la partida ya arrancó
-            if (partidaIniciada && ahora >= proximoSpawnMs) {
-                enviarObstaculoATodos(generarObstaculo());
-                planificarProximoSpawn();
+        // 4) Obstáculos: sólo las salas cuyo evento ya venció, todas en la misma pasada
+        Sala sala;
+        while ((sala = agenda.sacarVencida(ahora)) != null) {
+            if (!sala.partidaIniciada) {
+                // 5) Sala llena en el lobby: se venció el READY
+                vencerReady(sala);
+                continue;
             }
+            long vence = actualizarObstaculos(sala, ahora);
+            if (vence == PARTIDA_TERMINADA) {
+                // de vuelta en el lobby: cada uno tiene que volver a mandar READY
+                agenda.programar(sala, ahora + TIMEOUT_READY_MS);
+            } else {
+                agenda.programar(sala, vence);
+            }
+        }
+        if (!agenda.vacia()) proximo = Math.min(proximo, agenda.proximoVencimiento());
+
+        // 6) Mensajes de control sin ack (después de las salas: incluye lo que se mandó recién)
+        if (!conReenvios.isEmpty()) proximo = Math.min(proximo, reenviarConfiables(ahora));
+
+        proximoEventoMs = proximo;
+        DURACION_EVENTOS.record(System.nanoTime() - inicioNanos);
+    }
+
+    private void recibirPendientes() throws IOException {
+        while (true) {
+            bufferRecepcion.clear();
+            SocketAddress addr = canal.receive(bufferRecepcion);
+            if (addr == null) return; // no hay más
+
+            recibidoNanos = System.nanoTime();
+            DATAGRAMAS_RECIBIDOS.increment();
+            BYTES_RECIBIDOS.add(bufferRecepcion.position());
+
+            bufferRecepcion.flip();
+            procesarMensaje(addr, bufferRecepcion);
         }
     }
 
     // -------------------------
     // Procesamiento de mensajes
     // -------------------------
-    private void procesarMensaje(SocketAddress addr, String msg) {
+    // package-private: los benchmarks y el replay le pasan datagramas sin pasar por el socket
+    void procesarMensaje(SocketAddress addr, ByteBuffer datos) {
+        ahoraMs = reloj.getAsLong();
+        if (grabador != null) grabarEntrada(addr, datos);
+
+        procesarFrame(addr, datos);
+
+        // Ack de un CONFIABLE recibido que no viajó en la cabecera de alguna respuesta
+        if (ackPorEnviar != null) {
+            CanalConfiable c = ackPorEnviar.confiable;
+            if (c.ackPendiente) {
+                c.ackPendiente = false;
+                ProtocoloBinario.escribirAckConfiable(bufferConfiable, c.ack(), c.bitsAck());
+                enviarA(ackPorEnviar.addr, bufferConfiable);
+            }
+            ackPorEnviar = null;
+        }
+    }
+
+    private void procesarFrame(SocketAddress addr, ByteBuffer datos) {
+        // Se trabaja sobre los bytes crudos: nada de Strings por paquete
+        int ini = datos.position();
+        int fin = datos.limit();
+        int tipo;
+
+        boolean binario = ProtocoloBinario.esBinario(datos, ini, fin);
+        Jugador porSesion = null;
+        // Id de sesión desde otra dirección: sólo se muda con un frame que pasa los
+        // controles de siempre (un CONFIABLE más nuevo o un STATE válido suyo)
+        boolean otraDireccion = false;
+        if (binario && ProtocoloBinario.tipo(datos, ini) == ProtocoloBinario.SESION) {
+            // Frame con id de sesión: se busca por id y el resto es el frame de siempre
+            porSesion = sesiones.get(ProtocoloBinario.sesion(datos, ini, fin));
+            ini += ProtocoloBinario.LARGO_SESION;
+            binario = ini < fin;
+            otraDireccion = porSesion != null && !porSesion.addr.equals(addr);
+        }
+        if (binario && esCabeceraConfiable(ProtocoloBinario.tipo(datos, ini))) {
+            Jugador emisor = (porSesion != null) ? porSesion : jugadoresPorAddr.get(addr);
+            boolean masNueva = otraDireccion && emisor.confiable != null
+                && ProtocoloBinario.tipo(datos, ini) == ProtocoloBinario.CONFIABLE
+                && ProtocoloBinario.largoCabeceraConfiable(datos, ini, fin) > 0
+                && emisor.confiable.esMasNueva(ProtocoloBinario.secuenciaConfiable(datos, ini));
+            ini = recibirConfiable(emisor, datos, ini, fin);
+            if (masNueva) {
+                cambiarDireccion(emisor, addr);
+                otraDireccion = false;
+            }
+            // repetido, cortado, sin canal o sólo traía acks
+            if (ini < 0 || ini == fin) return;
+        }
+        if (binario) {
+            tipo = tipoDeFrameBinario(datos, ini);
+        } else {
+            ini = ProtocoloTexto.inicioSinEspacios(datos, ini, fin);
+            fin = ProtocoloTexto.finSinEspacios(datos, ini, fin);
+            tipo = ProtocoloTexto.tipo(datos, ini, fin);
+        }
 
         // 0) DESCUBRIMIENTO POR BROADCAST
-        if (msg.equals("BUSCAR_SERVIDOR")) {
-            enviarA(addr, "SERVIDOR_AQUI");
+        if (tipo == ProtocoloTexto.BUSCAR_SERVIDOR) {
+            // v1: "SERVIDOR_AQUI" a secas; v2: la respuesta armada con la carga
+            int version = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_VERSION, ProtocoloTexto.VERSION);
+            if (version != ProtocoloBinario.VERSION) {
+                ProtocoloTexto.escribirTexto(bufferTexto, "SERVIDOR_AQUI");
+                enviarA(addr, bufferTexto);
+                return;
+            }
+            // antes de la primera pasada de eventos (benchmarks) todavía no se armó
+            if (proximoDescubrimientoMs == 0) refrescarDescubrimiento(ahoraMs);
+            respuestaDescubrimiento.position(0);
+            enviarA(addr, respuestaDescubrimiento);
             return;
         }
 
-        // (Opcional) BYE explícito
-        if (msg.equals("BYE")) {
-            desconectarJugador(addr, "BYE");
+        // (Opcional) BYE explícito: con id de sesión se va esa sesión, no quien tenga addr
+        // (si la dirección ya era de otro, cambiarDireccion no la movió)
+        if (tipo == ProtocoloTexto.BYE) {
+            desconectarJugador(porSesion != null ? porSesion.addr : addr, "BYE");
             return;
         }
 
         // 1) JOIN
-        if (msg.equals("JOIN")) {
-            manejarJoin(addr);
+        if (tipo == ProtocoloTexto.JOIN) {
+            // "JOIN;v=2" pide el protocolo binario; "JOIN" sigue en texto
+            int version = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_VERSION, ProtocoloTexto.VERSION);
+            int balde = cola.balde(ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_HABILIDAD, 0),
+                ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_PING, 0));
+            int codigo = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_CODIGO, 0);
+            boolean confiable = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_CONFIABLE, 0) != 0;
+            manejarJoin(addr, version == ProtocoloBinario.VERSION ? ProtocoloBinario.VERSION : ProtocoloTexto.VERSION,
+                balde, codigo, confiable);
             return;
         }
 
-        Jugador j = jugadoresPorAddr.get(addr);
+        // 1b) WATCH: mirar una partida (sala=N) o la primera que esté en juego
+        if (tipo == ProtocoloTexto.WATCH) {
+            int version = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_VERSION, ProtocoloTexto.VERSION);
+            int idSala = ProtocoloTexto.campoEntero(datos, ini, fin, CAMPO_SALA, 0);
+            manejarWatch(addr, version == ProtocoloBinario.VERSION ? ProtocoloBinario.VERSION : ProtocoloTexto.VERSION, idSala);
+            return;
+        }
+
+        Jugador j = (porSesion != null) ? porSesion : jugadoresPorAddr.get(addr);
         if (j == null) {
-            enviarA(addr, "ERROR;msg=Primero manda JOIN");
+            MENSAJES_SIN_JOIN.increment();
+            if (binario) {
+                ProtocoloBinario.escribirError(bufferBinario, ProtocoloBinario.ERROR_SIN_JOIN);
+                enviarA(addr, bufferBinario);
+            } else {
+                ProtocoloTexto.escribirTexto(bufferTexto, "ERROR;msg=Primero manda JOIN");
+                enviarA(addr, bufferTexto);
+            }
             return;
         }
 
         // MUY IMPORTANTE: actualizar último contacto en cualquier mensaje válido
-        j.ultimoPaqueteMs = System.currentTimeMillis();
+        j.ultimoPaqueteMs = ahoraMs;
+
+        // Los espectadores sólo reciben: cualquier otro mensaje les sirve de keepalive
+        if (j.espectador) return;
 
         // 2) READY
-        if (msg.equals("READY")) {
+        if (tipo == ProtocoloTexto.READY) {
             manejarReady(j);
             return;
         }
 
-        // 3) STATE (relay)
-        if (msg.startsWith("STATE;")) {
-            EstadoJugador estado = parsearEstado(msg);
-            if (estado == null) return;
-
-            j.x = estado.x;
-            j.y = estado.y;
-            j.duck = estado.duck;
+        // 3) STATE (relay dentro de la sala)
+        if (tipo == ProtocoloTexto.STATE) {
+            // x/y/duck se decodifican directo en el jugador
+            boolean valido = binario
+                ? ProtocoloBinario.parsearEstado(datos, ini, fin, j)
+                : ProtocoloTexto.parsearEstado(datos, ini, fin, j);
+            if (!valido) {
+                ESTADOS_INVALIDOS.increment();
+                return;
+            }
+            if (otraDireccion && ProtocoloBinario.idEstado(datos, ini) == j.id) cambiarDireccion(j, addr);
 
-            Jugador otro = obtenerOtroJugador(j.id);
+            Sala sala = j.sala;
+            Jugador otro = sala.otro(j);
             if (otro != null) {
-                enviarA(otro.addr, msg);
+                if (otro.usaAcks) {
+                    // el otro confirma lo que recibe: delta contra su base
+                    enviarEstadoDelta(j, otro);
+                } else if (otro.version == j.version) {
+                    // mismo protocolo: reenviamos los mismos bytes recibidos
+                    datos.limit(fin).position(ini);
+                    enviarA(otro.addr, datos);
+                } else {
+                    // protocolos distintos: se recodifica desde los campos del jugador
+                    codificarEstado(j);
+                    enviarCodificado(otro);
+                }
             }
+
+            if (!sala.espectadores.isEmpty()) {
+                enviarEstadoAEspectadores(sala, j, datos, ini, fin, binario);
+            }
+            LATENCIA_RELAY.record(System.nanoTime() - recibidoNanos);
+            return;
+        }
+
+        // 4) ACK de STATE (sólo binario)
+        if (tipo == ProtocoloTexto.ACK_ESTADO) {
+            manejarAckEstado(j, ProtocoloBinario.parsearAck(datos, ini, fin));
             return;
         }
 
-        // 4) Desconocido
-        enviarA(addr, "ERROR;msg=Mensaje no reconocido");
+        // 5) Desconocido
+        MENSAJES_DESCONOCIDOS.increment();
+        ProtocoloTexto.escribirTexto(bufferTexto, "ERROR;msg=Mensaje no reconocido");
+        ProtocoloBinario.escribirError(bufferBinario, ProtocoloBinario.ERROR_DESCONOCIDO);
+        enviarCodificado(j);
+    }
+
+    /** Traduce el tipo de un frame binario a los mismos tipos del protocolo de texto. */
+    private static int tipoDeFrameBinario(ByteBuffer datos, int ini) {
+        switch (ProtocoloBinario.tipo(datos, ini)) {
+            case ProtocoloBinario.STATE:
+                return ProtocoloTexto.STATE;
+            case ProtocoloBinario.READY:
+                return ProtocoloTexto.READY;
+            case ProtocoloBinario.BYE:
+                return ProtocoloTexto.BYE;
+            case ProtocoloBinario.ACK_ESTADO:
+                return ProtocoloTexto.ACK_ESTADO;
+            default:
+                return ProtocoloTexto.DESCONOCIDO;
+        }
     }
 
     // -------------------------
     // JOIN / READY / START
     // -------------------------
-    private void manejarJoin(SocketAddress addr) {
+    private void manejarJoin(SocketAddress addr, int version, int balde, int codigo, boolean confiable) {
 
         // Si ya estaba conectado (misma addr), re-enviamos info
-        if (jugadoresPorAddr.containsKey(addr)) {
-            Jugador j = jugadoresPorAddr.get(addr);
-            j.ultimoPaqueteMs = System.currentTimeMillis();
+        Jugador existente = jugadoresPorAddr.get(addr);
+        if (existente != null && existente.espectador) {
+            // un espectador que ahora quiere jugar deja de mirar
+            olvidarSesion(addr);
+            sacarDeSala(existente);
+            existente = null;
+        }
+        if (existente != null) {
+            existente.ultimoPaqueteMs = ahoraMs;
+            existente.version = version;
+            if (confiable && version == ProtocoloBinario.VERSION && existente.confiable == null) {
+                existente.confiable = new CanalConfiable();
+            }
 
-            enviarA(addr, "ASSIGN;id=" + j.id);
-            enviarA(addr, "COUNT;players=" + jugadoresPorAddr.size());
-            broadcast("COUNT;players=" + jugadoresPorAddr.size());
+            codificarAssign(existente);
+            enviarCodificado(existente);
+            codificarCount(existente.sala.cantidad);
+            if (existente.confiable == null) enviarCodificado(existente);
+            broadcastCodificado(existente.sala);
             return;
         }
 
-        // Si está lleno, no entra
-        if (jugadoresPorAddr.size() >= MAX_JUGADORES) {
-            enviarA(addr, "FULL");
+        Sala sala = (codigo != 0) ? buscarSalaPrivada(codigo) : buscarSalaParaJoin(balde);
+
+        // Si no hay lugar en ninguna sala, no entra
+        if (sala == null) {
+            if (version == ProtocoloBinario.VERSION) {
+                ProtocoloBinario.escribirTipo(bufferBinario, ProtocoloBinario.FULL);
+                enviarA(addr, bufferBinario);
+            } else {
+                ProtocoloTexto.escribirTexto(bufferTexto, "FULL");
+                enviarA(addr, bufferTexto);
+            }
             return;
         }
 
-        int idNuevo = (existeId(1) ? 2 : 1);
-
         Jugador j = new Jugador();
-        j.id = idNuevo;
         j.addr = addr;
+        j.version = version;
         j.listo = false;
-        j.ultimoPaqueteMs = System.currentTimeMillis();
+        j.ultimoPaqueteMs = ahoraMs;
+        j.sesion = nuevaSesion();
+        if (confiable && version == ProtocoloBinario.VERSION) j.confiable = new CanalConfiable();
 
-        jugadoresPorAddr.put(addr, j);
+        sala.agregar(j);
+        registrarSesion(j);
 
-        enviarA(addr, "ASSIGN;id=" + idNuevo);
+        if (sala.llena()) {
+            esperarReady(sala);
+        } else {
+            encolarSalaAbierta(sala);
+        }
+
+        codificarAssign(j);
+        enviarCodificado(j);
 
-        // Mandar COUNT directo y broadcast (UDP puede perderse)
-        enviarA(addr, "COUNT;players=" + jugadoresPorAddr.size());
-        broadcast("COUNT;players=" + jugadoresPorAddr.size());
+        // Mandar COUNT directo y broadcast (UDP puede perderse; con canal confiable basta uno)
+        codificarCount(sala.cantidad);
+        if (j.confiable == null) enviarCodificado(j);
+        broadcastCodificado(sala);
+
+        // El rival de la cola puede estar listo desde antes
+        Jugador rival = sala.otro(j);
+        if (rival != null && rival.listo) {
+            ProtocoloTexto.escribirListo(bufferTexto, rival.id, true);
+            ProtocoloBinario.escribirListo(bufferBinario, rival.id, true);
+            enviarCodificado(j);
+        }
 
-        System.out.println("Jugador conectado id=" + idNuevo + " desde " + addr);
+        System.out.println("Jugador conectado id=" + j.id + " sala=" + sala.id + " v" + version + " desde " + addr);
     }
 
     private void manejarReady(Jugador j) {
+        Sala sala = j.sala;
         j.listo = true;
 
-        broadcast("READY;id=" + j.id + ";value=1");
+        ProtocoloTexto.escribirListo(bufferTexto, j.id, true);
+        ProtocoloBinario.escribirListo(bufferBinario, j.id, true);
+        broadcastCodificado(sala);
 
-        System.out.println("Jugador id=" + j.id + " listo");
+        System.out.println("Jugador id=" + j.id + " sala=" + sala.id + " listo");
 
-        if (jugadoresPorAddr.size() == 2 && ambosListos() && !partidaIniciada) {
-            partidaIniciada = true;
-            broadcast("START");
-            System.out.println("Partida iniciada");
+        if (sala.llena() && sala.ambosListos() && !sala.partidaIniciada) {
+            long ahora = ahoraMs;
+            long semilla = semillas.getAsLong();
+            if (grabador != null) grabador.recordSeed(sala.id, semilla);
+            sala.iniciarPartida(semilla, ahora);
+
+            ProtocoloTexto.escribirTexto(bufferTexto, "START");
+            ProtocoloBinario.escribirTipo(bufferBinario, ProtocoloBinario.START);
+            broadcastCodificado(sala);
+
+            // primer lote de obstáculos enseguida
+            long proximo = actualizarObstaculos(sala, ahora);
+            agenda.programar(sala, proximo);
+            proximoEventoMs = Math.min(proximoEventoMs, proximo);
+            System.out.println("Partida iniciada sala=" + sala.id);
         }
     }
 
     // -------------------------
-    // Timeout / desconexión
+    // Espectadores
     // -------------------------
-    private void limpiarJugadoresPorTimeout(long ahora) {
-        boolean sacoAlguien = false;
+    private void manejarWatch(SocketAddress addr, int version, int idSala) {
+        long ahora = ahoraMs;
+
+        Jugador existente = jugadoresPorAddr.get(addr);
+        if (existente != null && existente.espectador && existente.sala != null
+            && existente.version == version && (idSala == 0 || idSala == existente.sala.id)) {
+            // WATCH repetido = keepalive: sólo se confirma de nuevo
+            existente.ultimoPaqueteMs = ahora;
+            codificarWatching(existente.sala);
+            enviarCodificado(existente);
+            return;
+        }
 
-        Iterator<Map.Entry<SocketAddress, Jugador>> it = jugadoresPorAddr.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<SocketAddress, Jugador> entry = it.next();
-            Jugador j = entry.getValue();
+        // Un jugador (o un espectador de otra sala) deja lo que estaba haciendo
+        if (existente != null) {
+            olvidarSesion(addr);
+            sacarDeSala(existente);
+        }
 
-            if ((ahora - j.ultimoPaqueteMs) > TIMEOUT_JUGADOR_MS) {
-                System.out.println("Jugador id=" + j.id + " timeout. Se elimina (" + entry.getKey() + ")");
-                it.remove();
-                sacoAlguien = true;
+        Sala sala = buscarSalaParaWatch(idSala);
+        if (sala == null) {
+            if (version == ProtocoloBinario.VERSION) {
+                ProtocoloBinario.escribirError(bufferBinario, ProtocoloBinario.ERROR_SIN_PARTIDA);
+                enviarA(addr, bufferBinario);
+            } else {
+                ProtocoloTexto.escribirTexto(bufferTexto, "ERROR;msg=No hay partidas para mirar");
+                enviarA(addr, bufferTexto);
             }
+            return;
         }
 
-        if (sacoAlguien) {
-            // Si alguien se fue, la partida ya no es válida
-            if (jugadoresPorAddr.size() < 2) {
-                partidaIniciada = false;
+        Jugador e = new Jugador();
+        e.addr = addr;
+        e.version = version;
+        e.ultimoPaqueteMs = ahora;
 
-                // También reseteamos "listo" del que queda, para que el lobby sea coherente
-                for (Jugador j : jugadoresPorAddr.values()) {
-                    j.listo = false;
-                }
+        if (!sala.agregarEspectador(e)) {
+            if (version == ProtocoloBinario.VERSION) {
+                ProtocoloBinario.escribirTipo(bufferBinario, ProtocoloBinario.FULL);
+                enviarA(addr, bufferBinario);
+            } else {
+                ProtocoloTexto.escribirTexto(bufferTexto, "FULL");
+                enviarA(addr, bufferTexto);
             }
+            return;
+        }
+        registrarSesion(e);
 
-            // Refrescar lobby
-            broadcast("COUNT;players=" + jugadoresPorAddr.size());
+        codificarWatching(sala);
+        enviarCodificado(e);
+
+        // Si la partida ya arrancó, los binarios reciben ya la ventana de obstáculos
+        if (sala.partidaIniciada && version == ProtocoloBinario.VERSION) {
+            ProtocoloBinario.escribirLoteObstaculos(bufferBinario, sala.linea);
+            enviarA(addr, bufferBinario);
         }
+
+        System.out.println("Espectador sala=" + sala.id + " v" + version + " desde " + addr
+            + " (" + sala.espectadores.size() + " mirando)");
     }
 
-    private void desconectarJugador(SocketAddress addr, String motivo) {
+    /** La sala pedida, o la primera partida en juego (si no, cualquier sala con jugadores). */
+    private Sala buscarSalaParaWatch(int idSala) {
+        if (idSala > 0) return salas.get(idSala);
+
+        Sala enLobby = null;
+        for (Sala s : salas.values()) {
+            if (s.partidaIniciada) return s;
+            if (enLobby == null && !s.vacia()) enLobby = s;
+        }
+        return enLobby;
+    }
+
+    /**
+     * El STATE se codifica una sola vez por protocolo (o se reusan los bytes
+     * recibidos si coincide) y se copia a todos los espectadores de la sala.
+     */
+    private void enviarEstadoAEspectadores(Sala sala, Jugador j, ByteBuffer datos, int ini, int fin, boolean binario) {
+        ByteBuffer texto = null;
+        ByteBuffer bin = null;
+
+        if (sala.espectadoresTexto > 0) {
+            if (binario) {
+                ProtocoloTexto.escribirEstado(bufferTexto, j.id, j.x, j.y, j.duck);
+                texto = bufferTexto;
+            } else {
+                texto = datos;
+            }
+        }
+        if (sala.espectadoresBinario > 0) {
+            if (binario) {
+                bin = datos;
+            } else {
+                ProtocoloBinario.escribirEstado(bufferBinario, j.id, j.x, j.y, j.duck);
+                bin = bufferBinario;
+            }
+        }
+
+        for (int i = 0; i < sala.espectadores.size(); i++) {
+            Jugador e = sala.espectadores.get(i);
+            ByteBuffer b = (e.version == ProtocoloBinario.VERSION) ? bin : texto;
+            if (b == datos) {
+                datos.limit(fin).position(ini);
+            } else {
+                b.position(0);
+            }
+            enviarA(e.addr, b);
+        }
+    }
+
+    // -------------------------
+    // Delta de STATE
+    // -------------------------
+
+    /** Manda el estado de j al otro como delta contra la última base que confirmó. */
+    private void enviarEstadoDelta(Jugador j, Jugador otro) {
+        if (j.historialEstado == null) {
+            j.historialEstado = new HistorialEstados(FRAMES_HISTORIAL_ESTADO, 1);
+        }
+        HistorialEstados historial = j.historialEstado;
+
+        int qx = CompresorDelta.cuantizar(j.x);
+        int qy = CompresorDelta.cuantizar(j.y);
+        int seq = j.secuenciaEstado + 1;
+
+        int baseSlot = historial.buscar(otro.ackEstadoOtro);
+        if (baseSlot < 0) {
+            // sin base (primera vez o se perdió): estado completo
+            ProtocoloBinario.escribirEstadoBase(bufferBinario, j.id, seq, qx, qy, j.duck);
+        } else if (!ProtocoloBinario.escribirEstadoDelta(bufferBinario, seq, otro.ackEstadoOtro,
+            j.id, qx, qy, j.duck, historial, baseSlot)) {
+            return; // igual a lo que el otro ya tiene
+        }
+
+        j.secuenciaEstado = seq;
+        int slot = historial.abrir(seq);
+        historial.agregar(slot, j.id, qx, qy, j.duck);
+
+        enviarA(otro.addr, bufferBinario);
+    }
+
+    private void manejarAckEstado(Jugador j, int seq16) {
+        if (seq16 < 0) return;
+        j.usaAcks = true;
+
+        Jugador otro = j.sala.otro(j);
+        if (otro == null) return;
+
+        // El ACK trae 16 bits: se reconstruye la secuencia completa más cercana
+        int ultima = otro.secuenciaEstado;
+        int seq = (ultima & ~0xFFFF) | seq16;
+        if (seq > ultima) seq -= 0x10000;
+
+        if (seq > j.ackEstadoOtro) j.ackEstadoOtro = seq;
+    }
+
+    // -------------------------
+    // Salas
+    // -------------------------
+
+    /**
+     * Primero completa la sala que espera hace más tiempo en el mismo balde;
+     * si no hay, abre una nueva en ese balde. Las salas salen de la cola
+     * apenas dejan de esperar, así que la primera siempre sirve.
+     */
+    private Sala buscarSalaParaJoin(int balde) {
+        Sala s = cola.sacar(balde);
+        if (s != null) {
+            s.enCola = false;
+            EMPAREJADOS.increment();
+            return s;
+        }
+
+        return abrirSala(balde);
+    }
+
+    private Sala abrirSala(int balde) {
+        if (salas.size() >= maxSalas) return null;
+
+        Sala s = salasLibres.isEmpty() ? new Sala() : salasLibres.poll();
+        s.reiniciar(proximoIdSala);
+        s.balde = balde;
+        proximoIdSala += pasoIdSala;
+        salas.put(s.id, s);
+        SALAS_ACTIVAS.increment();
+        return s;
+    }
+
+    /** La sala de amigos con ese código, o una nueva; null si está llena o no hay lugar. */
+    private Sala buscarSalaPrivada(int codigo) {
+        Sala s = salasPrivadas.get(codigo);
+        if (s != null) return s.llena() ? null : s;
+
+        s = abrirSala(0);
+        if (s != null) {
+            s.codigo = codigo;
+            salasPrivadas.put(codigo, s);
+        }
+        return s;
+    }
+
+    private void encolarSalaAbierta(Sala sala) {
+        // las de amigos esperan a los suyos, no a cualquiera
+        if (!sala.enCola && sala.codigo == 0) {
+            sala.enCola = true;
+            cola.agregar(sala.balde, sala);
+        }
+    }
+
+    private void sacarDeCola(Sala sala) {
+        if (sala.enCola) {
+            sala.enCola = false;
+            cola.quitar(sala.balde, sala);
+        }
+    }
+
+    /** La sala se llenó: corre el plazo para que los dos manden READY. */
+    private void esperarReady(Sala sala) {
+        long vence = ahoraMs + TIMEOUT_READY_MS;
+        agenda.programar(sala, vence);
+        proximoEventoMs = Math.min(proximoEventoMs, vence);
+    }
+
+    /** Los que no mandaron READY a tiempo se sacan; el que sí, vuelve a esperar rival. */
+    private void vencerReady(Sala sala) {
+        for (int i = 0; i < Sala.CAPACIDAD; i++) {
+            Jugador j = sala.jugadores[i];
+            if (j == null || j.listo) continue;
+
+            ProtocoloTexto.escribirTexto(bufferTexto, "ERROR;msg=No mandaste READY a tiempo");
+            ProtocoloBinario.escribirError(bufferBinario, ProtocoloBinario.ERROR_SIN_READY);
+            enviarCodificado(j);
+            System.out.println("Jugador id=" + j.id + " sala=" + sala.id + " sin READY. Se saca (" + j.addr + ")");
+
+            SIN_READY.increment();
+            olvidarSesion(j.addr);
+            sacarDeSala(j);
+        }
+    }
+
+    /** Saca al jugador de su sala; si la sala queda vacía se recicla. */
+    private void sacarDeSala(Jugador j) {
+        Sala sala = j.sala;
+        if (sala == null) return;
+
+        if (j.espectador) {
+            sala.quitarEspectador(j);
+            return;
+        }
+
+        sala.quitar(j);
+        agenda.quitar(sala); // sin los dos jugadores no hay partida
+
+        if (sala.vacia()) {
+            // Sin jugadores no hay nada que mirar: los espectadores quedan sin sala
+            // (siguen en jugadoresPorAddr hasta que manden WATCH otra vez o venza su timeout)
+            if (!sala.espectadores.isEmpty()) {
+                ProtocoloTexto.escribirTexto(bufferTexto, "WATCH_END");
+                ProtocoloBinario.escribirTipo(bufferBinario, ProtocoloBinario.FIN_WATCH);
+                broadcastCodificado(sala);
+                sala.soltarEspectadores();
+            }
+
+            sacarDeCola(sala);
+            if (sala.codigo != 0) salasPrivadas.remove(sala.codigo);
+            salas.remove(sala.id);
+            SALAS_ACTIVAS.add(-1);
+            salasLibres.add(sala);
+            return;
+        }
+
+        // Si alguien se fue, la partida ya no es válida; en el lobby, el que
+        // queda conserva su READY y arranca apenas llegue un rival listo
+        if (sala.partidaIniciada) sala.volverAlLobby();
+        encolarSalaAbierta(sala);
+
+        // Refrescar lobby
+        codificarCount(sala.cantidad);
+        broadcastCodificado(sala);
+    }
+
+    // -------------------------
+    // Timeout / desconexión
+    // -------------------------
+    private void registrarSesion(Jugador j) {
+        jugadoresPorAddr.put(j.addr, j);
+        if (j.sesion != 0) sesiones.put(j.sesion, j);
+        rueda.agregar(j);
+        SESIONES.increment();
+    }
+
+    private Jugador olvidarSesion(SocketAddress addr) {
         Jugador j = jugadoresPorAddr.remove(addr);
+        if (j != null) {
+            sesiones.remove(j.sesion);
+            if (j.confiable != null) j.confiable.descartar();
+            rueda.quitar(j);
+            SESIONES.add(-1);
+        }
+        return j;
+    }
+
+    /** La rueda ya la sacó: falta el mapa y la sala. */
+    private void sesionVencida(Jugador j) {
+        System.out.println("Jugador id=" + j.id + " timeout. Se elimina (" + j.addr + ")");
+        jugadoresPorAddr.remove(j.addr);
+        sesiones.remove(j.sesion);
+        if (j.confiable != null) j.confiable.descartar();
+        SESIONES.add(-1);
+        sacarDeSala(j);
+    }
+
+    private void desconectarJugador(SocketAddress addr, String motivo) {
+        Jugador j = olvidarSesion(addr);
         if (j != null) {
             System.out.println("Jugador id=" + j.id + " desconectado (" + motivo + ")");
+            sacarDeSala(j);
+        }
+    }
 
-            if (jugadoresPorAddr.size() < 2) {
-                partidaIniciada = false;
-                for (Jugador restante : jugadoresPorAddr.values()) {
-                    restante.listo = false;
+    /**
+     * El jugador mandó su id de sesión desde otra dirección (el NAT le
+     * cambió el puerto o cambió de red) en un frame válido: sigue siendo él
+     * y las respuestas van a la dirección nueva. Si la dirección nueva ya
+     * es de otra sesión, no se toca. La grabación lo sigue viendo como la
+     * misma sesión.
+     */
+    private void cambiarDireccion(Jugador j, SocketAddress addr) {
+        if (jugadoresPorAddr.containsKey(addr)) return;
+
+        jugadoresPorAddr.remove(j.addr);
+        System.out.println("Jugador id=" + j.id + " cambió de dirección " + j.addr + " -> " + addr);
+        if (grabador != null) {
+            Integer grabada = sesionesGrabadas.remove(j.addr);
+            if (grabada != null) sesionesGrabadas.put(addr, grabada);
+        }
+        j.addr = addr;
+        jugadoresPorAddr.put(addr, j);
+        CAMBIOS_DIRECCION.increment();
+    }
+
+    // -------------------------
+    // Canal confiable
+    // -------------------------
+    private static boolean esCabeceraConfiable(int tipo) {
+        return tipo == ProtocoloBinario.CONFIABLE || tipo == ProtocoloBinario.ACK_CONFIABLE;
+    }
+
+    /**
+     * Saca la cabecera CONFIABLE / ACK_CONFIABLE: aplica los acks y, en un
+     * CONFIABLE, descarta los repetidos. Devuelve dónde empieza el frame de
+     * adentro, o -1 si no hay nada que procesar.
+     */
+    private int recibirConfiable(Jugador j, ByteBuffer datos, int ini, int fin) {
+        int largo = ProtocoloBinario.largoCabeceraConfiable(datos, ini, fin);
+        if (largo < 0 || j == null || j.confiable == null) return -1;
+
+        j.ultimoPaqueteMs = ahoraMs;
+        CanalConfiable c = j.confiable;
+        c.recibirAcks(ProtocoloBinario.ackConfiable(datos, ini), ProtocoloBinario.bitsConfiable(datos, ini), ahoraMs);
+
+        if (ProtocoloBinario.tipo(datos, ini) == ProtocoloBinario.CONFIABLE) {
+            ackPorEnviar = j;
+            if (!c.recibir(ProtocoloBinario.secuenciaConfiable(datos, ini))) {
+                CONFIABLES_REPETIDOS.increment();
+                return -1;
+            }
+        }
+        return ini + largo;
+    }
+
+    private void enviarConfiable(Jugador j, ByteBuffer frame) {
+        CanalConfiable c = j.confiable;
+        if (!c.preparar(frame, bufferConfiable, ahoraMs)) CONFIABLES_ABANDONADOS.increment();
+        enviarA(j.addr, bufferConfiable);
+
+        if (!c.enReenvios) {
+            c.enReenvios = true;
+            conReenvios.add(j);
+        }
+        proximoEventoMs = Math.min(proximoEventoMs, c.proximoReenvio());
+    }
+
+    /** Reenvía lo vencido de cada canal; devuelve el próximo vencimiento. */
+    private long reenviarConfiables(long ahora) {
+        long proximo = Long.MAX_VALUE;
+        for (int i = conReenvios.size() - 1; i >= 0; i--) {
+            Jugador j = conReenvios.get(i);
+            CanalConfiable c = j.confiable;
+
+            int r;
+            while ((r = c.reenviarVencido(bufferConfiable, ahora)) != 0) {
+                if (r > 0) {
+                    REENVIOS_CONFIABLES.increment();
+                    enviarA(j.addr, bufferConfiable);
+                } else {
+                    CONFIABLES_ABANDONADOS.increment();
                 }
             }
 
-            broadcast("COUNT;players=" + jugadoresPorAddr.size());
+            long vence = c.proximoReenvio();
+            if (vence == Long.MAX_VALUE) {
+                // todo confirmado (o la sesión terminó): sale de la lista cambiándolo por el último
+                c.enReenvios = false;
+                int ultimo = conReenvios.size() - 1;
+                conReenvios.set(i, conReenvios.get(ultimo));
+                conReenvios.remove(ultimo);
+            } else {
+                proximo = Math.min(proximo, vence);
+            }
         }
+        return proximo;
     }
 
     // -------------------------
-    // Obstáculos
+    // Descubrimiento
     // -------------------------
-    private String generarObstaculo() {
-        boolean cactus = random.nextBoolean();
-        int tipo = cactus ? 0 : 1;
-
-        float x = ANCHO;
-        float y;
-        float w;
-        float h;
 
-        if (cactus) {
-            y = Y_SUELO;
-            w = 20 + random.nextInt(10);
-            h = 30 + random.nextInt(10);
-        } else {
-            y = random.nextBoolean() ? (Y_SUELO + 15) : (Y_SUELO + 30);
-            w = 40;
-            h = 20;
+    /**
+     * Rearma la respuesta v2 al descubrimiento: cuántas salas puede abrir
+     * todavía, cuántos esperan rival y qué tan ocupado está el loop. Así un
+     * cliente que pregunta por broadcast elige el servidor menos cargado en
+     * vez del primero que contesta.
+     */
+    private void refrescarDescubrimiento(long ahora) {
+        proximoDescubrimientoMs = ahora + INTERVALO_DESCUBRIMIENTO_MS;
+        if (!hayIdServidor) {
+            // de las semillas, como el id de sesión: el replay anuncia el mismo
+            long semilla = semillas.getAsLong();
+            if (grabador != null) grabador.recordSeed(0, semilla);
+            idServidor = (int) (semilla >>> 33);
+            hayIdServidor = true;
         }
 
-        return "OBST;x=" + x + ";y=" + y + ";w=" + w + ";h=" + h + ";t=" + tipo;
+        int porMil = carga.getAsInt();
+        if (grabador != null) grabador.recordLoad(porMil);
+
+        int libres = maxSalas - salas.size();
+        ProtocoloTexto.escribirServidorAqui(respuestaDescubrimiento, ProtocoloBinario.VERSION, idServidor,
+            libres, cola.esperando(), porMil);
+        libresPublicadas = libres;
+        esperandoPublicados = cola.esperando();
+        cargaPublicada = porMil;
     }
 
-    private void enviarObstaculoATodos(String obstMsg) {
-        broadcast(obstMsg);
+    /** Por mil del tiempo fuera del select (trabajando) desde la medición anterior. */
+    private int medirCarga() {
+        long ahora = System.nanoTime();
+        long ventana = ahora - inicioMedicionNanos;
+        long trabajando = ventana - esperaNanos;
+        inicioMedicionNanos = ahora;
+        esperaNanos = 0;
+        if (ventana < 1_000_000) return 0; // recién arrancó: no hay nada medido
+        return (int) Math.max(0, Math.min(1000, trabajando * 1000 / ventana));
     }
 
-    private void planificarProximoSpawn() {
-        long ahora = System.currentTimeMillis();
-        long rango = MS_ENTRE_SPAWNS_MAX - MS_ENTRE_SPAWNS_MIN;
-        long delta = MS_ENTRE_SPAWNS_MIN + (rango > 0 ? random.nextInt((int) rango) : 0);
-        proximoSpawnMs = ahora + delta;
+    /** Id de sesión nuevo: distinto de 0 y de los que están en uso. */
+    private int nuevaSesion() {
+        if (!hayClaveSesiones) {
+            // de las semillas (y grabada con ellas): el replay genera los mismos ids
+            claveSesiones = semillas.getAsLong();
+            if (grabador != null) grabador.recordSeed(0, claveSesiones);
+            hayClaveSesiones = true;
+        }
+
+        int sesion;
+        do {
+            long z = claveSesiones + (++contadorSesiones) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            sesion = (int) (z ^ (z >>> 31));
+        } while (sesion == 0 || sesiones.contiene(sesion));
+        return sesion;
     }
 
     // -------------------------
-    // Parseo de estado
+    // Obstáculos
     // -------------------------
-    private EstadoJugador parsearEstado(String msg) {
-        try {
-            String[] partes = msg.split(";");
-            if (partes.length < 5) return null;
+    /**
+     * Simula la partida hasta ahora, tick a tick: los obstáculos que aparecen
+     * (OBST de texto para los clientes v1), el avance de los que están en
+     * pantalla y los choques con la última posición de cada jugador. Cada
+     * INTERVALO_LOTE_MS manda además el lote con la ventana completa (v2).
+     *
+     * Devuelve cuándo hay que volver a mirar (el próximo tick), o
+     * PARTIDA_TERMINADA si alguien chocó y la sala volvió al lobby.
+     */
+    private long actualizarObstaculos(Sala sala, long ahora) {
+        LineaObstaculos linea = sala.linea;
+        int tickActual = sala.tickEn(ahora);
+        linea.completarHasta(tickActual + VENTANA_OBSTACULOS_TICKS);
+
+        boolean hayTexto = sala.hayDestinosVersion(ProtocoloTexto.VERSION);
+        while (sala.tickSimulado < tickActual) {
+            int tick = ++sala.tickSimulado;
+            sala.vivos.avanzar();
+
+            // 1) Los que aparecen en este tick
+            while (linea.pendientes() > 0 && linea.tick(0) <= tick) {
+                sala.vivos.aparecer(linea);
+                if (hayTexto) {
+                    obstaculo.tipo = linea.tipo(0);
+                    obstaculo.x = ObstaculosVivos.ANCHO_MUNDO;
+                    obstaculo.y = linea.y(0);
+                    obstaculo.ancho = linea.ancho(0);
+                    obstaculo.alto = linea.alto(0);
+                    ProtocoloTexto.escribirObstaculo(bufferTexto, obstaculo);
+                    broadcastVersion(sala, ProtocoloTexto.VERSION, bufferTexto);
+                }
+                linea.sacarPrimero();
+            }
 
-            EstadoJugador e = new EstadoJugador();
+            // 2) Choques
+            if (revisarChoques(sala)) return PARTIDA_TERMINADA;
+        }
 
-            for (int i = 1; i < partes.length; i++) {
-                String p = partes[i];
-                String[] kv = p.split("=");
-                if (kv.length != 2) continue;
+        // 3) Semilla + próximos obstáculos para los clientes binarios
+        if (ahora >= sala.proximoLoteMs) {
+            sala.proximoLoteMs = ahora + INTERVALO_LOTE_MS;
+            if (sala.hayDestinosVersion(ProtocoloBinario.VERSION)) {
+                ProtocoloBinario.escribirLoteObstaculos(bufferBinario, linea);
+                broadcastVersion(sala, ProtocoloBinario.VERSION, bufferBinario);
+            }
+        }
 
-                String k = kv[0];
-                String v = kv[1];
+        return Math.min(sala.proximoLoteMs, sala.msDeTick(sala.tickSimulado + 1));
+    }
 
-                if (k.equals("id")) e.id = Integer.parseInt(v);
-                else if (k.equals("x")) e.x = Float.parseFloat(v);
-                else if (k.equals("y")) e.y = Float.parseFloat(v);
-                else if (k.equals("duck")) e.duck = v.equals("1") || v.equalsIgnoreCase("true");
+    /**
+     * Marca y anuncia a los jugadores que chocaron en este tick. Si queda uno
+     * solo (o ninguno) la partida termina: se anuncia el ganador (0 = empate)
+     * y la sala vuelve al lobby. Devuelve true si la partida terminó.
+     */
+    private boolean revisarChoques(Sala sala) {
+        boolean huboMuertes = false;
+        for (int i = 0; i < Sala.CAPACIDAD; i++) {
+            Jugador j = sala.jugadores[i];
+            if (j == null || j.muerto) continue;
+            if (sala.vivos.choca(j.x, j.y, j.duck)) {
+                j.muerto = true;
+                huboMuertes = true;
+                ProtocoloTexto.escribirMuerte(bufferTexto, j.id);
+                ProtocoloBinario.escribirMuerte(bufferBinario, j.id);
+                broadcastCodificado(sala);
+                System.out.println("Jugador id=" + j.id + " sala=" + sala.id + " chocó");
             }
+        }
+        if (!huboMuertes) return false;
+
+        int enPie = 0;
+        int ganador = 0;
+        for (int i = 0; i < Sala.CAPACIDAD; i++) {
+            Jugador j = sala.jugadores[i];
+            if (j != null && !j.muerto) {
+                enPie++;
+                ganador = j.id;
+            }
+        }
+        if (enPie > 1) return false;
 
-            if (e.id != 1 && e.id != 2) return null;
-            return e;
+        if (enPie == 0) ganador = 0;
+        ProtocoloTexto.escribirGanador(bufferTexto, ganador);
+        ProtocoloBinario.escribirGanador(bufferBinario, ganador);
+        broadcastCodificado(sala);
+        System.out.println("Partida terminada sala=" + sala.id + " ganador=" + ganador);
 
-        } catch (Exception ex) {
-            return null;
-        }
+        sala.volverAlLobby();
+        PARTIDAS_TERMINADAS.increment();
+        return true;
     }
 
     // -------------------------
-    // Utilidades
+    // Codificación (texto y binario a la vez)
     // -------------------------
-    private void enviarA(SocketAddress addr, String msg) {
-        try {
-            byte[] data = msg.getBytes(StandardCharsets.UTF_8);
-            DatagramPacket p = new DatagramPacket(data, data.length);
+    private void codificarAssign(Jugador j) {
+        ProtocoloTexto.escribirAssign(bufferTexto, j.id);
+        ProtocoloBinario.escribirAssign(bufferBinario, j.id, j.sesion);
+    }
 
-            if (addr instanceof InetSocketAddress) {
-                InetSocketAddress isa = (InetSocketAddress) addr;
-                p.setAddress(isa.getAddress());
-                p.setPort(isa.getPort());
-            } else {
-                return;
-            }
+    private void codificarCount(int jugadores) {
+        ProtocoloTexto.escribirCount(bufferTexto, jugadores);
+        ProtocoloBinario.escribirCount(bufferBinario, jugadores);
+    }
+
+    private void codificarWatching(Sala sala) {
+        ProtocoloTexto.escribirWatching(bufferTexto, sala.id, sala.cantidad, sala.partidaIniciada);
+        ProtocoloBinario.escribirWatching(bufferBinario, sala.id, sala.cantidad, sala.partidaIniciada);
+    }
 
-            socket.send(p);
-        } catch (Exception ignored) {}
+    private void codificarEstado(Jugador j) {
+        ProtocoloTexto.escribirEstado(bufferTexto, j.id, j.x, j.y, j.duck);
+        ProtocoloBinario.escribirEstado(bufferBinario, j.id, j.x, j.y, j.duck);
     }
 
-    private void broadcast(String msg) {
-        for (Jugador j : jugadoresPorAddr.values()) {
-            enviarA(j.addr, msg);
+    // -------------------------
+    // Grabación / replay
+    // -------------------------
+    private void grabarEntrada(SocketAddress addr, ByteBuffer datos) {
+        grabador.setClock(ahoraMs);
+        SocketAddress comoQuien = direccionGrabada(addr, datos);
+        grabador.record(MatchRecorder.IN, sesionGrabada(comoQuien), salaGrabada(comoQuien), datos);
+    }
+
+    /**
+     * Con un id de sesión conocido se graba como ese jugador aunque llegue
+     * desde otra dirección: en el replay sigue siendo la misma sesión.
+     */
+    private SocketAddress direccionGrabada(SocketAddress addr, ByteBuffer datos) {
+        int ini = datos.position();
+        int fin = datos.limit();
+        if (!ProtocoloBinario.esBinario(datos, ini, fin) || ProtocoloBinario.tipo(datos, ini) != ProtocoloBinario.SESION) {
+            return addr;
         }
+        Jugador j = sesiones.get(ProtocoloBinario.sesion(datos, ini, fin));
+        return j != null ? j.addr : addr;
+    }
+
+    private int sesionGrabada(SocketAddress addr) {
+        Integer sesion = sesionesGrabadas.get(addr);
+        if (sesion == null) {
+            if (sesionesGrabadas.size() >= MAX_SESIONES_GRABADAS) {
+                // las que sólo buscaron servidor o fueron rechazadas; si vuelven, son sesiones nuevas
+                sesionesGrabadas.keySet().retainAll(jugadoresPorAddr.keySet());
+            }
+            sesion = ++ultimaSesionGrabada;
+            sesionesGrabadas.put(addr, sesion);
+        }
+        return sesion;
+    }
+
+    private int salaGrabada(SocketAddress addr) {
+        Jugador j = jugadoresPorAddr.get(addr);
+        return (j != null && j.sala != null) ? j.sala.id : 0;
+    }
+
+    /** Replay: el tiempo y las semillas salen de la grabación, y nada va al socket. */
+    void prepararReplay(LongSupplier reloj, LongSupplier semillas, IntSupplier carga,
+                        BiConsumer<SocketAddress, ByteBuffer> salida) {
+        this.reloj = reloj;
+        this.semillas = semillas;
+        this.carga = carga;
+        this.salidaReplay = salida;
+    }
+
+    // -------------------------
+    // Utilidades
+    // -------------------------
+
+    /** Manda el último mensaje codificado en el protocolo que negoció el jugador. */
+    private void enviarCodificado(Jugador j) {
+        ByteBuffer b = (j.version == ProtocoloBinario.VERSION) ? bufferBinario : bufferTexto;
+        b.position(0);
+        enviarAJugador(j, b);
     }
 
-    private boolean existeId(int id) {
-        for (Jugador j : jugadoresPorAddr.values()) {
-            if (j.id == id) return true;
+    /** Los mensajes de control van por el canal confiable de quien lo negoció. */
+    private void enviarAJugador(Jugador j, ByteBuffer datos) {
+        if (j.confiable != null && ProtocoloBinario.esBinario(datos, 0, datos.limit())
+            && ProtocoloBinario.esControl(ProtocoloBinario.tipo(datos, 0))) {
+            enviarConfiable(j, datos);
+        } else {
+            enviarA(j.addr, datos);
         }
-        return false;
     }
 
-    private Jugador obtenerOtroJugador(int miId) {
-        int otroId = (miId == 1) ? 2 : 1;
-        for (Jugador j : jugadoresPorAddr.values()) {
-            if (j.id == otroId) return j;
+    private void enviarA(SocketAddress addr, ByteBuffer datos) {
+        if (grabador != null) {
+            grabador.record(MatchRecorder.OUT, sesionGrabada(addr), salaGrabada(addr), datos);
+        }
+        if (salidaReplay != null) {
+            salidaReplay.accept(addr, datos);
+            return;
+        }
+        try {
+            // canal no bloqueante: si el buffer del socket está lleno se descarta (igual que UDP)
+            int enviados = canal.send(datos, addr);
+            if (enviados > 0) {
+                DATAGRAMAS_ENVIADOS.increment();
+                BYTES_ENVIADOS.add(enviados);
+            } else {
+                ENVIOS_DESCARTADOS.increment();
+            }
+        } catch (Exception e) {
+            ENVIOS_DESCARTADOS.increment();
         }
-        return null;
     }
 
-    private boolean ambosListos() {
-        boolean listo1 = false;
-        boolean listo2 = false;
+    /** Jugadores y espectadores de la sala que hablan ese protocolo. */
+    private void broadcastVersion(Sala sala, int version, ByteBuffer datos) {
+        for (int i = 0; i < Sala.CAPACIDAD; i++) {
+            Jugador j = sala.jugadores[i];
+            if (j != null && j.version == version) {
+                datos.position(0);
+                enviarAJugador(j, datos);
+            }
+        }
 
-        for (Jugador j : jugadoresPorAddr.values()) {
-            if (j.id == 1) listo1 = j.listo;
-            if (j.id == 2) listo2 = j.listo;
+        if (sala.espectadoresVersion(version) == 0) return;
+        for (int i = 0; i < sala.espectadores.size(); i++) {
+            Jugador e = sala.espectadores.get(i);
+            if (e.version == version) {
+                datos.position(0);
+                enviarA(e.addr, datos);
+            }
+        }
+    }
+
+    /**
+     * El mensaje ya está codificado una vez en cada protocolo: a cada
+     * destinatario (jugador o espectador) sólo se le copian esos bytes.
+     */
+    private void broadcastCodificado(Sala sala) {
+        for (int i = 0; i < Sala.CAPACIDAD; i++) {
+            Jugador j = sala.jugadores[i];
+            if (j != null) enviarCodificado(j);
+        }
+        for (int i = 0; i < sala.espectadores.size(); i++) {
+            enviarCodificado(sala.espectadores.get(i));
         }
-        return listo1 && listo2;
     }
 }
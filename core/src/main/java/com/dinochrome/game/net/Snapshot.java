@@ -0,0 +1,19 @@
+// =====================================================
+// ARCHIVO: Snapshot.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Estado combinado de los jugadores que cambiaron desde el snapshot
+ * anterior. Se manda uno por tick de snapshot en vez de reenviar cada
+ * PlayerState apenas llega. Sólo son válidas las primeras count posiciones.
+ */
+public class Snapshot {
+    public int tick;
+    public int count;
+    public int[] playerIds = new int[0];
+    public float[] x = new float[0];
+    public float[] y = new float[0];
+    public boolean[] ducking = new boolean[0];
+}
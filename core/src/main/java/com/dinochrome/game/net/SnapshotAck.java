@@ -0,0 +1,13 @@
+// =====================================================
+// ARCHIVO: SnapshotAck.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * El cliente confirma el último Snapshot/DeltaSnapshot que aplicó.
+ * A partir del primer ack recibe deltas contra esa base.
+ */
+public class SnapshotAck {
+    public int tick;
+}
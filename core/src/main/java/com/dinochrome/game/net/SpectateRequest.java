@@ -0,0 +1,13 @@
+// =====================================================
+// ARCHIVO: SpectateRequest.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Lo manda un cliente recién conectado para mirar la partida en vez de
+ * jugarla: deja de contar como jugador y recibe StartGame, los snapshots
+ * completos y los lotes de obstáculos, sin poder mandar estado.
+ */
+public class SpectateRequest {
+}
@@ -0,0 +1,102 @@
+// =====================================================
+// ARCHIVO: TablaSesiones.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+/**
+ * Sesiones por id de sesión (el que se manda en el ASSIGN binario): tabla
+ * de direccionamiento abierto con claves int, sin boxing ni nodos.
+ *
+ * Buscar es mezclar el id y recorrer unas pocas posiciones contiguas; al
+ * borrar se corren hacia atrás los que siguen (sin lápidas), así la tabla
+ * no se degrada con las altas y bajas de sesiones.
+ *
+ * El id 0 no es válido (marca posición libre).
+ */
+final class TablaSesiones {
+
+    private static final int CAPACIDAD_INICIAL = 64; // potencia de 2
+
+    private int[] claves = new int[CAPACIDAD_INICIAL];
+    private Jugador[] valores = new Jugador[CAPACIDAD_INICIAL];
+    private int mascara = CAPACIDAD_INICIAL - 1;
+    private int cantidad = 0;
+
+    Jugador get(int sesion) {
+        if (sesion == 0) return null;
+        int i = posicion(sesion);
+        while (true) {
+            int k = claves[i];
+            if (k == sesion) return valores[i];
+            if (k == 0) return null;
+            i = (i + 1) & mascara;
+        }
+    }
+
+    boolean contiene(int sesion) {
+        return get(sesion) != null;
+    }
+
+    void put(int sesion, Jugador j) {
+        if (sesion == 0) throw new IllegalArgumentException("sesión 0");
+        // Carga máxima 1/2: las búsquedas fallidas siguen siendo cortas
+        if ((cantidad + 1) * 2 > claves.length) agrandar();
+
+        int i = posicion(sesion);
+        while (claves[i] != 0 && claves[i] != sesion) i = (i + 1) & mascara;
+        if (claves[i] == 0) cantidad++;
+        claves[i] = sesion;
+        valores[i] = j;
+    }
+
+    void remove(int sesion) {
+        if (sesion == 0) return;
+        int i = posicion(sesion);
+        while (claves[i] != sesion) {
+            if (claves[i] == 0) return;
+            i = (i + 1) & mascara;
+        }
+
+        // Corrimiento hacia atrás: cada uno que sigue vuelve lo más cerca posible de su posición ideal
+        int libre = i;
+        int j = (i + 1) & mascara;
+        while (claves[j] != 0) {
+            int ideal = posicion(claves[j]);
+            // ¿ideal está fuera del tramo circular (libre, j]? Entonces puede ocupar el hueco
+            if (((j - ideal) & mascara) >= ((j - libre) & mascara)) {
+                claves[libre] = claves[j];
+                valores[libre] = valores[j];
+                libre = j;
+            }
+            j = (j + 1) & mascara;
+        }
+        claves[libre] = 0;
+        valores[libre] = null;
+        cantidad--;
+    }
+
+    int size() {
+        return cantidad;
+    }
+
+    private int posicion(int sesion) {
+        // Mezcla de Fibonacci: los ids consecutivos o con patrones no se amontonan
+        int h = sesion * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mascara;
+    }
+
+    private void agrandar() {
+        int[] viejasClaves = claves;
+        Jugador[] viejosValores = valores;
+
+        claves = new int[viejasClaves.length * 2];
+        valores = new Jugador[viejasClaves.length * 2];
+        mascara = claves.length - 1;
+        cantidad = 0;
+
+        for (int i = 0; i < viejasClaves.length; i++) {
+            if (viejasClaves[i] != 0) put(viejasClaves[i], viejosValores[i]);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+// =====================================================
+// ARCHIVO: TickLoop.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loop de ticks a paso fijo basado en System.nanoTime().
+ *
+ * Cada tick tiene un deadline absoluto (no se acumula el error de sleep).
+ * Si el servidor se atrasa se ejecutan hasta maxCatchUpTicks ticks seguidos
+ * para ponerse al día; lo que sobra se descarta y se cuenta como saltado.
+ */
+public class TickLoop {
+
+    public interface Tickable {
+        void tick(float delta);
+    }
+
+    // Margen antes del deadline en el que dejamos de dormir y esperamos activo
+    private static final long SPIN_NANOS = 200_000L;
+
+    private final String name;
+    private final int tickRate;
+    private final long stepNanos;
+    private final float stepSeconds;
+    private final int maxCatchUpTicks;
+    private final Tickable tickable;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // ===== STATS =====
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skippedTicks = new AtomicLong();
+    private final AtomicLong totalTickNanos = new AtomicLong();
+    private volatile long lastTickNanos = 0;
+    private volatile long maxTickNanos = 0;
+
+    public TickLoop(String name, int tickRate, int maxCatchUpTicks, Tickable tickable) {
+        if (tickRate <= 0) throw new IllegalArgumentException("tickRate debe ser > 0: " + tickRate);
+        if (maxCatchUpTicks <= 0) throw new IllegalArgumentException("maxCatchUpTicks debe ser > 0: " + maxCatchUpTicks);
+
+        this.name = name;
+        this.tickRate = tickRate;
+        this.stepNanos = 1_000_000_000L / tickRate;
+        this.stepSeconds = 1f / tickRate;
+        this.maxCatchUpTicks = maxCatchUpTicks;
+        this.tickable = tickable;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Frena el loop y espera a que termine el tick en curso. */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        Thread t = thread;
+        thread = null;
+        LockSupport.unpark(t);
+
+        if (t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        long nextTick = System.nanoTime();
+
+        while (running) {
+            long now = System.nanoTime();
+            long remaining = nextTick - now;
+
+            if (remaining > 0) {
+                // Dormimos hasta poco antes del deadline y el resto lo esperamos activos
+                if (remaining > SPIN_NANOS) {
+                    LockSupport.parkNanos(remaining - SPIN_NANOS);
+                } else {
+                    Thread.yield();
+                }
+                continue;
+            }
+
+            int steps = 0;
+            while (running && now - nextTick >= 0 && steps < maxCatchUpTicks) {
+                runTick();
+                nextTick += stepNanos;
+                steps++;
+            }
+
+            // Demasiado atrasados: se descartan los ticks perdidos en vez de acumularlos
+            if (now - nextTick >= 0) {
+                long behind = (now - nextTick) / stepNanos + 1;
+                skippedTicks.addAndGet(behind);
+                nextTick += behind * stepNanos;
+            }
+        }
+    }
+
+    private void runTick() {
+        long start = System.nanoTime();
+        try {
+            tickable.tick(stepSeconds);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        long duration = System.nanoTime() - start;
+
+        ticks.incrementAndGet();
+        totalTickNanos.addAndGet(duration);
+        lastTickNanos = duration;
+        if (duration > maxTickNanos) maxTickNanos = duration;
+        if (duration > stepNanos) overruns.incrementAndGet();
+    }
+
+    // ===== STATS =====
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getTickCount() {
+        return ticks.get();
+    }
+
+    /** Ticks que tardaron más que el paso fijo. */
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    /** Ticks descartados por no poder ponerse al día. */
+    public long getSkippedTickCount() {
+        return skippedTicks.get();
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    public long getAverageTickNanos() {
+        long n = ticks.get();
+        return n == 0 ? 0 : totalTickNanos.get() / n;
+    }
+}
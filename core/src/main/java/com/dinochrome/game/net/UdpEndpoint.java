@@ -0,0 +1,362 @@
+// =====================================================
+// ARCHIVO: UdpEndpoint.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Lo común a los dos lados de UdpTransport: el DatagramChannel con su hilo
+ * de red, el envío con o sin confirmación y la recepción de los frames.
+ *
+ * Datagramas (el mensaje es el de MessageSerializers, clase + datos):
+ *
+ *   HELLO          0xA0                      cliente -> servidor, hasta el WELCOME
+ *   WELCOME        0xA1 | sesión i32         servidor -> cliente
+ *   DATA           0xA2 | mensaje            sin confirmación
+ *   BYE            0xA3                      cualquiera de los dos corta
+ *   CONFIABLE      0x90 | seq | ack | bits | DATA | mensaje
+ *   ACK_CONFIABLE  0x91 | ack | bits         (también mantiene viva la sesión)
+ *
+ * Lo confiable usa CanalConfiable con las mismas cabeceras que el
+ * protocolo binario (ver ProtocoloBinario.CONFIABLE). CanalConfiable
+ * entrega cada frame apenas llega; acá se reordenan por secuencia antes de
+ * entregarlos, porque la partida cuenta con el orden (un LobbyState
+ * reenviado no puede llegar después del StartGame). Si un frame confiable
+ * se abandona (ventana llena o sin confirmar después de
+ * CanalConfiable.MAX_INTENTOS) el enlace falla y se corta: del otro lado
+ * quedaría un hueco que no se llena nunca.
+ *
+ * El hilo de red recibe, reenvía lo vencido y hace el mantenimiento de cada
+ * lado; se manda desde el hilo de la partida (o del cliente). Cada enlace
+ * se sincroniza consigo mismo porque su CanalConfiable lo tocan los dos.
+ */
+abstract class UdpEndpoint {
+
+    static final int HELLO = 0xA0;
+    static final int WELCOME = 0xA1;
+    static final int DATA = 0xA2;
+    static final int BYE = 0xA3;
+
+    static final int WELCOME_LENGTH = 5;
+
+    // Sin nada que mandar, el cliente manda un ACK_CONFIABLE cada tanto;
+    // el servidor corta las sesiones que no mandan nada en TIMEOUT_MS
+    static final long KEEPALIVE_MS = 1000;
+    static final long TIMEOUT_MS = 5000;
+
+    // Reenvíos y timeouts se revisan con esta frecuencia
+    private static final long HOUSEKEEPING_MS = 20;
+    private static final int MAX_DATAGRAM = 65536;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter RETRANSMITS =
+        METRICS.counter("udp_transport_retransmits_total", "Frames confiables reenviados por UdpTransport");
+    private static final Counter ABANDONED =
+        METRICS.counter("udp_transport_abandoned_total", "Frames confiables abandonados sin confirmar por UdpTransport");
+    private static final Counter FAILED =
+        METRICS.counter("udp_transport_failed_links_total", "Sesiones cortadas por UdpTransport por perder un frame confiable");
+    private static final Counter DROPPED =
+        METRICS.counter("udp_transport_dropped_datagrams_total", "Datagramas descartados por UdpTransport por no poder decodificarlos");
+
+    // Marca un frame confiable sin mensaje (vacío o ilegible): igual ocupa su lugar en el orden
+    private static final Object NOTHING = new Object();
+
+    /** Un extremo remoto: dirección, sesión y su canal confiable. */
+    static final class Link {
+        final SocketAddress addr;
+        volatile int session;
+        final CanalConfiable reliable = new CanalConfiable();
+        volatile long lastReceivedMs;
+        volatile long lastSentMs;
+        // Se perdió un frame confiable: el mantenimiento del hilo de red lo corta
+        volatile boolean failed;
+
+        // Sólo el hilo de red: próxima secuencia a entregar y lo que llegó adelantado
+        private int nextDelivery = 0;
+        private final Object[] early = new Object[CanalConfiable.VENTANA];
+
+        Link(int session, SocketAddress addr) {
+            this.session = session;
+            this.addr = addr;
+        }
+    }
+
+    final DatagramChannel channel;
+    final FanOutSerialization decoder;
+    private final Selector selector;
+
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_DATAGRAM);
+    // Lo manda el hilo de red (acks, reenvíos, WELCOME)
+    private final ByteBuffer netOut;
+    // Lo manda el hilo de la partida o del cliente, de a uno (sendLock)
+    private final Object sendLock = new Object();
+    private final ByteBuffer out;
+    private final ByteBuffer reliableOut;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    UdpEndpoint(int maxMessageSize) throws IOException {
+        decoder = new FanOutSerialization(MAX_DATAGRAM);
+        out = ByteBuffer.allocate(maxMessageSize + 1);
+        reliableOut = ByteBuffer.allocate(maxMessageSize + 1 + ProtocoloBinario.LARGO_CONFIABLE);
+        netOut = ByteBuffer.allocate(maxMessageSize + 1 + ProtocoloBinario.LARGO_CONFIABLE);
+
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    // -------------------------
+    // Lo que define cada lado (hilo de red)
+    // -------------------------
+
+    /** Datagrama en d (posición 0, limit = largo, al menos 1 byte). */
+    abstract void onDatagram(SocketAddress from, ByteBuffer d, long nowMs);
+
+    /** Reenvíos, timeouts y keepalives; también corta los enlaces con failed. */
+    abstract void housekeeping(long nowMs);
+
+    /** Mensaje recibido, ya en orden si vino por lo confiable. */
+    abstract void deliver(Link e, Object message);
+
+    // -------------------------
+    // Hilo de red
+    // -------------------------
+
+    void startLoop(String name) {
+        running = true;
+        thread = new Thread(this::loop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stopLoop() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (thread != null && thread != Thread.currentThread()) thread.join(1000);
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean running() {
+        return running;
+    }
+
+    private void loop() {
+        long nextHousekeeping = 0;
+        try {
+            while (running) {
+                selector.select(HOUSEKEEPING_MS);
+                selector.selectedKeys().clear();
+
+                long now = nowMs();
+                SocketAddress from;
+                while (running && (from = receive()) != null) {
+                    if (in.hasRemaining()) dispatch(from, now);
+                }
+                if (now >= nextHousekeeping) {
+                    housekeeping(now);
+                    nextHousekeeping = now + HOUSEKEEPING_MS;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lo que llega es de cualquiera: si procesarlo falla se descarta ese
+     * datagrama y el hilo de red sigue (es el único que recibe).
+     */
+    private void dispatch(SocketAddress from, long now) {
+        try {
+            onDatagram(from, in, now);
+        } catch (RuntimeException | OutOfMemoryError | StackOverflowError ex) {
+            DROPPED.increment();
+            System.err.println("⚠️ Datagrama de " + from + " descartado: " + ex);
+        }
+    }
+
+    private SocketAddress receive() throws IOException {
+        in.clear();
+        SocketAddress from = channel.receive(in);
+        in.flip();
+        return from;
+    }
+
+    static long nowMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    // -------------------------
+    // Envío
+    // -------------------------
+
+    /** DATA (o CONFIABLE con DATA adentro) desde el hilo de la partida o del cliente. */
+    int sendMessage(Link e, boolean reliable, byte[] data, int length) {
+        if (e.failed) return 0;
+        synchronized (sendLock) {
+            out.clear();
+            out.put((byte) DATA);
+            out.put(data, 0, length);
+            out.flip();
+
+            ByteBuffer datagram = out;
+            if (reliable) {
+                boolean full;
+                synchronized (e) {
+                    full = !e.reliable.preparar(out, reliableOut, nowMs());
+                }
+                // La ventana estaba llena y se abandonó el más viejo sin confirmar
+                if (full) abandoned(e);
+                datagram = reliableOut;
+            }
+            e.lastSentMs = nowMs();
+            return sendTo(datagram, e.addr);
+        }
+    }
+
+    /** Mensaje de un byte (HELLO, BYE) desde cualquier hilo. */
+    void sendType(int type, SocketAddress addr) {
+        synchronized (sendLock) {
+            ProtocoloBinario.escribirTipo(out, type);
+            sendTo(out, addr);
+        }
+    }
+
+    /** WELCOME desde el hilo de red. */
+    void sendWelcome(Link e) {
+        netOut.clear();
+        netOut.put((byte) WELCOME);
+        netOut.putInt(e.session);
+        netOut.flip();
+        sendTo(netOut, e.addr);
+    }
+
+    /** ACK_CONFIABLE con lo recibido hasta ahora, desde el hilo de red. */
+    void sendAck(Link e) {
+        synchronized (e) {
+            CanalConfiable c = e.reliable;
+            c.ackPendiente = false;
+            ProtocoloBinario.escribirAckConfiable(netOut, c.ack(), c.bitsAck());
+        }
+        e.lastSentMs = nowMs();
+        sendTo(netOut, e.addr);
+    }
+
+    /** Reenvía lo vencido del enlace, desde el hilo de red. */
+    void retransmit(Link e, long nowMs) {
+        synchronized (e) {
+            int r;
+            while ((r = e.reliable.reenviarVencido(netOut, nowMs)) != 0) {
+                if (r > 0) {
+                    RETRANSMITS.increment();
+                    sendTo(netOut, e.addr);
+                } else {
+                    abandoned(e);
+                }
+            }
+        }
+    }
+
+    private static void abandoned(Link e) {
+        ABANDONED.increment();
+        fail(e);
+    }
+
+    static void fail(Link e) {
+        if (e.failed) return;
+        e.failed = true;
+        FAILED.increment();
+    }
+
+    private int sendTo(ByteBuffer datagram, SocketAddress addr) {
+        try {
+            return channel.send(datagram, addr);
+        } catch (IOException ex) {
+            // Puerto cerrado del otro lado o socket cerrado: es UDP, se pierde
+            return 0;
+        }
+    }
+
+    // -------------------------
+    // Recepción (hilo de red)
+    // -------------------------
+
+    /**
+     * Saca la cabecera CONFIABLE / ACK_CONFIABLE de d: aplica los acks,
+     * confirma lo recibido y entrega en orden lo que queda listo.
+     */
+    void receiveReliable(Link e, ByteBuffer d, long nowMs) {
+        int end = d.limit();
+        int headerLength = ProtocoloBinario.largoCabeceraConfiable(d, 0, end);
+        if (headerLength < 0) return;
+
+        int seq;
+        boolean fresh;
+        synchronized (e) {
+            CanalConfiable c = e.reliable;
+            c.recibirAcks(ProtocoloBinario.ackConfiable(d, 0), ProtocoloBinario.bitsConfiable(d, 0), nowMs);
+            if (ProtocoloBinario.tipo(d, 0) != ProtocoloBinario.CONFIABLE) return;
+            seq = ProtocoloBinario.secuenciaConfiable(d, 0);
+            fresh = c.recibir(seq);
+        }
+        // Se confirma en el momento (también los repetidos: su ack se perdió)
+        sendAck(e);
+        if (!fresh) return;
+
+        Object message = headerLength < end ? readMessage(d, headerLength) : null;
+        deliverInOrder(e, seq, message != null ? message : NOTHING);
+    }
+
+    /**
+     * Guarda el frame seq y entrega todo lo consecutivo desde nextDelivery.
+     * El otro lado no manda más de VENTANA sin confirmar, así que un frame
+     * más adelantado que eso sólo puede venir de uno que abandonó.
+     */
+    private void deliverInOrder(Link e, int seq, Object message) {
+        int ahead = (seq - e.nextDelivery) & 0xFFFF;
+        if (ahead >= 0x8000) return; // ya entregado
+        if (ahead >= CanalConfiable.VENTANA) {
+            fail(e);
+            return;
+        }
+        e.early[seq % CanalConfiable.VENTANA] = message;
+
+        Object next;
+        while ((next = e.early[e.nextDelivery % CanalConfiable.VENTANA]) != null) {
+            e.early[e.nextDelivery % CanalConfiable.VENTANA] = null;
+            e.nextDelivery = (e.nextDelivery + 1) & 0xFFFF;
+            if (next != NOTHING) deliver(e, next);
+        }
+    }
+
+    /** El mensaje del DATA que empieza en start, o null si no es un DATA válido. */
+    Object readMessage(ByteBuffer d, int start) {
+        if (start + 1 >= d.limit() || (d.get(start) & 0xFF) != DATA) return null;
+        d.position(start + 1);
+        try {
+            return decoder.read(null, d);
+        } catch (RuntimeException ex) {
+            // Basura o un cliente con otras clases registradas: se descarta el datagrama
+            DROPPED.increment();
+            return null;
+        }
+    }
+}
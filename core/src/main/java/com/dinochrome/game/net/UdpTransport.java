@@ -0,0 +1,285 @@
+// =====================================================
+// ARCHIVO: UdpTransport.java
+// PAQUETE: com.dinochrome.game.net
+// =====================================================
+package com.dinochrome.game.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * GameServer sobre un solo DatagramChannel NIO, sin Kryonet: todo va por
+ * UDP y lo confiable (lobby, StartGame, muertes, resultado, READY) usa
+ * CanalConfiable, como los mensajes de control del protocolo binario v2,
+ * y se entrega en orden (ver UdpEndpoint).
+ * La sesión la da el servidor al primer HELLO de cada dirección.
+ *
+ * Un mensaje va en un solo datagrama: maxMessageSize tiene que quedar por
+ * debajo del MTU (DEFAULT_MAX_MESSAGE_SIZE) o el sistema lo fragmenta.
+ * El lado cliente es UdpTransport.Client.
+ */
+public final class UdpTransport extends UdpEndpoint implements MatchTransport {
+
+    // Snapshot de una partida llena + cabeceras por debajo de un MTU de 1500
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1200;
+
+    // Como mucho hay una cola de comandos llena de mensajes sin reciclar
+    private static final int POOL_CAPACITY = 4096;
+
+    private final int port;
+    private final int maxMessageSize;
+    private final MessageSerializers messages;
+    private volatile Events events;
+
+    // Sólo el hilo de red
+    private final HashMap<SocketAddress, Link> byAddress = new HashMap<>();
+    private int nextSession = 0;
+    // Las escribe el hilo de red y las lee el de ticks al mandar
+    private final ConcurrentHashMap<Integer, Link> bySession = new ConcurrentHashMap<>();
+    // Cortes pedidos por la partida: los hace el hilo de red
+    private final ConcurrentLinkedQueue<Integer> pendingCloses = new ConcurrentLinkedQueue<>();
+    private boolean stopped = false;
+
+    public UdpTransport(int port) throws IOException {
+        this(port, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    public UdpTransport(int port, int maxMessageSize) throws IOException {
+        super(maxMessageSize);
+        if (maxMessageSize <= 0) throw new IllegalArgumentException("maxMessageSize debe ser > 0: " + maxMessageSize);
+        this.port = port;
+        this.maxMessageSize = maxMessageSize;
+        messages = MessageSerializers.registerServerDecoder(decoder.getKryo(), POOL_CAPACITY);
+    }
+
+    @Override
+    public void start(Events events) throws IOException {
+        this.events = events;
+        channel.bind(new InetSocketAddress(port));
+        startLoop("UdpTransport-" + port);
+        System.out.println("🟢 Servidor iniciado (UDP crudo " + port + ")");
+    }
+
+    // -------------------------
+    // Hilo de red
+    // -------------------------
+
+    @Override
+    void onDatagram(SocketAddress from, ByteBuffer d, long nowMs) {
+        int type = d.get(0) & 0xFF;
+        Link link = byAddress.get(from);
+
+        if (type == HELLO) {
+            if (link == null) {
+                link = new Link(++nextSession, from);
+                link.lastReceivedMs = nowMs;
+                byAddress.put(from, link);
+                bySession.put(link.session, link);
+                events.connected(link.session);
+            }
+            // Repetido: el WELCOME anterior se perdió
+            sendWelcome(link);
+            return;
+        }
+        // Sin HELLO no hay sesión (o ya se cortó): se ignora
+        if (link == null) return;
+        link.lastReceivedMs = nowMs;
+
+        if (link.failed) return;
+
+        if (type == DATA) {
+            Object message = readMessage(d, 0);
+            if (message != null) deliver(link, message);
+        } else if (type == ProtocoloBinario.CONFIABLE || type == ProtocoloBinario.ACK_CONFIABLE) {
+            receiveReliable(link, d, nowMs);
+        } else if (type == BYE) {
+            drop(link);
+        }
+    }
+
+    @Override
+    void deliver(Link link, Object message) {
+        events.received(link.session, message);
+    }
+
+    @Override
+    void housekeeping(long nowMs) {
+        Integer session;
+        while ((session = pendingCloses.poll()) != null) {
+            Link link = bySession.get(session);
+            if (link == null) continue;
+            sendType(BYE, link.addr);
+            drop(link);
+        }
+
+        Iterator<Link> it = byAddress.values().iterator();
+        while (it.hasNext()) {
+            Link link = it.next();
+            if (!link.failed) retransmit(link, nowMs);
+            boolean timedOut = nowMs - link.lastReceivedMs > TIMEOUT_MS;
+            if (!link.failed && !timedOut) continue;
+
+            // Perdió un frame confiable: se le avisa (si el BYE se pierde, vence del otro lado)
+            if (link.failed) sendType(BYE, link.addr);
+            it.remove();
+            bySession.remove(link.session);
+            events.disconnected(link.session);
+        }
+    }
+
+    private void drop(Link link) {
+        byAddress.remove(link.addr);
+        if (bySession.remove(link.session) != null) events.disconnected(link.session);
+    }
+
+    // -------------------------
+    // MatchTransport (hilo de ticks)
+    // -------------------------
+
+    @Override
+    public int send(int session, boolean reliable, byte[] data, int length) {
+        Link link = bySession.get(session);
+        if (link == null) return 0;
+        return sendMessage(link, reliable, data, length);
+    }
+
+    @Override
+    public void sendToAll(boolean reliable, byte[] data, int length) {
+        for (Link link : bySession.values()) sendMessage(link, reliable, data, length);
+    }
+
+    @Override
+    public void close(int session) {
+        pendingCloses.offer(session);
+    }
+
+    @Override
+    public void recycle(Object message) {
+        messages.recycle(message);
+    }
+
+    @Override
+    public int maxMessageSize() {
+        return maxMessageSize;
+    }
+
+    @Override
+    public String label() {
+        return "udp_port=\"" + port + "\"";
+    }
+
+    @Override
+    public void stop() {
+        if (stopped) return;
+        stopped = true;
+        // Avisa a los que quedan; si el BYE se pierde, el cliente vence por timeout
+        for (Link link : bySession.values()) sendType(BYE, link.addr);
+        stopLoop();
+        System.out.println("🔴 Server cerrado");
+    }
+
+    /**
+     * Cliente de UdpTransport (carga de prueba, herramientas). receiver
+     * recibe lo que manda la partida desde el hilo de red del cliente.
+     */
+    public static final class Client extends UdpEndpoint implements MatchClient {
+
+        private static final long HELLO_INTERVAL_MS = 250;
+
+        private final InetSocketAddress server;
+        private final Consumer<Object> receiver;
+        private final Link link;
+        private final CountDownLatch welcomed = new CountDownLatch(1);
+
+        // Serializa lo que manda el cliente (send() sincronizado)
+        private final FanOutSerialization encoder = new FanOutSerialization(DEFAULT_MAX_MESSAGE_SIZE);
+        private final FanOutSerialization.Encoded frame = new FanOutSerialization.Encoded();
+
+        public Client(InetSocketAddress server, Consumer<Object> receiver) throws IOException {
+            super(DEFAULT_MAX_MESSAGE_SIZE);
+            this.server = server;
+            this.receiver = receiver;
+            link = new Link(0, server);
+            GameServer.registerClasses(decoder.getKryo());
+            GameServer.registerClasses(encoder.getKryo());
+            channel.bind(null);
+        }
+
+        /** Manda HELLO hasta que llega el WELCOME. false si no llegó a tiempo. */
+        public boolean connect(long timeoutMs) throws InterruptedException {
+            startLoop("UdpTransport.Client-" + server.getPort());
+            long deadline = nowMs() + timeoutMs;
+            while (nowMs() < deadline) {
+                sendType(HELLO, server);
+                if (welcomed.await(HELLO_INTERVAL_MS, TimeUnit.MILLISECONDS)) return true;
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        void onDatagram(SocketAddress from, ByteBuffer d, long nowMs) {
+            if (!server.equals(from)) return;
+            link.lastReceivedMs = nowMs;
+
+            int type = d.get(0) & 0xFF;
+            if (type == WELCOME) {
+                if (d.limit() >= WELCOME_LENGTH && welcomed.getCount() > 0) {
+                    link.session = d.getInt(1);
+                    welcomed.countDown();
+                }
+            } else if (type == DATA) {
+                Object message = readMessage(d, 0);
+                if (message != null) deliver(link, message);
+            } else if (type == ProtocoloBinario.CONFIABLE || type == ProtocoloBinario.ACK_CONFIABLE) {
+                receiveReliable(link, d, nowMs);
+            } else if (type == BYE) {
+                stopLoop();
+            }
+        }
+
+        @Override
+        void deliver(Link e, Object message) {
+            if (receiver != null) receiver.accept(message);
+        }
+
+        @Override
+        void housekeeping(long nowMs) {
+            if (welcomed.getCount() > 0) return;
+            if (link.failed) {
+                close();
+                return;
+            }
+            retransmit(link, nowMs);
+            // Sin nada que mandar, un ACK_CONFIABLE mantiene viva la sesión
+            if (nowMs - link.lastSentMs >= KEEPALIVE_MS) sendAck(link);
+        }
+
+        @Override
+        public int session() {
+            return link.session;
+        }
+
+        @Override
+        public synchronized void send(Object message, boolean reliable) {
+            if (!running()) return;
+            encoder.encode(message, frame);
+            sendMessage(link, reliable, frame.bytes, frame.length);
+        }
+
+        @Override
+        public void close() {
+            if (running()) sendType(BYE, server);
+            stopLoop();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+// =====================================================
+// ARCHIVO: CanalConfiableTest.java
+// PAQUETE: com.dinochrome.game.net (tests)
+// =====================================================
+package com.dinochrome.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Secuencias y acks de CanalConfiable: la vuelta en 0xFFFF, repetidos,
+ * frames más viejos que el mapa de bits y huecos, de los dos lados.
+ */
+public class CanalConfiableTest {
+
+    private final CanalConfiable canal = new CanalConfiable();
+    private final ByteBuffer destino = ByteBuffer.allocate(64);
+
+    /** Manda un frame de un byte y devuelve la secuencia que le tocó. */
+    private int mandar(int dato, long ahoraMs) {
+        canal.preparar(ByteBuffer.wrap(new byte[] { (byte) dato }), destino, ahoraMs);
+        return ProtocoloBinario.secuenciaConfiable(destino, 0);
+    }
+
+    // -------------------------
+    // Recepción
+    // -------------------------
+
+    @Test
+    public void sinNadaRecibidoNoConfirmaNada() {
+        assertEquals(0xFFFF, canal.ack());
+        assertEquals(0, canal.bitsAck());
+        assertTrue(canal.esMasNueva(0));
+        assertTrue(canal.recibir(5));
+        assertEquals(5, canal.ack());
+        assertTrue(canal.ackPendiente);
+    }
+
+    @Test
+    public void repetidaNoSeProcesaPeroSeConfirma() {
+        assertTrue(canal.recibir(5));
+        canal.ackPendiente = false;
+        assertFalse(canal.recibir(5));
+        assertTrue(canal.ackPendiente);
+        assertFalse(canal.esMasNueva(5));
+    }
+
+    @Test
+    public void huecoYLlegadaTarde() {
+        assertTrue(canal.recibir(10));
+        assertTrue(canal.recibir(13));
+        assertEquals(13, canal.ack());
+        assertEquals(0b100, canal.bitsAck()); // 10 sí, 11 y 12 no
+
+        assertFalse(canal.esMasNueva(11));
+        assertTrue(canal.recibir(11));
+        assertEquals(0b110, canal.bitsAck());
+        assertFalse(canal.recibir(11));
+        assertTrue(canal.recibir(12));
+        assertFalse(canal.recibir(10));
+        assertEquals(0b111, canal.bitsAck());
+        assertEquals(13, canal.ack());
+    }
+
+    @Test
+    public void masViejaQueElMapaDeBitsSeDescarta() {
+        assertTrue(canal.recibir(100));
+        assertFalse(canal.recibir(100 - 33));
+        // La más vieja que todavía entra en el mapa
+        assertTrue(canal.recibir(100 - 32));
+        assertEquals(1 << 31, canal.bitsAck());
+        assertFalse(canal.recibir(100 - 32));
+    }
+
+    @Test
+    public void saltoLargoLimpiaElMapaDeBits() {
+        assertTrue(canal.recibir(0));
+        assertTrue(canal.recibir(1));
+        // A 32 de distancia la anterior queda en el último bit
+        assertTrue(canal.recibir(33));
+        assertEquals(1 << 31, canal.bitsAck());
+        // Más lejos no queda nada
+        assertTrue(canal.recibir(33 + 40));
+        assertEquals(0, canal.bitsAck());
+        assertFalse(canal.recibir(33));
+    }
+
+    @Test
+    public void recepcionDaLaVueltaEn0xFFFF() {
+        assertTrue(canal.recibir(0xFFFE));
+        assertTrue(canal.recibir(0xFFFF));
+        assertTrue(canal.esMasNueva(0));
+        assertTrue(canal.recibir(0));
+        assertTrue(canal.recibir(1));
+        assertEquals(1, canal.ack());
+        assertEquals(0b111, canal.bitsAck()); // 0, 0xFFFF y 0xFFFE
+
+        // Del otro lado de la vuelta siguen siendo repetidas o viejas
+        assertFalse(canal.recibir(0xFFFF));
+        assertFalse(canal.esMasNueva(0xFFFF));
+        assertFalse(canal.esMasNueva(0xFFFE - 100));
+        assertTrue(canal.esMasNueva(2));
+    }
+
+    @Test
+    public void recepcionEnOrdenInversoDentroDeLaVentanaPorVariasVueltas() {
+        // De a grupos de 32 que llegan al revés: cada uno se procesa una sola vez
+        int procesadas = 0;
+        for (int base = 0; base < 3 * 0x10000; base += 32) {
+            for (int k = 31; k >= 0; k--) {
+                int seq = (base + k) & 0xFFFF;
+                if (canal.recibir(seq)) procesadas++;
+                assertFalse(canal.recibir(seq));
+            }
+        }
+        assertEquals(3 * 0x10000, procesadas);
+        assertEquals(0xFFFF, canal.ack());
+        assertEquals(-1, canal.bitsAck());
+    }
+
+    // -------------------------
+    // Envío
+    // -------------------------
+
+    @Test
+    public void laCabeceraLlevaSecuenciaYAcks() {
+        ByteBuffer frame = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertTrue(canal.preparar(frame, destino, 0));
+        assertEquals(ProtocoloBinario.LARGO_CONFIABLE + 3, destino.remaining());
+        assertEquals(0, ProtocoloBinario.secuenciaConfiable(destino, 0));
+        assertEquals(0xFFFF, ProtocoloBinario.ackConfiable(destino, 0));
+        assertEquals(3, destino.get(ProtocoloBinario.LARGO_CONFIABLE + 2));
+
+        canal.recibir(7);
+        canal.recibir(5);
+        mandar(0, 0);
+        assertEquals(1, ProtocoloBinario.secuenciaConfiable(destino, 0));
+        assertEquals(7, ProtocoloBinario.ackConfiable(destino, 0));
+        assertEquals(0b10, ProtocoloBinario.bitsConfiable(destino, 0));
+        assertFalse(canal.ackPendiente);
+    }
+
+    @Test
+    public void ackConMapaDeBitsLiberaLoRecibido() {
+        for (int i = 0; i < 5; i++) mandar(i, 0);
+        assertEquals(5, canal.pendientes());
+
+        // Llegaron 4, 3, 1 y 0: falta la 2
+        canal.recibirAcks(4, 0b1101, 10);
+        assertEquals(1, canal.pendientes());
+
+        long cuando = canal.proximoReenvio();
+        assertEquals(0, canal.reenviarVencido(destino, cuando - 1));
+        assertEquals(1, canal.reenviarVencido(destino, cuando));
+        assertEquals(2, ProtocoloBinario.secuenciaConfiable(destino, 0));
+        assertEquals(2, destino.get(ProtocoloBinario.LARGO_CONFIABLE));
+
+        canal.recibirAcks(2, 0, cuando + 10);
+        assertEquals(0, canal.pendientes());
+        assertEquals(Long.MAX_VALUE, canal.proximoReenvio());
+    }
+
+    @Test
+    public void ackRepetidoNoDescuentaDosVeces() {
+        mandar(0, 0);
+        mandar(1, 0);
+        canal.recibirAcks(0, 0, 5);
+        canal.recibirAcks(0, 0, 6);
+        canal.recibirAcks(1, 0b1, 7);
+        canal.recibirAcks(1, 0b1, 8);
+        assertEquals(0, canal.pendientes());
+
+        // Un ack de algo ya confirmado no libera lo nuevo
+        mandar(2, 10);
+        canal.recibirAcks(1, 0b1, 11);
+        assertEquals(1, canal.pendientes());
+    }
+
+    @Test
+    public void ackDeUnaVueltaAnteriorNoLiberaLaMismaRanura() {
+        mandar(0, 0);
+        canal.recibirAcks(0, 0, 1);
+        // La 32 cae en la misma ranura que la 0
+        for (int i = 1; i <= 32; i++) mandar(i, 2);
+        assertEquals(32, canal.pendientes());
+
+        canal.recibirAcks(0, 0, 3);
+        assertEquals(32, canal.pendientes());
+        canal.recibirAcks(32, 0, 4);
+        assertEquals(31, canal.pendientes());
+    }
+
+    @Test
+    public void envioDaLaVueltaEn0xFFFF() {
+        for (int i = 0; i < 0xFFFE; i++) {
+            assertEquals(i, mandar(i, i));
+            canal.recibirAcks(i, 0, i);
+        }
+        assertEquals(0, canal.pendientes());
+
+        assertEquals(0xFFFE, mandar(0, 0x10000));
+        assertEquals(0xFFFF, mandar(0, 0x10000));
+        assertEquals(0, mandar(0, 0x10000));
+        assertEquals(1, mandar(0, 0x10000));
+        assertEquals(4, canal.pendientes());
+
+        // El ack de 1 con 0, 0xFFFF y 0xFFFE en el mapa confirma a través de la vuelta
+        canal.recibirAcks(1, 0b011, 0x10001);
+        assertEquals(1, canal.pendientes());
+        canal.recibirAcks(1, 0b111, 0x10002);
+        assertEquals(0, canal.pendientes());
+    }
+
+    @Test
+    public void ventanaLlenaAbandonaElMasViejo() {
+        for (int i = 0; i < CanalConfiable.VENTANA; i++) {
+            assertTrue(canal.preparar(ByteBuffer.wrap(new byte[] { 1 }), destino, 0));
+        }
+        assertFalse(canal.preparar(ByteBuffer.wrap(new byte[] { 1 }), destino, 0));
+        assertEquals(CanalConfiable.VENTANA, canal.pendientes());
+
+        // La 0 ya no está: su ack no cuenta
+        canal.recibirAcks(0, 0, 1);
+        assertEquals(CanalConfiable.VENTANA, canal.pendientes());
+    }
+
+    @Test
+    public void seAbandonaDespuesDeMaxIntentos() {
+        mandar(9, 0);
+        int reenvios = 0;
+        int r;
+        long antes = 0;
+        while ((r = canal.reenviarVencido(destino, canal.proximoReenvio())) == 1) {
+            reenvios++;
+            assertEquals(9, destino.get(ProtocoloBinario.LARGO_CONFIABLE));
+            // Backoff: cada plazo es más largo o igual (tope RTO_MAX)
+            long plazo = canal.proximoReenvio();
+            assertTrue(plazo > antes);
+            antes = plazo;
+        }
+        assertEquals(-1, r);
+        assertEquals(CanalConfiable.MAX_INTENTOS, reenvios);
+        assertEquals(0, canal.pendientes());
+        assertEquals(0, canal.reenviarVencido(destino, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void descartarNoReenviaNada() {
+        for (int i = 0; i < 3; i++) mandar(i, 0);
+        canal.descartar();
+        assertEquals(0, canal.pendientes());
+        assertEquals(0, canal.reenviarVencido(destino, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, canal.proximoReenvio());
+    }
+}
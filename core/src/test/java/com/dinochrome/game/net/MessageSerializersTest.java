@@ -0,0 +1,154 @@
+// =====================================================
+// ARCHIVO: MessageSerializersTest.java
+// PAQUETE: com.dinochrome.game.net (tests)
+// =====================================================
+package com.dinochrome.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Lo que decodifica el servidor viene de cualquiera: un largo fuera de
+ * rango tiene que ser una KryoException antes de reservar nada.
+ */
+public class MessageSerializersTest {
+
+    // Kryo escribe el id de registro + 2 (0 = null, 1 = referencia)
+    private static final int SNAPSHOT = MessageSerializers.FIRST_ID + 4 + 2;
+    private static final int DELTA = MessageSerializers.FIRST_ID + 9 + 2;
+    private static final int BATCH = MessageSerializers.FIRST_ID + 11 + 2;
+    private static final int INT_ARRAY = MessageSerializers.FIRST_ID + 5 + 2;
+
+    private final FanOutSerialization serialization = new FanOutSerialization(65536);
+    private final Output output = new Output(64);
+
+    public MessageSerializersTest() {
+        MessageSerializers.register(serialization.getKryo(), 16);
+    }
+
+    private Object leer(byte[] bytes) {
+        return serialization.read(null, ByteBuffer.wrap(bytes));
+    }
+
+    private void rechaza(byte[] bytes) {
+        try {
+            Object o = leer(bytes);
+            throw new AssertionError("tenía que rechazarse: " + o);
+        } catch (KryoException esperado) {
+            // ok
+        }
+    }
+
+    @Test
+    public void snapshotConCountEnormeSeRechaza() {
+        output.writeVarInt(SNAPSHOT, true);
+        output.writeVarInt(1, true);
+        output.writeVarInt(Integer.MAX_VALUE, true);
+        rechaza(output.toBytes());
+    }
+
+    @Test
+    public void snapshotConMasJugadoresQueBytesSeRechaza() {
+        output.writeVarInt(SNAPSHOT, true);
+        output.writeVarInt(1, true);
+        output.writeVarInt(10, true);
+        output.writeVarInt(2, true); // un solo jugador a medias
+        rechaza(output.toBytes());
+    }
+
+    @Test
+    public void deltaConLargoEnormeSeRechaza() {
+        output.writeVarInt(DELTA, true);
+        output.writeVarInt(1, true);
+        output.writeVarInt(0, true);
+        output.writeVarInt(Integer.MAX_VALUE, true);
+        rechaza(output.toBytes());
+    }
+
+    @Test
+    public void obstaculosDeMasSeRechazan() {
+        output.writeVarInt(BATCH, true);
+        output.writeLong(1);
+        output.writeVarInt(60, true);
+        output.writeVarInt(1, true);
+        output.writeVarInt(MessageSerializers.MAX_ELEMENTS + 1, true);
+        rechaza(output.toBytes());
+    }
+
+    @Test
+    public void arraysSueltosNoSeAceptan() {
+        output.writeVarInt(INT_ARRAY, true);
+        output.writeVarInt(Integer.MAX_VALUE, true);
+        rechaza(output.toBytes());
+    }
+
+    @Test
+    public void elServidorNoAceptaMensajesDelServidor() {
+        FanOutSerialization servidor = new FanOutSerialization(65536);
+        MessageSerializers.registerServerDecoder(servidor.getKryo(), 16);
+
+        Snapshot s = new Snapshot();
+        s.count = 1;
+        s.playerIds = new int[] { 1 };
+        s.x = new float[] { 1f };
+        s.y = new float[] { 2f };
+        s.ducking = new boolean[] { false };
+        FanOutSerialization.Encoded encoded = serialization.encode(s, new FanOutSerialization.Encoded());
+        try {
+            servidor.read(null, ByteBuffer.wrap(encoded.bytes, 0, encoded.length));
+            throw new AssertionError("un Snapshot no llega al servidor");
+        } catch (KryoException esperado) {
+            // ok
+        }
+
+        // Lo de los clientes sí
+        PlayerState ps = new PlayerState();
+        ps.playerId = 3;
+        ps.x = 80f;
+        ps.ready = true;
+        serialization.encode(ps, encoded);
+        PlayerState leido = (PlayerState) servidor.read(null, ByteBuffer.wrap(encoded.bytes, 0, encoded.length));
+        assertEquals(3, leido.playerId);
+        assertTrue(leido.ready);
+    }
+
+    @Test
+    public void mensajesValidosVanYVuelven() {
+        FanOutSerialization.Encoded encoded = new FanOutSerialization.Encoded();
+
+        Snapshot s = new Snapshot();
+        s.tick = 5;
+        s.count = 2;
+        s.playerIds = new int[] { 1, 2, 99 };
+        s.x = new float[] { 80f, 90.5f, 0f };
+        s.y = new float[] { 10f, -20f, 0f };
+        s.ducking = new boolean[] { true, false, false };
+        serialization.encode(s, encoded);
+        Snapshot leido = (Snapshot) serialization.read(null, ByteBuffer.wrap(encoded.bytes, 0, encoded.length));
+        assertEquals(2, leido.count);
+        assertEquals(2, leido.playerIds[1]);
+        assertEquals(90.5f, leido.x[1], 0f);
+        assertTrue(leido.ducking[0]);
+
+        ObstacleBatch b = new ObstacleBatch();
+        b.count = 300;
+        b.tickRate = 60;
+        b.ticks = new int[b.count];
+        b.types = new byte[b.count];
+        b.y = new float[b.count];
+        b.width = new short[b.count];
+        b.height = new short[b.count];
+        for (int i = 0; i < b.count; i++) b.ticks[i] = i * 7;
+        serialization.encode(b, encoded);
+        ObstacleBatch lote = (ObstacleBatch) serialization.read(null, ByteBuffer.wrap(encoded.bytes, 0, encoded.length));
+        assertEquals(300, lote.count);
+        assertEquals(299 * 7, lote.ticks[299]);
+    }
+}
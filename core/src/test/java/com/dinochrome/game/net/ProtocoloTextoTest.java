@@ -0,0 +1,197 @@
+// =====================================================
+// ARCHIVO: ProtocoloTextoTest.java
+// PAQUETE: com.dinochrome.game.net (tests)
+// =====================================================
+package com.dinochrome.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * parsearFloat contra Float.parseFloat (lo que manda el cliente sale de
+ * Float.toString) y los límites de ponerFloat y de las coordenadas.
+ */
+public class ProtocoloTextoTest {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static float parsear(String s) {
+        return ProtocoloTexto.parsearFloat(ascii(s), 0, s.length());
+    }
+
+    private static void igualQueParseFloat(String s) {
+        float esperado = Float.parseFloat(s);
+        float leido = parsear(s);
+        assertEquals(s, Float.floatToIntBits(esperado), Float.floatToIntBits(leido));
+    }
+
+    private String estado(float x, float y) {
+        ProtocoloTexto.escribirEstado(buffer, 1, x, y, false);
+        return new String(buffer.array(), 0, buffer.limit(), StandardCharsets.US_ASCII);
+    }
+
+    private static boolean parsearEstado(String s, Jugador j) {
+        return ProtocoloTexto.parsearEstado(ascii(s), 0, s.length(), j);
+    }
+
+    // -------------------------
+    // parsearFloat
+    // -------------------------
+
+    @Test
+    public void idaYVueltaConFloatToString() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            float f;
+            switch (i % 3) {
+                case 0:
+                    f = Float.intBitsToFloat(rnd.nextInt()); // cualquier float, con exponente
+                    break;
+                case 1:
+                    f = (rnd.nextFloat() - 0.5f) * 2000f; // posiciones del mundo
+                    break;
+                default:
+                    f = (float) (rnd.nextGaussian() * Math.pow(10, rnd.nextInt(20) - 10));
+                    break;
+            }
+            if (Float.isNaN(f) || Float.isInfinite(f)) continue;
+            igualQueParseFloat(Float.toString(f));
+            igualQueParseFloat(String.format(Locale.ROOT, "%.3f", f));
+        }
+    }
+
+    @Test
+    public void signosYExponentes() {
+        String[] casos = {
+            "0", "-0", "+0", "0.0", "-0.0", "12", "-3.5", "+7.25", ".5", "5.", "-.5",
+            "1.0E3", "1.0e3", "1E+3", "1.5E-3", "-2.5E-7", "3.4028235E38", "1.4E-45",
+            "1.17549435E-38", "9.999999E-39", "1E-50", "1E39", "-1E39", "0.0001E4"
+        };
+        for (String s : casos) igualQueParseFloat(s);
+    }
+
+    @Test
+    public void mantisasLargas() {
+        String[] casos = {
+            "0.1000000000000000055511151231257827",
+            "123456789012345678901234567890",
+            "1234567890123456789012345.678901234567890",
+            "0.000000000000000000000000000000000000001175494351",
+            "16777217", "16777216.5", "33554433.0000000000000000001",
+            "800.00000000000000000000000000000000000000000001"
+        };
+        for (String s : casos) igualQueParseFloat(s);
+
+        Random rnd = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            if (rnd.nextBoolean()) sb.append('-');
+            sb.append(1 + rnd.nextInt(9));
+            for (int k = rnd.nextInt(8); k > 0; k--) sb.append(rnd.nextInt(10));
+            sb.append('.');
+            for (int k = 1 + rnd.nextInt(30); k > 0; k--) sb.append(rnd.nextInt(10));
+            if (rnd.nextInt(3) == 0) sb.append('E').append(rnd.nextInt(60) - 30);
+            igualQueParseFloat(sb.toString());
+        }
+    }
+
+    @Test
+    public void malFormadoEsNaN() {
+        String[] casos = {
+            "", "-", "+", ".", "-.", "E5", "1E", "1E+", "1E-", "1.2.3", "1..2",
+            "abc", "1x", "1 ", " 1", "--1", "+-1", "1E5.0", "1E5E5", "0x10", "1f", "NaN", "Infinity"
+        };
+        for (String s : casos) {
+            assertTrue("'" + s + "'", Float.isNaN(parsear(s)));
+        }
+    }
+
+    // -------------------------
+    // ponerFloat y coordenadas
+    // -------------------------
+
+    @Test
+    public void ponerFloatTieneTresDecimalesYSeLeeConParseFloat() {
+        assertEquals("STATE;id=1;x=800.0;y=12.375;duck=0", estado(800f, 12.375f));
+        assertEquals("STATE;id=1;x=-0.5;y=0.05;duck=0", estado(-0.5f, 0.05f));
+
+        Random rnd = new Random(9);
+        Jugador j = new Jugador();
+        for (int i = 0; i < 100_000; i++) {
+            float x = (rnd.nextFloat() - 0.5f) * 2 * ProtocoloTexto.LIMITE_COORDENADA;
+            float y = (rnd.nextFloat() - 0.5f) * 2000f;
+            String s = estado(x, y);
+            String[] campos = s.split(";");
+            assertEquals(x, Float.parseFloat(campos[2].substring(2)), 0.0005 + Math.ulp(x));
+            assertEquals(y, Float.parseFloat(campos[3].substring(2)), 0.0005 + Math.ulp(y));
+            assertTrue(s, parsearEstado(s, j));
+        }
+    }
+
+    @Test
+    public void ponerFloatRecortaLoQueNoEntra() {
+        assertEquals("STATE;id=1;x=-100000.0;y=100000.0;duck=0", estado(-1e30f, 1e30f));
+        assertEquals("STATE;id=1;x=-100000.0;y=100000.0;duck=0",
+            estado(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY));
+        assertEquals("STATE;id=1;x=0.0;y=-100000.0;duck=0", estado(Float.NaN, -Float.MAX_VALUE));
+
+        // Lo recortado sigue siendo un STATE que aceptan los dos lados
+        String s = estado(-1e30f, 1e30f);
+        Float.parseFloat(s.split(";")[2].substring(2));
+        assertTrue(parsearEstado(s, new Jugador()));
+    }
+
+    @Test
+    public void coordenadasFueraDelMundoSeRechazan() {
+        Jugador j = new Jugador();
+        j.x = 7f;
+        assertFalse(parsearEstado("STATE;id=1;x=1e30;y=0;duck=0", j));
+        assertFalse(parsearEstado("STATE;id=1;x=0;y=-1E30;duck=0", j));
+        assertFalse(parsearEstado("STATE;id=1;x=100000.1;y=0;duck=0", j));
+        assertFalse(parsearEstado("STATE;id=1;x=1E39;y=0;duck=0", j));
+        assertFalse(parsearEstado("STATE;id=1;x=--5;y=0;duck=0", j));
+        assertEquals(7f, j.x, 0f);
+
+        assertTrue(parsearEstado("STATE;id=1;x=-100000;y=100000.0;duck=1", j));
+        assertEquals(-100000f, j.x, 0f);
+        assertTrue(j.duck);
+    }
+
+    @Test
+    public void elStateBinarioTambienRechazaCoordenadasFueraDelMundo() {
+        float[] malas = { Float.NaN, Float.POSITIVE_INFINITY, -1e30f, ProtocoloTexto.LIMITE_COORDENADA * 2 };
+        Jugador j = new Jugador();
+        for (float x : malas) {
+            assertFalse(String.valueOf(x), ProtocoloBinario.parsearEstado(estadoBinario(x, 0f), 0,
+                ProtocoloBinario.LARGO_STATE, j));
+            assertFalse(String.valueOf(x), ProtocoloBinario.parsearEstado(estadoBinario(0f, x), 0,
+                ProtocoloBinario.LARGO_STATE, j));
+        }
+        assertTrue(ProtocoloBinario.parsearEstado(estadoBinario(80f, -3f), 0, ProtocoloBinario.LARGO_STATE, j));
+        assertEquals(80f, j.x, 0f);
+    }
+
+    // tipo | id | flags | x f32 | y f32
+    private static ByteBuffer estadoBinario(float x, float y) {
+        ByteBuffer b = ByteBuffer.allocate(ProtocoloBinario.LARGO_STATE);
+        b.put((byte) ProtocoloBinario.STATE);
+        b.put((byte) 1);
+        b.put((byte) 0);
+        b.putFloat(x);
+        b.putFloat(y);
+        b.flip();
+        return b;
+    }
+}
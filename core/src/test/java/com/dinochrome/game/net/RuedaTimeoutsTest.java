@@ -0,0 +1,187 @@
+// =====================================================
+// ARCHIVO: RuedaTimeoutsTest.java
+// PAQUETE: com.dinochrome.game.net (tests)
+// =====================================================
+package com.dinochrome.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Vencimiento y refresco de RuedaTimeouts, incluso cuando el tiempo da
+ * varias vueltas a la rueda (1000 ms / 10 ms = 128 ranuras).
+ */
+public class RuedaTimeoutsTest {
+
+    private static final long TIMEOUT_MS = 1000;
+    private static final long RESOLUCION_MS = 10;
+    private static final long VUELTA_MS = 128 * RESOLUCION_MS;
+    // Que las ranuras no empiecen en 0
+    private static final long BASE = 1_000_000_007L;
+
+    private final RuedaTimeouts rueda = new RuedaTimeouts(TIMEOUT_MS, RESOLUCION_MS);
+    private final ArrayList<Jugador> vencidos = new ArrayList<>();
+
+    private Jugador agregar(long ultimoPaqueteMs) {
+        Jugador j = new Jugador();
+        j.ultimoPaqueteMs = ultimoPaqueteMs;
+        rueda.agregar(j);
+        return j;
+    }
+
+    private void vencer(long ahora) {
+        rueda.vencer(ahora, vencidos::add);
+    }
+
+    /** Avanza de a una resolución hasta que vence alguien; devuelve cuándo. */
+    private long avanzarHastaVencer(long desde, long limite) {
+        for (long t = desde; t <= limite; t += RESOLUCION_MS) {
+            vencer(t);
+            if (!vencidos.isEmpty()) return t;
+        }
+        return -1;
+    }
+
+    @Test
+    public void venceRecienPasadoElTimeout() {
+        vencer(BASE);
+        Jugador j = agregar(BASE);
+
+        long t = avanzarHastaVencer(BASE, BASE + 2 * TIMEOUT_MS);
+        assertTrue("venció antes del timeout: " + (t - BASE), t - BASE > TIMEOUT_MS);
+        assertTrue("venció tarde: " + (t - BASE), t - BASE <= TIMEOUT_MS + 2 * RESOLUCION_MS);
+        assertEquals(1, vencidos.size());
+        assertTrue(vencidos.get(0) == j);
+        assertEquals(-1, j.ranuraRueda);
+        assertEquals(0, rueda.cantidad());
+    }
+
+    @Test
+    public void refrescarPostergaElVencimiento() {
+        vencer(BASE);
+        Jugador j = agregar(BASE);
+
+        // Refrescada a mitad de camino: su ranura original pasa sin vencerla
+        for (long t = BASE; t <= BASE + TIMEOUT_MS / 2; t += RESOLUCION_MS) vencer(t);
+        j.ultimoPaqueteMs = BASE + TIMEOUT_MS / 2;
+
+        long t = avanzarHastaVencer(BASE + TIMEOUT_MS / 2, BASE + 3 * TIMEOUT_MS);
+        assertTrue(t - j.ultimoPaqueteMs > TIMEOUT_MS);
+        assertTrue(t - j.ultimoPaqueteMs <= TIMEOUT_MS + 2 * RESOLUCION_MS);
+    }
+
+    @Test
+    public void refrescadaNoVenceAunqueLaRuedaDeVueltas() {
+        vencer(BASE);
+        Jugador viva = agregar(BASE);
+        Jugador muda = agregar(BASE);
+
+        long fin = BASE + 10 * VUELTA_MS;
+        long vencioMuda = -1;
+        for (long t = BASE; t <= fin; t += RESOLUCION_MS) {
+            if ((t - BASE) % 300 == 0) viva.ultimoPaqueteMs = t;
+            vencer(t);
+            if (vencioMuda < 0 && !vencidos.isEmpty()) vencioMuda = t;
+        }
+
+        assertEquals(1, vencidos.size());
+        assertTrue(vencidos.get(0) == muda);
+        assertTrue(vencioMuda - BASE > TIMEOUT_MS && vencioMuda - BASE <= TIMEOUT_MS + 2 * RESOLUCION_MS);
+        assertTrue(viva.ranuraRueda >= 0);
+        assertEquals(1, rueda.cantidad());
+    }
+
+    @Test
+    public void saltoDeVariasVueltasRecorreCadaRanuraUnaVez() {
+        vencer(BASE);
+        Jugador vieja = agregar(BASE);
+        Jugador nueva = agregar(BASE);
+
+        // Nadie revisó durante 5 s (casi 4 vueltas); la nueva habló hace poco
+        long salto = BASE + 5000;
+        nueva.ultimoPaqueteMs = salto - 100;
+        vencer(salto);
+
+        assertEquals(1, vencidos.size());
+        assertTrue(vencidos.get(0) == vieja);
+        assertEquals(1, rueda.cantidad());
+
+        vencidos.clear();
+        long t = avanzarHastaVencer(salto, salto + 2 * TIMEOUT_MS);
+        assertTrue(vencidos.get(0) == nueva);
+        assertTrue(t - nueva.ultimoPaqueteMs > TIMEOUT_MS);
+        assertTrue(t - nueva.ultimoPaqueteMs <= TIMEOUT_MS + 2 * RESOLUCION_MS);
+    }
+
+    @Test
+    public void vencimientoMasAllaDeUnaVueltaEsperaSuTiempo() {
+        vencer(BASE);
+        // Más lejos que una vuelta: se cuelga en la última ranura y se reubica
+        Jugador j = agregar(BASE + 3 * VUELTA_MS);
+
+        long t = avanzarHastaVencer(BASE, BASE + 6 * VUELTA_MS);
+        assertTrue(vencidos.get(0) == j);
+        assertTrue(t - j.ultimoPaqueteMs > TIMEOUT_MS);
+        assertTrue(t - j.ultimoPaqueteMs <= TIMEOUT_MS + 2 * RESOLUCION_MS);
+    }
+
+    @Test
+    public void quitadaNoVence() {
+        vencer(BASE);
+        Jugador j = agregar(BASE);
+        agregar(BASE);
+        rueda.agregar(j); // repetido: no cuenta dos veces
+        assertEquals(2, rueda.cantidad());
+
+        rueda.quitar(j);
+        rueda.quitar(j);
+        assertEquals(1, rueda.cantidad());
+        assertEquals(-1, j.ranuraRueda);
+
+        avanzarHastaVencer(BASE, BASE + 3 * TIMEOUT_MS);
+        assertEquals(1, vencidos.size());
+        assertFalse(vencidos.get(0) == j);
+        assertEquals(0, rueda.cantidad());
+    }
+
+    @Test
+    public void coincideConRecorrerTodasLasSesiones() {
+        Random rnd = new Random(42);
+        long ahora = BASE;
+        vencer(ahora);
+
+        ArrayList<Jugador> vivas = new ArrayList<>();
+        for (int i = 0; i < 300; i++) vivas.add(agregar(ahora));
+
+        for (int paso = 0; paso < 5000; paso++) {
+            // Pasos cortos y, cada tanto, un hueco de más de una vuelta
+            ahora += rnd.nextInt(20) == 0 ? 1000 + rnd.nextInt(3000) : 1 + rnd.nextInt(40);
+
+            for (Jugador j : vivas) {
+                if (rnd.nextInt(8) == 0) j.ultimoPaqueteMs = Math.max(j.ultimoPaqueteMs, ahora - rnd.nextInt(50));
+            }
+            if (rnd.nextInt(4) == 0) vivas.add(agregar(ahora));
+            if (rnd.nextInt(10) == 0 && !vivas.isEmpty()) rueda.quitar(vivas.remove(rnd.nextInt(vivas.size())));
+
+            vencidos.clear();
+            vencer(ahora);
+
+            for (Jugador j : vencidos) {
+                assertTrue("venció antes de tiempo", j.ultimoPaqueteMs + TIMEOUT_MS < ahora);
+                assertTrue(vivas.remove(j));
+            }
+            // Lo vencido de antes de la ranura actual ya tuvo que salir
+            for (Jugador j : vivas) {
+                long vence = j.ultimoPaqueteMs + TIMEOUT_MS;
+                assertTrue("no venció a tiempo", vence / RESOLUCION_MS >= ahora / RESOLUCION_MS);
+            }
+            assertEquals(vivas.size(), rueda.cantidad());
+        }
+    }
+}
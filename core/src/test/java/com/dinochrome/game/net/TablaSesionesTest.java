@@ -0,0 +1,125 @@
+// =====================================================
+// ARCHIVO: TablaSesionesTest.java
+// PAQUETE: com.dinochrome.game.net (tests)
+// =====================================================
+package com.dinochrome.game.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * TablaSesiones contra un HashMap: altas, bajas y reemplazos mezclados,
+ * para que el corrimiento hacia atrás se ejercite con tramos largos.
+ */
+public class TablaSesionesTest {
+
+    private final TablaSesiones tabla = new TablaSesiones();
+    private final HashMap<Integer, Jugador> oraculo = new HashMap<>();
+
+    private void comparar() {
+        assertEquals(oraculo.size(), tabla.size());
+        for (Map.Entry<Integer, Jugador> e : oraculo.entrySet()) {
+            assertSame("sesión " + e.getKey(), e.getValue(), tabla.get(e.getKey()));
+        }
+    }
+
+    @Test
+    public void sesionCeroNoEsValida() {
+        assertNull(tabla.get(0));
+        assertFalse(tabla.contiene(0));
+        tabla.remove(0);
+        try {
+            tabla.put(0, new Jugador());
+            throw new AssertionError("put(0) tenía que fallar");
+        } catch (IllegalArgumentException esperado) {
+            // ok
+        }
+        assertEquals(0, tabla.size());
+    }
+
+    @Test
+    public void reemplazarNoCuentaDosVeces() {
+        Jugador a = new Jugador();
+        Jugador b = new Jugador();
+        tabla.put(7, a);
+        tabla.put(7, b);
+        assertEquals(1, tabla.size());
+        assertSame(b, tabla.get(7));
+
+        tabla.remove(7);
+        tabla.remove(7);
+        assertEquals(0, tabla.size());
+        assertNull(tabla.get(7));
+    }
+
+    @Test
+    public void idsConsecutivosCrecenYSeVacian() {
+        // Como los da el servidor: 1, 2, 3... pasando por varios agrandar()
+        for (int s = 1; s <= 5000; s++) {
+            Jugador j = new Jugador();
+            tabla.put(s, j);
+            oraculo.put(s, j);
+        }
+        comparar();
+
+        for (int s = 1; s <= 5000; s += 2) {
+            tabla.remove(s);
+            oraculo.remove(s);
+        }
+        comparar();
+        for (int s = 1; s <= 5000; s += 2) assertFalse(tabla.contiene(s));
+
+        for (int s = 2; s <= 5000; s += 2) tabla.remove(s);
+        assertEquals(0, tabla.size());
+    }
+
+    @Test
+    public void altasYBajasCoincidenConHashMap() {
+        Random rnd = new Random(7);
+        ArrayList<Integer> vivas = new ArrayList<>();
+
+        for (int paso = 0; paso < 100_000; paso++) {
+            int op = rnd.nextInt(10);
+            if (op < 5 || vivas.isEmpty()) {
+                // Ids al azar (negativos incluidos) y algunos de un rango chico para que choquen
+                int s = rnd.nextBoolean() ? rnd.nextInt() : 1 + rnd.nextInt(4096);
+                if (s == 0) continue;
+                Jugador j = new Jugador();
+                if (oraculo.put(s, j) == null) vivas.add(s);
+                tabla.put(s, j);
+            } else if (op < 9) {
+                int idx = rnd.nextInt(vivas.size());
+                int s = vivas.get(idx);
+                vivas.set(idx, vivas.get(vivas.size() - 1));
+                vivas.remove(vivas.size() - 1);
+                oraculo.remove(s);
+                tabla.remove(s);
+                assertNull(tabla.get(s));
+            } else {
+                // Baja de algo que no está: no cambia nada
+                int s = rnd.nextInt();
+                if (s == 0 || oraculo.containsKey(s)) continue;
+                tabla.remove(s);
+            }
+
+            assertEquals(oraculo.size(), tabla.size());
+            if (paso % 1000 == 0) comparar();
+        }
+        comparar();
+
+        // Vaciar en otro orden deja la tabla sin restos
+        for (int s : vivas) tabla.remove(s);
+        assertEquals(0, tabla.size());
+        for (int s : vivas) assertTrue(!tabla.contiene(s));
+    }
+}
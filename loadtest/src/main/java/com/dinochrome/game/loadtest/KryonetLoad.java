@@ -0,0 +1,159 @@
+// =====================================================
+// ARCHIVO: KryonetLoad.java
+// PAQUETE: com.dinochrome.game.loadtest
+// =====================================================
+package com.dinochrome.game.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dinochrome.game.net.GameServer;
+import com.dinochrome.game.net.PlayerState;
+import com.dinochrome.game.net.Snapshot;
+import com.dinochrome.game.net.StartGame;
+import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+
+/**
+ * Clientes simulados de GameServer (Kryonet).
+ *
+ * Cada GameServer es una partida de 2 jugadores, así que los clientes se
+ * reparten de a dos por partida con la misma distribución de puertos que
+ * ServerLauncher (TCP base + 2i, UDP base + 2i + 1). Kryonet necesita un
+ * hilo de update por cliente; los PlayerState los manda un solo hilo.
+ *
+ * El servidor agrupa los estados en Snapshots, así que no todos los
+ * PlayerState llegan al rival: la latencia es desde que el rival mandó su
+ * último estado hasta que llega en un Snapshot, y no se mide pérdida.
+ */
+final class KryonetLoad implements LoadTest.Driver {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final String host;
+    private final int tcpPort;
+    private final int udpPort;
+    private final int matches;
+    private final LoadStats stats;
+
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private final CopyOnWriteArrayList<Client> playingClients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loadtest-kryonet-send");
+        t.setDaemon(true);
+        return t;
+    });
+
+    KryonetLoad(String host, int tcpPort, int udpPort, int matches, int rate, LoadStats stats) {
+        this.host = host;
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.matches = matches;
+        this.stats = stats;
+
+        long interval = 1_000_000_000L / rate;
+        sender.scheduleAtFixedRate(this::sendStates, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void addClients(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            int match = clients.size() / 2;
+            if (match >= matches) {
+                throw new IOException("No hay más partidas: " + matches + " partidas = " + (2 * matches) + " clientes");
+            }
+
+            // Un solo GameServer usa sus puertos; con varias partidas, el esquema de ServerLauncher
+            int tcp = matches == 1 ? tcpPort : tcpPort + 2 * match;
+            int udp = matches == 1 ? udpPort : tcpPort + 2 * match + 1;
+
+            Client client = new Client();
+            GameServer.registerClasses(client.getKryo());
+            client.addListener(new SimListener(client));
+            client.start();
+            try {
+                client.connect(CONNECT_TIMEOUT_MS, host, tcp, udp);
+            } catch (IOException e) {
+                rejected.incrementAndGet();
+                client.stop();
+                continue;
+            }
+            clients.add(client);
+
+            PlayerState ready = new PlayerState();
+            ready.ready = true;
+            client.sendTCP(ready);
+        }
+    }
+
+    @Override
+    public int playingSessions() {
+        return playingClients.size();
+    }
+
+    @Override
+    public int rejectedSessions() {
+        return rejected.get();
+    }
+
+    @Override
+    public boolean measuresLoss() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        sender.shutdownNow();
+        for (Client c : clients) c.stop();
+    }
+
+    private void sendStates() {
+        PlayerState ps = new PlayerState();
+        for (Client c : playingClients) {
+            long micros = stats.nowMicros();
+            ps.x = LoadStats.stampX(micros);
+            ps.y = LoadStats.stampY(micros);
+            c.sendUDP(ps);
+            stats.current().sent.increment();
+        }
+    }
+
+    private final class SimListener extends Listener {
+        private final Client client;
+        private boolean playing;
+
+        SimListener(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void received(Connection connection, Object object) {
+            if (object instanceof StartGame) {
+                if (!playing) {
+                    playing = true;
+                    playingClients.add(client);
+                }
+                return;
+            }
+
+            if (object instanceof Snapshot && playing) {
+                Snapshot s = (Snapshot) object;
+                for (int i = 0; i < s.count; i++) {
+                    if (s.playerIds[i] != client.getID()) stats.recordRelay(s.x[i], s.y[i]);
+                }
+            }
+        }
+
+        @Override
+        public void disconnected(Connection connection) {
+            if (playingClients.remove(client)) stats.current().errors.increment();
+        }
+    }
+}
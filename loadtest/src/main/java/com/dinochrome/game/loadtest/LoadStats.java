@@ -0,0 +1,86 @@
+// =====================================================
+// ARCHIVO: LoadStats.java
+// PAQUETE: com.dinochrome.game.loadtest
+// =====================================================
+package com.dinochrome.game.loadtest;
+
+import com.dinochrome.game.net.Counter;
+import com.dinochrome.game.net.LatencyHistogram;
+
+/**
+ * Mediciones de la prueba de carga, por ventana de tiempo.
+ *
+ * Los hilos de los clientes siempre escriben en la ventana actual; para
+ * medir un escalón nuevo se abre otra ventana y la anterior queda fija
+ * para el reporte (así el warmup no ensucia los percentiles).
+ */
+final class LoadStats {
+
+    static final class Window {
+        final long startNanos = System.nanoTime();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Counter sent = new Counter();
+        final Counter received = new Counter();
+        final Counter errors = new Counter();
+
+        /** Fracción de STATE enviados que el rival nunca recibió. */
+        double loss() {
+            long s = sent.get();
+            if (s == 0) return 0;
+            return Math.max(0, 1.0 - (double) received.get() / s);
+        }
+
+        double seconds() {
+            return (System.nanoTime() - startNanos) / 1e9;
+        }
+    }
+
+    // Base de los timestamps que viajan dentro de los STATE
+    private final long originNanos = System.nanoTime();
+
+    private volatile Window current = new Window();
+
+    Window current() {
+        return current;
+    }
+
+    /** Empieza una ventana nueva y devuelve la que se cierra. */
+    Window roll() {
+        Window previous = current;
+        current = new Window();
+        return previous;
+    }
+
+    /** Microsegundos desde el inicio de la prueba (el reloj que se manda en x/y). */
+    long nowMicros() {
+        return (System.nanoTime() - originNanos) / 1000;
+    }
+
+    // -------------------------
+    // Timestamp dentro de un STATE
+    // -------------------------
+    // x = segundos, y = microsegundos: los dos son enteros exactos en un float
+    // (< 2^24), así sobreviven el relay de texto y el binario sin perder precisión.
+    // y va corrido hacia arriba: el dino queda por encima de cualquier obstáculo
+    // y la simulación del servidor no termina las partidas durante la prueba.
+    private static final int Y_SOBRE_OBSTACULOS = 1000;
+
+    static float stampX(long micros) {
+        return (float) (micros / 1_000_000);
+    }
+
+    static float stampY(long micros) {
+        return (float) (micros % 1_000_000 + Y_SOBRE_OBSTACULOS);
+    }
+
+    static long stampMicros(float x, float y) {
+        return (long) x * 1_000_000 + (long) y - Y_SOBRE_OBSTACULOS;
+    }
+
+    /** Registra un STATE del rival: latencia desde que lo mandó hasta ahora. */
+    void recordRelay(float x, float y) {
+        Window w = current;
+        w.received.increment();
+        w.latency.record((nowMicros() - stampMicros(x, y)) * 1000);
+    }
+}
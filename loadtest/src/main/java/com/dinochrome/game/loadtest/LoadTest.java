@@ -0,0 +1,180 @@
+// =====================================================
+// ARCHIVO: LoadTest.java
+// PAQUETE: com.dinochrome.game.loadtest
+// =====================================================
+package com.dinochrome.game.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+import com.dinochrome.game.net.GameServer;
+
+/**
+ * Generador de carga sin ventana: simula jugadores contra un servidor que
+ * ya está corriendo y reporta latencia de relay (p50/p99/p999), pérdida y
+ * cuántas sesiones aguanta.
+ *
+ *   udp      ServidorDinoMultijugador: BUSCAR_SERVIDOR, JOIN, READY, STATE
+ *   kryonet  GameServer / ServerLauncher: PlayerState y Snapshots
+ *   rawudp   lo mismo con ServerLauncher sobre UdpTransport
+ *   loopback lo mismo con las partidas en este proceso (LoopbackTransport)
+ *
+ * Con --ramp se agregan --step clientes por escalón hasta que el p99 o la
+ * pérdida pasan el límite; el último escalón que cumplió es la cantidad
+ * máxima de sesiones sostenible.
+ *
+ * Ejemplos:
+ *   loadtest udp --clients=2000 --duration=30
+ *   loadtest udp --v2 --ramp --step=500 --max-p99-ms=20
+ *   loadtest kryonet --port=56000 --matches=100
+ *   loadtest loopback --matches=100 --clients=200
+ */
+public class LoadTest {
+
+    /** Lo que cada servidor necesita para simular clientes. */
+    interface Driver {
+        /** Agrega n clientes nuevos; cada uno arranca su handshake solo. */
+        void addClients(int n) throws IOException;
+
+        /** Clientes que ya están mandando estados. */
+        int playingSessions();
+
+        /** Clientes que el servidor rechazó (FULL o sin conexión). */
+        int rejectedSessions();
+
+        boolean measuresLoss();
+
+        void close();
+    }
+
+    private static final String DEFAULT_HOST = "127.0.0.1";
+    private static final int DEFAULT_UDP_PORT = 4321;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "";
+        if (!mode.equals("udp") && !mode.equals("kryonet") && !mode.equals("rawudp") && !mode.equals("loopback")) {
+            usage();
+            return;
+        }
+        boolean udp = mode.equals("udp");
+
+        String host = DEFAULT_HOST;
+        int port = udp ? DEFAULT_UDP_PORT : GameServer.DEFAULT_TCP_PORT;
+        int udpPort = GameServer.DEFAULT_UDP_PORT;
+        int matches = 1;
+        int clients = 2;
+        int rate = 60;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int warmupSeconds = 5;
+        int durationSeconds = 30;
+        boolean binary = false;
+        boolean ramp = false;
+        int step = 200;
+        double maxP99Ms = 50;
+        double maxLoss = 0.01;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--host=")) host = value(arg);
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--udp-port=")) udpPort = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--matches=")) matches = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--clients=")) clients = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--rate=")) rate = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--warmup=")) warmupSeconds = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--duration=")) durationSeconds = Integer.parseInt(value(arg));
+            else if (arg.equals("--v2")) binary = true;
+            else if (arg.equals("--ramp")) ramp = true;
+            else if (arg.startsWith("--step=")) step = Integer.parseInt(value(arg));
+            else if (arg.startsWith("--max-p99-ms=")) maxP99Ms = Double.parseDouble(value(arg));
+            else if (arg.startsWith("--max-loss=")) maxLoss = Double.parseDouble(value(arg));
+            else throw new IllegalArgumentException("Opción desconocida: " + arg);
+        }
+        // Las partidas son de 2: siempre clientes pares
+        clients += clients & 1;
+        step += step & 1;
+
+        LoadStats stats = new LoadStats();
+        Driver driver;
+        if (udp) driver = new UdpLoad(new InetSocketAddress(host, port), binary, rate, threads, stats);
+        else if (mode.equals("kryonet")) driver = new KryonetLoad(host, port, udpPort, matches, rate, stats);
+        else driver = new TransportLoad(mode.equals("loopback"), host, port, udpPort, matches, rate, stats);
+
+        System.out.println(String.format(Locale.ROOT, "%-8s %8s %8s %10s %10s %8s %9s %9s %9s %9s",
+            "clients", "playing", "rejected", "sent/s", "recv/s", "loss%", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+
+        try {
+            if (!ramp) {
+                driver.addClients(clients);
+                Thread.sleep(warmupSeconds * 1000L);
+                stats.roll();
+                Thread.sleep(durationSeconds * 1000L);
+                report(clients, driver, stats.roll());
+                return;
+            }
+
+            int total = 0;
+            int sustained = 0;
+            while (true) {
+                driver.addClients(step);
+                total += step;
+
+                Thread.sleep(warmupSeconds * 1000L);
+                stats.roll();
+                Thread.sleep(durationSeconds * 1000L);
+                LoadStats.Window w = stats.roll();
+                report(total, driver, w);
+
+                boolean ok = driver.playingSessions() >= total
+                    && w.latency.getCount() > 0
+                    && w.latency.percentile(0.99) / 1e6 <= maxP99Ms
+                    && (!driver.measuresLoss() || w.loss() <= maxLoss);
+                if (!ok) break;
+                sustained = total;
+            }
+            System.out.println(String.format(Locale.ROOT,
+                "Máximo sostenible: %d sesiones (p99 <= %.1f ms, pérdida <= %.2f%%)", sustained, maxP99Ms, maxLoss * 100));
+        } finally {
+            driver.close();
+        }
+    }
+
+    private static void report(int clients, Driver driver, LoadStats.Window w) {
+        double seconds = w.seconds();
+        String loss = driver.measuresLoss() ? String.format(Locale.ROOT, "%.3f", w.loss() * 100) : "n/a";
+        System.out.println(String.format(Locale.ROOT, "%-8d %8d %8d %10.0f %10.0f %8s %9.3f %9.3f %9.3f %9.3f",
+            clients, driver.playingSessions(), driver.rejectedSessions(),
+            w.sent.get() / seconds, w.received.get() / seconds, loss,
+            ms(w.latency.percentile(0.50)), ms(w.latency.percentile(0.99)),
+            ms(w.latency.percentile(0.999)), ms(w.latency.getMax())));
+        if (w.errors.get() > 0) System.out.println("  errores de socket: " + w.errors.get());
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static void usage() {
+        System.out.println("Uso: loadtest udp|kryonet|rawudp|loopback [opciones]");
+        System.out.println("  --host=H            servidor (" + DEFAULT_HOST + ")");
+        System.out.println("  --port=P            UDP (udp, " + DEFAULT_UDP_PORT + ") o TCP base (kryonet/rawudp, " + GameServer.DEFAULT_TCP_PORT + ")");
+        System.out.println("  --udp-port=P        UDP de GameServer con una sola partida (" + GameServer.DEFAULT_UDP_PORT + ")");
+        System.out.println("  --matches=N         partidas de ServerLauncher (kryonet/rawudp) o en proceso (loopback)");
+        System.out.println("  --clients=N         clientes sin --ramp (2)");
+        System.out.println("  --rate=HZ           STATE por segundo por cliente (60)");
+        System.out.println("  --threads=N         hilos de clientes UDP");
+        System.out.println("  --warmup=S          segundos antes de medir (5)");
+        System.out.println("  --duration=S        segundos medidos por escalón (30)");
+        System.out.println("  --v2                protocolo binario (udp)");
+        System.out.println("  --ramp              sumar --step clientes hasta pasar los límites");
+        System.out.println("  --step=N            clientes por escalón (200)");
+        System.out.println("  --max-p99-ms=MS     límite de p99 del relay (50)");
+        System.out.println("  --max-loss=F        límite de pérdida, fracción (0.01)");
+    }
+}
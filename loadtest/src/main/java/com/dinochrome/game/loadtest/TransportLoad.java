@@ -0,0 +1,183 @@
+// =====================================================
+// ARCHIVO: TransportLoad.java
+// PAQUETE: com.dinochrome.game.loadtest
+// =====================================================
+package com.dinochrome.game.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dinochrome.game.net.GameServer;
+import com.dinochrome.game.net.LoopbackTransport;
+import com.dinochrome.game.net.MatchClient;
+import com.dinochrome.game.net.PlayerState;
+import com.dinochrome.game.net.RoomScheduler;
+import com.dinochrome.game.net.Snapshot;
+import com.dinochrome.game.net.StartGame;
+import com.dinochrome.game.net.UdpTransport;
+
+/**
+ * Clientes simulados de GameServer sobre los otros transportes (ver
+ * MatchTransport), con la misma carga que KryonetLoad:
+ *
+ *   rawudp    UdpTransport.Client contra ServerLauncher con transporte udp
+ *             (mismos puertos UDP que kryonet, un hilo de red por cliente)
+ *   loopback  las partidas corren en este proceso con LoopbackTransport:
+ *             sin red, mide sólo la partida y la serialización
+ *
+ * Comparando los tres contra la misma cantidad de partidas se ve cuánto de
+ * la latencia y del techo de sesiones es del transporte.
+ */
+final class TransportLoad implements LoadTest.Driver {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final String host;
+    private final int tcpPort;
+    private final int udpPort;
+    private final int matches;
+    private final boolean loopback;
+    private final LoadStats stats;
+
+    // Sólo loopback: las partidas en proceso
+    private final ArrayList<GameServer> servers = new ArrayList<>();
+    private final ArrayList<LoopbackTransport> transports = new ArrayList<>();
+    private RoomScheduler scheduler;
+
+    private final ArrayList<SimClient> clients = new ArrayList<>();
+    private final CopyOnWriteArrayList<SimClient> playingClients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loadtest-transport-send");
+        t.setDaemon(true);
+        return t;
+    });
+
+    TransportLoad(boolean loopback, String host, int tcpPort, int udpPort, int matches, int rate, LoadStats stats)
+            throws IOException {
+        this.loopback = loopback;
+        this.host = host;
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.matches = matches;
+        this.stats = stats;
+
+        if (loopback) {
+            // Como ServerLauncher: con varias partidas, un pool de ticks compartido
+            if (matches > 1) {
+                scheduler = new RoomScheduler();
+                scheduler.start();
+            }
+            for (int i = 0; i < matches; i++) {
+                LoopbackTransport transport = new LoopbackTransport();
+                servers.add(new GameServer(transport, GameServer.DEFAULT_TICK_RATE, GameServer.DEFAULT_SNAPSHOT_RATE,
+                        scheduler));
+                transports.add(transport);
+            }
+        }
+
+        long interval = 1_000_000_000L / rate;
+        sender.scheduleAtFixedRate(this::sendStates, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void addClients(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            int match = clients.size() / 2;
+            if (match >= matches) {
+                throw new IOException("No hay más partidas: " + matches + " partidas = " + (2 * matches) + " clientes");
+            }
+
+            SimClient sim = new SimClient();
+            if (loopback) {
+                sim.client = transports.get(match).connect(sim::received);
+            } else {
+                // Un solo GameServer usa su puerto UDP; con varias partidas, el esquema de ServerLauncher
+                int udp = matches == 1 ? udpPort : tcpPort + 2 * match + 1;
+                UdpTransport.Client client = new UdpTransport.Client(new InetSocketAddress(host, udp), sim::received);
+                try {
+                    if (!client.connect(CONNECT_TIMEOUT_MS)) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    client.close();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido conectando", e);
+                }
+                sim.client = client;
+            }
+            clients.add(sim);
+
+            PlayerState ready = new PlayerState();
+            ready.ready = true;
+            sim.client.send(ready, true);
+        }
+    }
+
+    @Override
+    public int playingSessions() {
+        return playingClients.size();
+    }
+
+    @Override
+    public int rejectedSessions() {
+        return rejected.get();
+    }
+
+    @Override
+    public boolean measuresLoss() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        sender.shutdownNow();
+        for (SimClient c : clients) c.client.close();
+        for (GameServer server : servers) server.stop();
+        if (scheduler != null) scheduler.stop();
+    }
+
+    private void sendStates() {
+        PlayerState ps = new PlayerState();
+        for (SimClient c : playingClients) {
+            long micros = stats.nowMicros();
+            ps.x = LoadStats.stampX(micros);
+            ps.y = LoadStats.stampY(micros);
+            c.client.send(ps, false);
+            stats.current().sent.increment();
+        }
+    }
+
+    /** Lo recibido llega desde el hilo de red del cliente (o el de ticks, en loopback). */
+    private final class SimClient {
+        volatile MatchClient client;
+        private boolean playing;
+
+        void received(Object object) {
+            MatchClient c = client;
+            if (c == null) return;
+
+            if (object instanceof StartGame) {
+                if (!playing) {
+                    playing = true;
+                    playingClients.add(this);
+                }
+                return;
+            }
+
+            if (object instanceof Snapshot && playing) {
+                Snapshot s = (Snapshot) object;
+                for (int i = 0; i < s.count; i++) {
+                    if (s.playerIds[i] != c.session()) stats.recordRelay(s.x[i], s.y[i]);
+                }
+            }
+        }
+    }
+}
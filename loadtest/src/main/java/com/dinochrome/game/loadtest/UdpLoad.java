@@ -0,0 +1,394 @@
+// =====================================================
+// ARCHIVO: UdpLoad.java
+// PAQUETE: com.dinochrome.game.loadtest
+// =====================================================
+package com.dinochrome.game.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dinochrome.game.net.MpscQueue;
+
+/**
+ * Clientes simulados de ServidorDinoMultijugador.
+ *
+ * Cada cliente tiene su propio socket UDP (conectado al servidor, así el
+ * kernel lo trata como un jugador distinto) y hace lo mismo que el juego:
+ * BUSCAR_SERVIDOR, JOIN, READY y después STATE a la frecuencia pedida.
+ * Unos pocos hilos atienden a todos los clientes con un Selector cada uno.
+ *
+ * Mientras espera una respuesta, el cliente repite su último mensaje cada
+ * RETRY_NANOS (UDP puede perderlo, igual que en el juego real).
+ */
+final class UdpLoad implements LoadTest.Driver {
+
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int MAX_DATAGRAM = 2048;
+
+    // Mismos tipos que ProtocoloBinario (v2)
+    private static final int BIN_STATE = 0x81;
+    private static final int BIN_ASSIGN = 0xA1;
+    private static final int BIN_START = 0xA4;
+    private static final int BIN_FULL = 0xA6;
+    private static final int BIN_SESION = 0x8F;
+    private static final int BIN_LARGO_STATE = 11;
+
+    private static final byte[] TXT_BUSCAR = ascii("BUSCAR_SERVIDOR");
+    private static final byte[] TXT_BUSCAR_V2 = ascii("BUSCAR_SERVIDOR;v=2");
+    private static final byte[] TXT_READY = ascii("READY");
+    private static final byte[] TXT_STATE = ascii("STATE;");
+
+    private enum Phase { DISCOVER, JOIN, READY, PLAYING, REJECTED }
+
+    private final InetSocketAddress server;
+    private final boolean binary;
+    private final long sendIntervalNanos;
+    private final LoadStats stats;
+
+    private final Worker[] workers;
+    private int nextWorker = 0;
+    private final AtomicInteger playing = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    UdpLoad(InetSocketAddress server, boolean binary, int rate, int threads, LoadStats stats) throws IOException {
+        this.server = server;
+        this.binary = binary;
+        this.sendIntervalNanos = 1_000_000_000L / rate;
+        this.stats = stats;
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void addClients(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(server);
+
+            Worker w = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+            while (!w.incoming.offer(new SimClient(channel))) {
+                Thread.yield();
+            }
+            w.selector.wakeup();
+        }
+    }
+
+    @Override
+    public int playingSessions() {
+        return playing.get();
+    }
+
+    @Override
+    public int rejectedSessions() {
+        return rejected.get();
+    }
+
+    @Override
+    public boolean measuresLoss() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (Worker w : workers) w.shutdown();
+    }
+
+    // -------------------------
+    // Hilo que atiende un grupo de clientes
+    // -------------------------
+    private final class Worker extends Thread {
+        final Selector selector;
+        final MpscQueue<SimClient> incoming = new MpscQueue<>(1 << 14);
+        private final ArrayList<SimClient> clients = new ArrayList<>();
+        private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        private volatile boolean running = true;
+
+        Worker(int index) throws IOException {
+            super("loadtest-udp-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    SimClient c;
+                    while ((c = incoming.poll()) != null) {
+                        c.channel.register(selector, SelectionKey.OP_READ, c);
+                        clients.add(c);
+                        c.begin(System.nanoTime());
+                    }
+
+                    // 1 ms alcanza para mandar a 60 Hz sin atrasos visibles
+                    selector.select(1);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ((SimClient) key.attachment()).receiveAll(in);
+                    }
+
+                    long now = System.nanoTime();
+                    for (int i = 0; i < clients.size(); i++) {
+                        clients.get(i).tick(now);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SimClient c : clients) c.close();
+            }
+        }
+    }
+
+    // -------------------------
+    // Un jugador simulado
+    // -------------------------
+    private final class SimClient {
+        final DatagramChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+
+        private Phase phase = Phase.DISCOVER;
+        private int id;
+        private int session; // del ASSIGN binario (0 = no hay)
+        private long nextSendNanos;
+
+        SimClient(DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        void begin(long now) {
+            sendPhaseMessage();
+            nextSendNanos = now + RETRY_NANOS;
+        }
+
+        void tick(long now) {
+            if (now < nextSendNanos) return;
+
+            if (phase == Phase.PLAYING) {
+                sendState();
+                nextSendNanos += sendIntervalNanos;
+                // si este hilo se atrasó mucho, no se mandan ráfagas para recuperar
+                if (nextSendNanos < now) nextSendNanos = now + sendIntervalNanos;
+            } else if (phase != Phase.REJECTED) {
+                sendPhaseMessage();
+                nextSendNanos = now + RETRY_NANOS;
+            }
+        }
+
+        void receiveAll(ByteBuffer in) {
+            while (true) {
+                in.clear();
+                try {
+                    if (channel.receive(in) == null) return;
+                } catch (IOException e) {
+                    // PortUnreachable y similares: el servidor no está o se cayó
+                    stats.current().errors.increment();
+                    return;
+                }
+                in.flip();
+                if (in.hasRemaining()) onDatagram(in);
+            }
+        }
+
+        private void onDatagram(ByteBuffer in) {
+            int first = in.get(0) & 0xFF;
+            if ((first & 0x80) != 0) {
+                onBinary(in, first);
+            } else {
+                onText(in);
+            }
+        }
+
+        private void onBinary(ByteBuffer in, int type) {
+            switch (type) {
+                case BIN_STATE:
+                    if (in.limit() >= BIN_LARGO_STATE) onRelayedState(in.getFloat(3), in.getFloat(7));
+                    break;
+                case BIN_ASSIGN:
+                    if (in.limit() >= 6) session = in.getInt(2);
+                    if (in.limit() >= 2) onAssign(in.get(1) & 0xFF);
+                    break;
+                case BIN_START:
+                    onStart();
+                    break;
+                case BIN_FULL:
+                    onFull();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onText(ByteBuffer in) {
+            // El STATE es lo único frecuente: se lee sin crear Strings
+            if (startsWith(in, TXT_STATE)) {
+                float x = textField(in, 'x');
+                float y = textField(in, 'y');
+                if (x == x && y == y) onRelayedState(x, y);
+                return;
+            }
+
+            String msg = StandardCharsets.US_ASCII.decode(in).toString().trim();
+            if (msg.startsWith("SERVIDOR_AQUI")) {
+                if (phase == Phase.DISCOVER) advance(Phase.JOIN);
+            } else if (msg.startsWith("ASSIGN;id=")) {
+                onAssign(Integer.parseInt(msg.substring("ASSIGN;id=".length())));
+            } else if (msg.equals("START")) {
+                onStart();
+            } else if (msg.equals("FULL")) {
+                onFull();
+            }
+        }
+
+        private void onAssign(int assigned) {
+            id = assigned;
+            if (phase == Phase.DISCOVER || phase == Phase.JOIN) advance(Phase.READY);
+        }
+
+        private void onStart() {
+            if (phase == Phase.READY) startPlaying();
+        }
+
+        private void onFull() {
+            if (phase == Phase.PLAYING || phase == Phase.REJECTED) return;
+            phase = Phase.REJECTED;
+            rejected.incrementAndGet();
+        }
+
+        private void onRelayedState(float x, float y) {
+            // si se perdió el START, el primer STATE del rival también sirve
+            if (phase == Phase.READY) startPlaying();
+            if (phase == Phase.PLAYING) stats.recordRelay(x, y);
+        }
+
+        private void advance(Phase next) {
+            phase = next;
+            sendPhaseMessage();
+            nextSendNanos = System.nanoTime() + RETRY_NANOS;
+        }
+
+        private void startPlaying() {
+            phase = Phase.PLAYING;
+            playing.incrementAndGet();
+            // fase al azar: los clientes no mandan todos en el mismo instante
+            nextSendNanos = System.nanoTime() + ThreadLocalRandom.current().nextLong(sendIntervalNanos);
+        }
+
+        private void sendPhaseMessage() {
+            switch (phase) {
+                case DISCOVER:
+                    send(binary ? TXT_BUSCAR_V2 : TXT_BUSCAR);
+                    break;
+                case JOIN:
+                    send(ascii(binary ? "JOIN;v=2" : "JOIN"));
+                    break;
+                case READY:
+                    send(TXT_READY);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void sendState() {
+            long micros = stats.nowMicros();
+            float x = LoadStats.stampX(micros);
+            float y = LoadStats.stampY(micros);
+
+            out.clear();
+            if (binary) {
+                // con el id de sesión delante: el servidor busca por id, no por dirección
+                if (session != 0) out.put((byte) BIN_SESION).putInt(session);
+                out.put((byte) BIN_STATE).put((byte) id).put((byte) 0).putFloat(x).putFloat(y);
+            } else {
+                // enteros: el servidor los reenvía tal cual al rival
+                out.put(TXT_STATE).put(ascii("id=" + id + ";x=" + (long) x + ";y=" + (long) y + ";duck=0"));
+            }
+            out.flip();
+            if (write(out)) stats.current().sent.increment();
+        }
+
+        private void send(byte[] msg) {
+            out.clear();
+            out.put(msg).flip();
+            write(out);
+        }
+
+        private boolean write(ByteBuffer b) {
+            try {
+                return channel.write(b) > 0;
+            } catch (IOException e) {
+                stats.current().errors.increment();
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // se está cerrando todo
+            }
+        }
+    }
+
+    // -------------------------
+    // Utilidades de texto
+    // -------------------------
+    private static boolean startsWith(ByteBuffer b, byte[] prefix) {
+        if (b.limit() < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b.get(i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /** Valor entero del campo de una letra ("x=123") de un STATE; NaN si no está. */
+    private static float textField(ByteBuffer b, char key) {
+        int fin = b.limit();
+        for (int i = 0; i + 1 < fin; i++) {
+            boolean start = i == 0 || b.get(i - 1) == ';';
+            if (start && b.get(i) == key && b.get(i + 1) == '=') {
+                long v = 0;
+                int j = i + 2;
+                int digits = 0;
+                while (j < fin) {
+                    int d = b.get(j) - '0';
+                    if (d < 0 || d > 9) break;
+                    v = v * 10 + d;
+                    digits++;
+                    j++;
+                }
+                return digits > 0 ? v : Float.NaN;
+            }
+        }
+        return Float.NaN;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
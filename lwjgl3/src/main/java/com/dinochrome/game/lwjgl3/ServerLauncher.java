@@ -1,15 +1,89 @@
 package com.dinochrome.game.lwjgl3;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dinochrome.game.net.DirectorioSalas;
 import com.dinochrome.game.net.GameServer;
+import com.dinochrome.game.net.KryonetTransport;
+import com.dinochrome.game.net.MatchRecorder;
+import com.dinochrome.game.net.MatchTransport;
+import com.dinochrome.game.net.MetricsExporter;
+import com.dinochrome.game.net.MetricsRegistry;
+import com.dinochrome.game.net.RoomScheduler;
+import com.dinochrome.game.net.UdpTransport;
 
 public class ServerLauncher {
 
+    // Con varias partidas, la partida i usa TCP BASE + 2i y UDP BASE + 2i + 1
+    private static final int MULTI_MATCH_BASE_PORT = 56000;
+
     public static void main(String[] args) {
         try {
-            new GameServer();
+            // Argumentos opcionales: ticks por segundo, snapshots por segundo, cantidad de partidas,
+            // puerto HTTP de métricas (0 = sin HTTP; JMX siempre está), carpeta donde grabar cada partida
+            // ("-" = no grabar), host:puerto de DirectorioSalas al que reportar cada partida ("-" = ninguno)
+            // tamaños en bytes de los buffers de escritura y de objetos de Kryonet por conexión y
+            // transporte: kryonet o udp (UdpTransport en el puerto UDP de cada partida; el objectBufferSize
+            // es el mensaje más grande y por defecto queda debajo del MTU)
+            int tickRate = args.length > 0 ? Integer.parseInt(args[0]) : GameServer.DEFAULT_TICK_RATE;
+            int snapshotRate = args.length > 1 ? Integer.parseInt(args[1]) : GameServer.DEFAULT_SNAPSHOT_RATE;
+            int matches = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+            int metricsPort = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            Path recordDir = args.length > 4 && !args[4].equals("-") ? Paths.get(args[4]) : null;
+            InetSocketAddress directory = args.length > 5 && !args[5].equals("-") ? DirectorioSalas.direccion(args[5]) : null;
+            int writeBufferSize = args.length > 6 ? Integer.parseInt(args[6]) : GameServer.DEFAULT_WRITE_BUFFER_SIZE;
+            String transport = args.length > 8 ? args[8] : "kryonet";
+            boolean udp = transport.equals("udp");
+            if (!udp && !transport.equals("kryonet")) throw new IllegalArgumentException("Transporte desconocido: " + transport);
+            int objectBufferSize = args.length > 7 ? Integer.parseInt(args[7])
+                    : udp ? UdpTransport.DEFAULT_MAX_MESSAGE_SIZE : GameServer.DEFAULT_OBJECT_BUFFER_SIZE;
+            // Los clientes que manda el directorio hablan Kryonet
+            if (udp && directory != null) throw new IllegalArgumentException("DirectorioSalas sólo enruta partidas Kryonet");
+            if (recordDir != null) Files.createDirectories(recordDir);
+
+            MetricsRegistry metrics = MetricsRegistry.global();
+            MetricsExporter.registerJmx(metrics);
+            if (metricsPort > 0) MetricsExporter.startHttp(metrics, metricsPort);
+
+            List<GameServer> games = new ArrayList<>();
+            List<Integer> tcpPorts = new ArrayList<>();
+            if (matches <= 1) {
+                MatchTransport net = transport(udp, GameServer.DEFAULT_TCP_PORT, GameServer.DEFAULT_UDP_PORT,
+                        writeBufferSize, objectBufferSize);
+                GameServer game = new GameServer(net, tickRate, snapshotRate, null);
+                record(game, recordDir, GameServer.DEFAULT_TCP_PORT);
+                games.add(game);
+                tcpPorts.add(GameServer.DEFAULT_TCP_PORT);
+            } else {
+                // Todas las partidas comparten un pool de ticks (un hilo por núcleo)
+                RoomScheduler scheduler = new RoomScheduler();
+                scheduler.start();
+                scheduler.registerMetrics(metrics);
+                for (int i = 0; i < matches; i++) {
+                    int tcpPort = MULTI_MATCH_BASE_PORT + 2 * i;
+                    MatchTransport net = transport(udp, tcpPort, tcpPort + 1, writeBufferSize, objectBufferSize);
+                    GameServer game = new GameServer(net, tickRate, snapshotRate, scheduler);
+                    record(game, recordDir, tcpPort);
+                    games.add(game);
+                    tcpPorts.add(tcpPort);
+                }
+                System.out.println(matches + " partidas sobre " + scheduler.getParallelism() + " hilos");
+            }
             System.out.println("Server running...");
 
+            DirectorioSalas.Reportero reporter = null;
+            if (directory != null) {
+                reporter = new DirectorioSalas.Reportero(directory);
+                System.out.println("Reportando al directorio " + directory);
+            }
             while (true) {
+                if (reporter != null) report(reporter, games, tcpPorts, matches <= 1);
                 Thread.sleep(1000);
             }
 
@@ -17,4 +91,28 @@ public class ServerLauncher {
             e.printStackTrace();
         }
     }
+
+    /** Cada partida es un nodo: libre si está vacía, con alguien esperando si tiene uno solo. */
+    private static void report(DirectorioSalas.Reportero reporter, List<GameServer> games, List<Integer> tcpPorts,
+                               boolean single) {
+        for (int i = 0; i < games.size(); i++) {
+            int players = games.get(i).getPlayerCount();
+            int tcpPort = tcpPorts.get(i);
+            int udpPort = single ? GameServer.DEFAULT_UDP_PORT : tcpPort + 1;
+            reporter.reportarKryonet(tcpPort, udpPort, players == 0 ? 1 : 0, players == 1 ? 1 : 0);
+        }
+    }
+
+    private static MatchTransport transport(boolean udp, int tcpPort, int udpPort, int writeBufferSize,
+                                            int objectBufferSize) throws IOException {
+        if (udp) return new UdpTransport(udpPort, objectBufferSize);
+        return new KryonetTransport(tcpPort, udpPort, writeBufferSize, objectBufferSize);
+    }
+
+    private static void record(GameServer game, Path recordDir, int tcpPort) throws IOException {
+        if (recordDir == null) return;
+        Path file = recordDir.resolve("match-" + tcpPort + ".rec");
+        game.setRecorder(new MatchRecorder(file, MatchRecorder.KIND_KRYONET));
+        System.out.println("Grabando en " + file);
+    }
 }